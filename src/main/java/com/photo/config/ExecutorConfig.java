@@ -0,0 +1,87 @@
+package com.photo.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 后台线程池配置
+ */
+@Configuration
+public class ExecutorConfig {
+    
+    @Autowired
+    private FileStorageProperties storageProperties;
+    
+    /**
+     * 衍生图(缩略图、压缩图)生成线程池
+     * 队列有界，队列满时拒绝任务，由定时补偿任务重新提交
+     */
+    @Bean
+    public ThreadPoolTaskExecutor derivativeExecutor() {
+        FileStorageProperties.DerivativeConfig config = storageProperties.getDerivative();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getThreads());
+        executor.setMaxPoolSize(config.getThreads());
+        executor.setQueueCapacity(config.getQueueCapacity());
+        executor.setThreadNamePrefix("derivative-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+    
+    /**
+     * 批量上传线程池
+     * 队列满时由请求线程自行处理，形成背压
+     */
+    @Bean
+    public ThreadPoolTaskExecutor batchUploadExecutor() {
+        FileStorageProperties.BatchConfig config = storageProperties.getBatch();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getThreads());
+        executor.setMaxPoolSize(config.getThreads());
+        executor.setQueueCapacity(config.getQueueCapacity());
+        executor.setThreadNamePrefix("batch-upload-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+    
+    /**
+     * 过期照片清理的文件删除线程池
+     * 队列满时由清理线程自行删除，形成背压
+     */
+    @Bean
+    public ThreadPoolTaskExecutor cleanupExecutor() {
+        FileStorageProperties.CleanupConfig config = storageProperties.getCleanup();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getIoThreads());
+        executor.setMaxPoolSize(config.getIoThreads());
+        executor.setQueueCapacity(config.getBatchSize());
+        executor.setThreadNamePrefix("cleanup-io-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+    
+    /**
+     * 后台维护任务线程池(目录迁移等)
+     * 单线程执行，同类任务不并发
+     */
+    @Bean
+    public ThreadPoolTaskExecutor maintenanceExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(10);
+        executor.setThreadNamePrefix("maintenance-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return executor;
+    }
+}
@@ -4,6 +4,8 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -29,6 +31,16 @@ public class FileStorageProperties {
      */
     private String thumbnailPath = "./uploads/thumbnails";
     
+    /**
+     * 多尺寸图片目录
+     */
+    private String renditionPath = "./uploads/renditions";
+    
+    /**
+     * 缩略图打包存储目录
+     */
+    private String packPath = "./uploads/packs";
+    
     /**
      * 允许的文件类型
      */
@@ -59,6 +71,11 @@ public class FileStorageProperties {
      */
     private CompressionConfig compression = new CompressionConfig();
     
+    /**
+     * 多尺寸图片配置
+     */
+    private RenditionConfig rendition = new RenditionConfig();
+    
     /**
      * 存储容量限制(字节)
      */
@@ -69,6 +86,71 @@ public class FileStorageProperties {
      */
     private CleanupConfig cleanup = new CleanupConfig();
     
+    /**
+     * 衍生图异步生成配置
+     */
+    private DerivativeConfig derivative = new DerivativeConfig();
+    
+    /**
+     * 批量上传配置
+     */
+    private BatchConfig batch = new BatchConfig();
+    
+    /**
+     * 访问/下载计数写缓冲配置
+     */
+    private CounterConfig counter = new CounterConfig();
+    
+    /**
+     * 存储使用量统计配置
+     */
+    private UsageConfig usage = new UsageConfig();
+    
+    /**
+     * 存储目录分片迁移配置
+     */
+    private LayoutConfig layout = new LayoutConfig();
+    
+    /**
+     * 缩略图打包存储配置
+     */
+    private PackConfig pack = new PackConfig();
+    
+    /**
+     * 图片内容缓存配置
+     */
+    private ByteCacheConfig byteCache = new ByteCacheConfig();
+    
+    /**
+     * 搜索索引配置
+     */
+    private SearchConfig search = new SearchConfig();
+    
+    /**
+     * 相似照片配置
+     */
+    private SimilarityConfig similarity = new SimilarityConfig();
+    
+    /**
+     * 分片断点续传配置
+     */
+    private ResumableConfig resumable = new ResumableConfig();
+    
+    /**
+     * 上传进度推送配置
+     */
+    private ProgressConfig progress = new ProgressConfig();
+    
+    /**
+     * 孤立文件核对配置
+     */
+    private ReconcileConfig reconcile = new ReconcileConfig();
+    
+    /**
+     * 本地目录批量导入配置
+     */
+    private ImportConfig bulkImport = new ImportConfig();
+    
     @Data
     public static class ThumbnailConfig {
         private Integer width = 200;
@@ -89,5 +171,118 @@ public class FileStorageProperties {
         private Boolean enabled = true;
         private Integer daysToKeep = 30;
         private String cron = "0 0 2 * * ?";
+        private Integer batchSize = 500; // 每批删除的照片数，每批一个事务
+        private Integer ioThreads = 4; // 并行删除文件的线程数
+        private String checkpointPath = "./data/jobs/expired-cleanup.properties";
+    }
+    
+    @Data
+    public static class DerivativeConfig {
+        private Integer threads = 2;
+        private Integer queueCapacity = 200;
+        private Integer maxAttempts = 3;
+        private Long retryDelay = 5000L; // 毫秒，每次重试翻倍
+        private Long sweepInterval = 60000L; // 毫秒
+        private Long staleTimeout = 600000L; // 毫秒，生成中超过该时间视为中断
+    }
+    
+    @Data
+    public static class BatchConfig {
+        private Integer threads = 4;
+        private Integer queueCapacity = 100;
+    }
+    
+    @Data
+    public static class CounterConfig {
+        private Long flushInterval = 5000L; // 毫秒
+        private Long maxPending = 10000L; // 待写入增量达到该值时提前刷新
+        private Integer batchSize = 500;
+    }
+    
+    @Data
+    public static class UsageConfig {
+        private Long reconcileInterval = 600000L; // 毫秒
+    }
+    
+    @Data
+    public static class RenditionConfig {
+        private List<Integer> widths = new ArrayList<>(Arrays.asList(1600, 800, 400));
+        private Double quality = 0.85;
+    }
+    
+    @Data
+    public static class LayoutConfig {
+        private Boolean migrateOnStartup = false;
+        private Integer batchSize = 500; // 每批更新数据库路径的文件数
+        private Long batchPause = 0L; // 每批之间的暂停(毫秒)
+    }
+    
+    @Data
+    public static class PackConfig {
+        private Boolean enabled = true;
+        private Long volumeSize = 268435456L; // 256MB
+        private Double compactThreshold = 0.5; // 失效数据占比达到该值时压缩
+        private Long compactInterval = 3600000L; // 毫秒
+    }
+    
+    @Data
+    public static class ByteCacheConfig {
+        private Boolean enabled = true;
+        private Long maxSize = 64L; // MB，堆外内存
+        private Long maxEntrySize = 262144L; // 超过该大小(字节)的文件不缓存
+    }
+    
+    @Data
+    public static class SearchConfig {
+        private Boolean enabled = true;
+        private String path = "./data/search-index";
+        private Long flushInterval = 60000L; // 毫秒
+        private Integer maxSegments = 8;
+        private Double minScore = 0.6; // 三元组匹配比例达到该值的记录参与排序
+    }
+    
+    @Data
+    public static class SimilarityConfig {
+        private Boolean enabled = true;
+        private Boolean rejectNearDuplicates = false; // 拒绝与本人已有照片近似重复的上传
+        private Integer duplicateDistance = 4; // 汉明距离不超过该值视为近似重复
+        private Integer maxDistance = 16; // 相似查询允许的最大汉明距离
+        private Boolean backfillOnStartup = true; // 启动后为缺少感知哈希的历史照片补算
+        private Long backfillPause = 20L; // 毫秒，补算每张照片后暂停
+    }
+    
+    @Data
+    public static class ResumableConfig {
+        private Long maxFileSize = 104857600L; // 100MB
+        private Long sessionTimeout = 86400000L; // 毫秒，超过该时间未上传分片的会话被清理
+        private Long cleanupInterval = 600000L; // 毫秒
+    }
+    
+    @Data
+    public static class ProgressConfig {
+        private Boolean enabled = true;
+        private Long emitterTimeout = 300000L; // 毫秒，SSE连接超时，超过该时间没有进度且无人订阅的上传被移除
+    }
+    
+    @Data
+    public static class ReconcileConfig {
+        private String cron = "-"; // 定时核对的cron表达式，"-"表示只手动执行
+        private String action = "quarantine"; // 孤立文件的处理方式: report(只报告)、quarantine(移入隔离目录)、delete
+        private String quarantinePath = "./data/quarantine";
+        private Long minOrphanAge = 86400000L; // 毫秒，修改时间晚于此的文件可能属于进行中的上传，不处理
+        private Integer threads = 4; // 并行扫描目录的线程数
+        private Integer maxReportedMissing = 1000; // 报告中列出的缺少文件的照片ID数上限
+    }
+    
+    @Data
+    public static class ImportConfig {
+        private List<String> allowedRoots = new ArrayList<>(); // 允许导入的本地目录，为空时禁用导入
+        private Integer ingestThreads = 4; // 读取、校验、计算哈希的线程数
+        private Integer writerThreads = 2; // 批量写入数据库的线程数
+        private Integer derivativeThreads = 2; // 生成缩略图、压缩图的线程数
+        private Integer batchSize = 200; // 写入线程每次取出的文件数，每批更新一次检查点
+        private Integer lockGroupSize = 20; // 每个事务保存的文件数，事务持有这些文件的内容锁直到提交
+        private Integer queueCapacity = 1000; // 各阶段之间的队列长度，队列满时上游阶段等待
+        private String checkpointPath = "./data/jobs/bulk-import.properties";
     }
 }
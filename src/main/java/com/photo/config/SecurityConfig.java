@@ -3,18 +3,24 @@ package com.photo.config;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.util.StringUtils;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
 /**
  * Spring Security配置
+ * 管理接口(/admin/**)需要以HTTP Basic方式使用配置的管理员账号访问，其余接口公开
  */
 @Configuration
 @EnableWebSecurity
@@ -40,8 +46,10 @@ public class SecurityConfig {
                     "/photos/download/**",
                     "/photos/public/**"
                 ).permitAll()
+                .requestMatchers("/admin/**").hasRole("ADMIN")
                 .anyRequest().permitAll()
             )
+            .httpBasic(Customizer.withDefaults())
             .headers(headers -> headers.frameOptions(frame -> frame.disable()));
         
         return http.build();
@@ -63,6 +71,22 @@ public class SecurityConfig {
         return source;
     }
     
+    /**
+     * 管理员账号，未配置密码时不创建，管理接口一律返回401
+     */
+    @Bean
+    public UserDetailsService userDetailsService() {
+        InMemoryUserDetailsManager manager = new InMemoryUserDetailsManager();
+        SecurityProperties.AdminConfig admin = securityProperties.getAdmin();
+        if (StringUtils.hasText(admin.getPassword())) {
+            manager.createUser(User.withUsername(admin.getUsername())
+                .password(passwordEncoder().encode(admin.getPassword()))
+                .roles("ADMIN")
+                .build());
+        }
+        return manager;
+    }
+    
     @Bean
     public PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
@@ -29,6 +29,11 @@ public class SecurityProperties {
      */
     private CorsConfig cors = new CorsConfig();
     
+    /**
+     * 管理接口配置
+     */
+    private AdminConfig admin = new AdminConfig();
+    
     @Data
     public static class RefererConfig {
         private Boolean enabled = true;
@@ -49,4 +54,10 @@ public class SecurityProperties {
         private List<String> allowedHeaders;
         private Boolean allowCredentials = true;
     }
+    
+    @Data
+    public static class AdminConfig {
+        private String username = "admin";
+        private String password; // 为空时不创建管理员账号，管理接口不可访问
+    }
 }
@@ -0,0 +1,119 @@
+package com.photo.controller;
+
+import com.photo.dto.ApiResponse;
+import com.photo.dto.ImportStatus;
+import com.photo.dto.LayoutMigrationStatus;
+import com.photo.dto.ReconcileStatus;
+import com.photo.service.BulkImportService;
+import com.photo.service.OrphanReconciler;
+import com.photo.service.PhotoSearchIndex;
+import com.photo.service.StorageLayoutMigrator;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 系统管理Controller
+ * 会修改磁盘文件、读取服务器目录或占用大量资源的维护操作，需要管理员账号(见 SecurityConfig)
+ */
+@RestController
+@RequestMapping("/admin")
+@Tag(name = "系统管理", description = "存储维护等管理接口，需要管理员账号")
+public class AdminController {
+
+    @Autowired
+    private StorageLayoutMigrator storageLayoutMigrator;
+
+    @Autowired
+    private OrphanReconciler orphanReconciler;
+
+    @Autowired
+    private BulkImportService bulkImportService;
+
+    @Autowired
+    private PhotoSearchIndex photoSearchIndex;
+
+    /**
+     * 启动存储目录分片迁移
+     */
+    @PostMapping("/storage/layout/migrate")
+    @Operation(summary = "启动存储目录分片迁移", description = "在后台将平铺存放的旧文件移动到分片目录，迁移期间服务正常可用")
+    public ResponseEntity<ApiResponse<LayoutMigrationStatus>> startLayoutMigration() {
+        LayoutMigrationStatus status = storageLayoutMigrator.start();
+        return ResponseEntity.ok(ApiResponse.success("迁移任务已启动", status));
+    }
+
+    /**
+     * 查询存储目录分片迁移状态
+     */
+    @GetMapping("/storage/layout/migrate")
+    @Operation(summary = "查询存储目录分片迁移状态", description = "查询迁移进度")
+    public ResponseEntity<ApiResponse<LayoutMigrationStatus>> getLayoutMigrationStatus() {
+        return ResponseEntity.ok(ApiResponse.success(storageLayoutMigrator.getStatus()));
+    }
+
+    /**
+     * 启动孤立文件核对
+     */
+    @PostMapping("/storage/reconcile")
+    @Operation(summary = "启动孤立文件核对", description = "在后台对比磁盘文件与数据库记录，按配置隔离或删除没有记录的文件，并报告文件缺失的照片")
+    public ResponseEntity<ApiResponse<ReconcileStatus>> startReconcile() {
+        ReconcileStatus status = orphanReconciler.start();
+        return ResponseEntity.ok(ApiResponse.success("核对任务已启动", status));
+    }
+
+    /**
+     * 查询孤立文件核对状态
+     */
+    @GetMapping("/storage/reconcile")
+    @Operation(summary = "查询孤立文件核对状态", description = "查询核对进度和结果")
+    public ResponseEntity<ApiResponse<ReconcileStatus>> getReconcileStatus() {
+        return ResponseEntity.ok(ApiResponse.success(orphanReconciler.getStatus()));
+    }
+
+    /**
+     * 开始从本地目录批量导入
+     */
+    @PostMapping("/import")
+    @Operation(summary = "从本地目录批量导入", description = "在后台导入服务器本地目录(含子目录)中的图片，目录须在 allowed-roots 配置的目录下；同一目录和用户有未完成的导入时从检查点继续")
+    public ResponseEntity<ApiResponse<ImportStatus>> startImport(
+            @Parameter(description = "服务器本地目录") @RequestParam("path") String path,
+            @Parameter(description = "用户ID") @RequestParam(value = "userId", defaultValue = "guest") String userId,
+            @Parameter(description = "照片描述") @RequestParam(value = "description", required = false) String description) {
+        ImportStatus status = bulkImportService.start(path, userId, description);
+        return ResponseEntity.ok(ApiResponse.success("导入任务已启动", status));
+    }
+
+    /**
+     * 查询批量导入状态
+     */
+    @GetMapping("/import")
+    @Operation(summary = "查询批量导入状态", description = "查询导入进度、吞吐量和预计剩余时间")
+    public ResponseEntity<ApiResponse<ImportStatus>> getImportStatus() {
+        return ResponseEntity.ok(ApiResponse.success(bulkImportService.getStatus()));
+    }
+
+    /**
+     * 停止批量导入
+     */
+    @DeleteMapping("/import")
+    @Operation(summary = "停止批量导入", description = "已读取的文件写入后停止，保留检查点，再次启动时继续")
+    public ResponseEntity<ApiResponse<ImportStatus>> stopImport() {
+        return ResponseEntity.ok(ApiResponse.success("已请求停止导入", bulkImportService.stop()));
+    }
+
+    /**
+     * 从数据库重建搜索索引
+     */
+    @PostMapping("/search/index/rebuild")
+    @Operation(summary = "重建搜索索引", description = "在后台从数据库重建文件名和描述的搜索索引，重建期间索引照常可用")
+    public ResponseEntity<ApiResponse<Void>> rebuildSearchIndex() {
+        if (!photoSearchIndex.rebuild()) {
+            return ResponseEntity.ok(ApiResponse.success("索引重建已在运行或索引未启用", null));
+        }
+        return ResponseEntity.ok(ApiResponse.success("索引重建已开始", null));
+    }
+}
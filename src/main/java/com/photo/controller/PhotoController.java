@@ -5,7 +5,14 @@ import com.photo.dto.*;
 import com.photo.entity.Photo;
 import com.photo.exception.AccessDeniedException;
 import com.photo.service.FileStorageService;
+import com.photo.service.ImageByteCache;
+import com.photo.service.PhotoExportService;
 import com.photo.service.PhotoService;
+import com.photo.service.RenditionService;
+import com.photo.service.ResumableUploadService;
+import com.photo.service.UploadProgressRegistry;
+import com.photo.util.FileTransferUtils;
+import com.photo.util.RangeTransferUtils;
 import com.photo.util.SecurityUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -17,12 +24,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 照片管理Controller
@@ -39,6 +53,21 @@ public class PhotoController {
     @Autowired
     private FileStorageService fileStorageService;
     
+    @Autowired
+    private RenditionService renditionService;
+    
+    @Autowired
+    private ImageByteCache imageByteCache;
+    
+    @Autowired
+    private PhotoExportService photoExportService;
+    
+    @Autowired
+    private ResumableUploadService resumableUploadService;
+    
+    @Autowired
+    private UploadProgressRegistry uploadProgressRegistry;
+    
     @Autowired
     private SecurityProperties securityProperties;
     
@@ -51,41 +80,119 @@ public class PhotoController {
             @Parameter(description = "照片文件") @RequestParam("file") MultipartFile file,
             @Parameter(description = "用户ID") @RequestParam(value = "userId", defaultValue = "guest") String userId,
             @Parameter(description = "照片描述") @RequestParam(value = "description", required = false) String description,
+            @Parameter(description = "上传ID，指定时可通过 /uploads/{uploadId}/events 订阅进度") @RequestParam(value = "uploadId", required = false) String uploadId,
             HttpServletRequest request) {
         
         log.info("接收到上传请求: 文件={}, 用户={}, IP={}", 
             file.getOriginalFilename(), userId, SecurityUtils.getClientIpAddress(request));
         
-        PhotoUploadResponse response = photoService.uploadPhoto(file, userId, description);
+        PhotoUploadResponse response = photoService.uploadPhoto(file, userId, description, uploadId);
+        return ResponseEntity.ok(ApiResponse.success("上传成功", response));
+    }
+    
+    /**
+     * 创建分片上传会话
+     */
+    @PostMapping("/uploads")
+    @Operation(summary = "创建分片上传会话", description = "声明文件名和大小，返回上传ID；之后按偏移量上传分片，全部完成后调用complete")
+    public ResponseEntity<ApiResponse<UploadProgress>> createUpload(
+            @Parameter(description = "原始文件名") @RequestParam("filename") String filename,
+            @Parameter(description = "文件总大小(字节)") @RequestParam("fileSize") long fileSize,
+            @Parameter(description = "用户ID") @RequestParam(value = "userId", defaultValue = "guest") String userId,
+            @Parameter(description = "照片描述") @RequestParam(value = "description", required = false) String description) {
+        
+        UploadProgress progress = resumableUploadService.create(filename, fileSize, userId, description);
+        return ResponseEntity.ok(ApiResponse.success(progress));
+    }
+    
+    /**
+     * 上传分片
+     */
+    @PutMapping("/uploads/{uploadId}")
+    @Operation(summary = "上传分片", description = "请求体为分片的原始字节，offset必须等于已接收的字节数；中断后查询进度从已接收处继续")
+    public ResponseEntity<ApiResponse<UploadProgress>> uploadChunk(
+            @Parameter(description = "上传ID") @PathVariable String uploadId,
+            @Parameter(description = "分片在文件中的起始位置") @RequestParam("offset") long offset,
+            HttpServletRequest request) throws IOException {
+        
+        UploadProgress progress = resumableUploadService.writeChunk(uploadId, offset, request.getInputStream());
+        return ResponseEntity.ok(ApiResponse.success(progress));
+    }
+    
+    /**
+     * 查询分片上传进度
+     */
+    @GetMapping("/uploads/{uploadId}")
+    @Operation(summary = "查询分片上传进度", description = "返回已接收的字节数，断线重连后从该位置继续上传")
+    public ResponseEntity<ApiResponse<UploadProgress>> getUploadProgress(
+            @Parameter(description = "上传ID") @PathVariable String uploadId) {
+        return ResponseEntity.ok(ApiResponse.success(resumableUploadService.getProgress(uploadId)));
+    }
+    
+    /**
+     * 订阅上传进度
+     */
+    @GetMapping(value = "/uploads/{uploadId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "订阅上传进度", description = "通过SSE推送progress事件，上传完成或失败后关闭连接；普通上传需在请求参数中携带相同的uploadId")
+    public SseEmitter subscribeUploadProgress(
+            @Parameter(description = "上传ID") @PathVariable String uploadId) {
+        return uploadProgressRegistry.subscribe(uploadId);
+    }
+    
+    /**
+     * 完成分片上传
+     */
+    @PostMapping("/uploads/{uploadId}/complete")
+    @Operation(summary = "完成分片上传", description = "全部分片接收后校验并保存照片，返回结果与普通上传相同")
+    public ResponseEntity<ApiResponse<PhotoUploadResponse>> completeUpload(
+            @Parameter(description = "上传ID") @PathVariable String uploadId) {
+        
+        PhotoUploadResponse response = resumableUploadService.complete(uploadId);
         return ResponseEntity.ok(ApiResponse.success("上传成功", response));
     }
     
+    /**
+     * 取消分片上传
+     */
+    @DeleteMapping("/uploads/{uploadId}")
+    @Operation(summary = "取消分片上传", description = "删除已接收的内容并释放预留的存储空间")
+    public ResponseEntity<ApiResponse<Void>> cancelUpload(
+            @Parameter(description = "上传ID") @PathVariable String uploadId) {
+        
+        resumableUploadService.cancel(uploadId);
+        return ResponseEntity.ok(ApiResponse.success("上传已取消", null));
+    }
+    
     /**
      * 批量上传照片
      */
     @PostMapping("/upload/batch")
-    @Operation(summary = "批量上传照片", description = "一次最多上传10个文件")
-    public ResponseEntity<ApiResponse<List<PhotoUploadResponse>>> uploadPhotos(
+    @Operation(summary = "批量上传照片", description = "一次最多上传10个文件，并行处理并返回每个文件的结果")
+    public ResponseEntity<ApiResponse<BatchUploadResponse>> uploadPhotos(
             @Parameter(description = "照片文件数组") @RequestParam("files") MultipartFile[] files,
             @Parameter(description = "用户ID") @RequestParam(value = "userId", defaultValue = "guest") String userId,
             @Parameter(description = "照片描述") @RequestParam(value = "description", required = false) String description,
+            @Parameter(description = "上传ID，指定时可通过 /uploads/{uploadId}/events 订阅进度") @RequestParam(value = "uploadId", required = false) String uploadId,
             HttpServletRequest request) {
         
         log.info("接收到批量上传请求: {} 个文件, 用户={}, IP={}", 
             files.length, userId, SecurityUtils.getClientIpAddress(request));
         
-        List<PhotoUploadResponse> responses = photoService.uploadPhotos(files, userId, description);
-        return ResponseEntity.ok(ApiResponse.success("批量上传成功", responses));
+        BatchUploadResponse response = photoService.uploadPhotos(files, userId, description, uploadId);
+        String message = response.getFailed() == 0 ? "批量上传成功" : "批量上传完成，部分文件失败";
+        return ResponseEntity.ok(ApiResponse.success(message, response));
     }
     
     /**
      * 在线预览照片
      */
     @GetMapping("/view/{filename:.+}")
-    @Operation(summary = "在线预览照片", description = "通过文件名预览照片")
-    public ResponseEntity<byte[]> viewPhoto(
+    @Operation(summary = "在线预览照片", description = "通过文件名预览照片，指定宽度时返回不小于该宽度的缩小图")
+    public void viewPhoto(
             @Parameter(description = "文件名") @PathVariable String filename,
-            HttpServletRequest request) {
+            @Parameter(description = "期望宽度(像素)") @RequestParam(value = "w", required = false) Integer width,
+            HttpServletRequest request,
+            HttpServletResponse response) {
         
         log.debug("预览照片: {}, IP={}", filename, SecurityUtils.getClientIpAddress(request));
         
@@ -96,23 +203,44 @@ public class PhotoController {
             }
         }
         
+        if (width != null && width <= 0) {
+            sendErrorQuietly(response, HttpStatus.BAD_REQUEST);
+            return;
+        }
+        
         Photo photo = photoService.getPhotoByFilename(filename);
         photoService.incrementAccessCount(photo.getId());
         
+        // 协商缓存只使用照片信息，未变化时不访问文件
+        Integer renditionWidth = width == null ? null : renditionService.selectWidth(width, photo.getWidth());
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+            CacheControl.maxAge(3600, TimeUnit.SECONDS).getHeaderValue());
+        if (checkNotModified(request, response, photo, renditionWidth == null ? "o" : "w" + renditionWidth)) {
+            return;
+        }
+        
         try {
-            File file = fileStorageService.getFile(filename);
-            byte[] content = Files.readAllBytes(file.toPath());
+            // 原尺寸查看优先返回压缩图，下载接口仍返回原图
+            Path path = renditionWidth == null ? renditionService.getCompressedPath(photo.getStorageFilename()) : null;
+            if (path == null) {
+                path = renditionWidth == null
+                    ? fileStorageService.getFile(photo.getStorageFilename()).toPath()
+                    : renditionService.getRenditionPath(photo, width);
+            }
             
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType(photo.getContentType()));
-            headers.setCacheControl(CacheControl.maxAge(3600, java.util.concurrent.TimeUnit.SECONDS));
+            // 小尺寸图片优先从内容缓存读取，原图直接发送文件
+            ByteBuffer cached = renditionWidth == null ? null : imageByteCache.get(path);
             
-            return ResponseEntity.ok()
-                .headers(headers)
-                .body(content);
+            response.setContentType(photo.getContentType());
+            
+            if (cached != null) {
+                FileTransferUtils.writeBuffer(response, cached);
+            } else {
+                FileTransferUtils.writeFile(request, response, path);
+            }
         } catch (IOException e) {
             log.error("读取文件失败: {}", e.getMessage());
-            return ResponseEntity.internalServerError().build();
+            sendErrorQuietly(response, HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
     
@@ -121,25 +249,40 @@ public class PhotoController {
      */
     @GetMapping("/thumbnail/{filename:.+}")
     @Operation(summary = "查看缩略图", description = "获取照片缩略图")
-    public ResponseEntity<byte[]> viewThumbnail(
-            @Parameter(description = "文件名") @PathVariable String filename) {
+    public void viewThumbnail(
+            @Parameter(description = "文件名") @PathVariable String filename,
+            HttpServletRequest request,
+            HttpServletResponse response) {
         
         log.debug("查看缩略图: {}", filename);
         
+        Photo photo = photoService.getPhotoByFilename(filename);
+        
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+            CacheControl.maxAge(7200, TimeUnit.SECONDS).getHeaderValue());
+        if (checkNotModified(request, response, photo, "t")) {
+            return;
+        }
+        
         try {
-            File thumbnail = fileStorageService.getThumbnail(filename);
-            byte[] content = Files.readAllBytes(thumbnail.toPath());
+            // 打包存储中的缩略图直接从映射的卷中读取，否则读取缩略图文件(经内容缓存)
+            ByteBuffer content = fileStorageService.getPackedThumbnail(photo.getStorageFilename());
+            File thumbnail = null;
+            if (content == null) {
+                thumbnail = fileStorageService.getThumbnail(photo.getStorageFilename());
+                content = imageByteCache.get(thumbnail.toPath());
+            }
             
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.IMAGE_JPEG);
-            headers.setCacheControl(CacheControl.maxAge(7200, java.util.concurrent.TimeUnit.SECONDS));
+            response.setContentType(MediaType.IMAGE_JPEG_VALUE);
             
-            return ResponseEntity.ok()
-                .headers(headers)
-                .body(content);
+            if (content != null) {
+                FileTransferUtils.writeBuffer(response, content);
+            } else {
+                FileTransferUtils.writeFile(request, response, thumbnail.toPath());
+            }
         } catch (IOException e) {
             log.error("读取缩略图失败: {}", e.getMessage());
-            return ResponseEntity.notFound().build();
+            sendErrorQuietly(response, HttpStatus.NOT_FOUND);
         }
     }
     
@@ -148,9 +291,10 @@ public class PhotoController {
      */
     @GetMapping("/download/{filename:.+}")
     @Operation(summary = "下载照片", description = "下载原图文件")
-    public ResponseEntity<byte[]> downloadPhoto(
+    public void downloadPhoto(
             @Parameter(description = "文件名") @PathVariable String filename,
-            HttpServletRequest request) {
+            HttpServletRequest request,
+            HttpServletResponse response) {
         
         log.info("下载照片: {}, IP={}", filename, SecurityUtils.getClientIpAddress(request));
         
@@ -158,23 +302,17 @@ public class PhotoController {
         photoService.incrementDownloadCount(photo.getId());
         
         try {
-            File file = fileStorageService.getFile(filename);
-            byte[] content = Files.readAllBytes(file.toPath());
+            File file = fileStorageService.getFile(photo.getStorageFilename());
             
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-            headers.setContentDisposition(
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
                 ContentDisposition.attachment()
-                    .filename(photo.getOriginalFilename(), java.nio.charset.StandardCharsets.UTF_8)
+                    .filename(photo.getOriginalFilename(), StandardCharsets.UTF_8)
                     .build()
-            );
-            
-            return ResponseEntity.ok()
-                .headers(headers)
-                .body(content);
+                    .toString());
+            writeRanges(request, response, photo, file, MediaType.APPLICATION_OCTET_STREAM_VALUE);
         } catch (IOException e) {
             log.error("下载文件失败: {}", e.getMessage());
-            return ResponseEntity.internalServerError().build();
+            sendErrorQuietly(response, HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
     
@@ -182,46 +320,52 @@ public class PhotoController {
      * 断点续传下载
      */
     @GetMapping("/download/range/{filename:.+}")
-    @Operation(summary = "断点续传下载", description = "支持Range请求的文件下载")
-    public ResponseEntity<byte[]> downloadPhotoWithRange(
+    @Operation(summary = "断点续传下载", description = "支持Range请求(含多范围和If-Range)的文件下载")
+    public void downloadPhotoWithRange(
             @Parameter(description = "文件名") @PathVariable String filename,
-            @RequestHeader(value = "Range", required = false) String range,
-            HttpServletRequest request) {
+            HttpServletRequest request,
+            HttpServletResponse response) {
         
-        log.info("断点续传下载: {}, Range={}, IP={}", filename, range, SecurityUtils.getClientIpAddress(request));
+        log.info("断点续传下载: {}, Range={}, IP={}", filename, request.getHeader(HttpHeaders.RANGE),
+            SecurityUtils.getClientIpAddress(request));
         
         Photo photo = photoService.getPhotoByFilename(filename);
-        long fileSize = fileStorageService.getFileSize(filename);
-        
-        // 解析Range头
-        long start = 0;
-        long end = fileSize - 1;
-        
-        if (range != null && range.startsWith("bytes=")) {
-            String[] ranges = range.substring(6).split("-");
-            try {
-                start = Long.parseLong(ranges[0]);
-                if (ranges.length > 1 && !ranges[1].isEmpty()) {
-                    end = Long.parseLong(ranges[1]);
-                }
-            } catch (NumberFormatException e) {
-                log.error("解析Range头失败: {}", range);
-                return ResponseEntity.badRequest().build();
-            }
-        }
         
-        byte[] content = fileStorageService.readFileRange(filename, start, end);
+        try {
+            File file = fileStorageService.getFile(photo.getStorageFilename());
+            writeRanges(request, response, photo, file, photo.getContentType());
+        } catch (IOException e) {
+            log.error("下载文件失败: {}", e.getMessage());
+            sendErrorQuietly(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+    
+    /**
+     * 导出用户的照片库
+     */
+    @GetMapping("/user/{userId}/export.zip")
+    @Operation(summary = "导出用户照片库", description = "把用户的全部公开照片打包为ZIP，边读取边输出")
+    public void exportUserPhotos(
+            @Parameter(description = "用户ID") @PathVariable String userId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
         
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.parseMediaType(photo.getContentType()));
-        headers.setContentLength(content.length);
-        headers.set("Accept-Ranges", "bytes");
-        headers.set("Content-Range", String.format("bytes %d-%d/%d", start, end, fileSize));
+        log.info("导出照片库: 用户={}, IP={}", userId, SecurityUtils.getClientIpAddress(request));
         
-        return ResponseEntity
-            .status(range != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
-            .headers(headers)
-            .body(content);
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+            ContentDisposition.attachment()
+                .filename(userId + "-photos.zip", StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        try {
+            photoExportService.exportUserPhotos(userId, response.getOutputStream());
+            response.flushBuffer();
+        } catch (IOException e) {
+            // 已开始输出后无法再返回错误响应，客户端会收到不完整的ZIP
+            log.error("导出照片库失败: 用户={}, {}", userId, e.getMessage());
+            sendErrorQuietly(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
     }
     
     /**
@@ -236,6 +380,20 @@ public class PhotoController {
         return ResponseEntity.ok(ApiResponse.success(photo));
     }
     
+    /**
+     * 查找相似照片
+     */
+    @GetMapping("/{id}/similar")
+    @Operation(summary = "查找相似照片", description = "按感知哈希查找重新编码、缩放或压缩过的相似照片，按相似度排序")
+    public ResponseEntity<ApiResponse<List<SimilarPhoto>>> getSimilarPhotos(
+            @Parameter(description = "照片ID") @PathVariable Long id,
+            @Parameter(description = "最大汉明距离(0-64)") @RequestParam(defaultValue = "10") int maxDistance,
+            @Parameter(description = "返回数量") @RequestParam(defaultValue = "20") int limit) {
+        
+        List<SimilarPhoto> photos = photoService.findSimilarPhotos(id, maxDistance, limit);
+        return ResponseEntity.ok(ApiResponse.success(photos));
+    }
+    
     /**
      * 获取用户的照片列表
      */
@@ -277,6 +435,47 @@ public class PhotoController {
         return ResponseEntity.ok(ApiResponse.success(photos));
     }
     
+    /**
+     * 游标分页获取用户的照片列表
+     */
+    @GetMapping("/user/{userId}/cursor")
+    @Operation(summary = "游标分页获取用户照片列表", description = "按上传时间倒序，用上一页返回的nextCursor获取下一页，不统计总数")
+    public ResponseEntity<ApiResponse<CursorPage<PhotoDTO>>> getUserPhotosByCursor(
+            @Parameter(description = "用户ID") @PathVariable String userId,
+            @Parameter(description = "分页游标(第一页不传)") @RequestParam(required = false) String cursor,
+            @Parameter(description = "每页数量") @RequestParam(defaultValue = "20") int size) {
+        
+        CursorPage<PhotoDTO> photos = photoService.getUserPhotos(userId, cursor, size);
+        return ResponseEntity.ok(ApiResponse.success(photos));
+    }
+    
+    /**
+     * 游标分页获取公开照片列表
+     */
+    @GetMapping("/public/cursor")
+    @Operation(summary = "游标分页获取公开照片列表", description = "按上传时间倒序，用上一页返回的nextCursor获取下一页，不统计总数")
+    public ResponseEntity<ApiResponse<CursorPage<PhotoDTO>>> getPublicPhotosByCursor(
+            @Parameter(description = "分页游标(第一页不传)") @RequestParam(required = false) String cursor,
+            @Parameter(description = "每页数量") @RequestParam(defaultValue = "20") int size) {
+        
+        CursorPage<PhotoDTO> photos = photoService.getPublicPhotos(cursor, size);
+        return ResponseEntity.ok(ApiResponse.success(photos));
+    }
+    
+    /**
+     * 游标分页搜索照片
+     */
+    @GetMapping("/search/cursor")
+    @Operation(summary = "游标分页搜索照片", description = "根据文件名关键词搜索，用上一页返回的nextCursor获取下一页，不统计总数")
+    public ResponseEntity<ApiResponse<CursorPage<PhotoDTO>>> searchPhotosByCursor(
+            @Parameter(description = "搜索关键词") @RequestParam String keyword,
+            @Parameter(description = "分页游标(第一页不传)") @RequestParam(required = false) String cursor,
+            @Parameter(description = "每页数量") @RequestParam(defaultValue = "20") int size) {
+        
+        CursorPage<PhotoDTO> photos = photoService.searchPhotos(keyword, cursor, size);
+        return ResponseEntity.ok(ApiResponse.success(photos));
+    }
+    
     /**
      * 删除照片
      */
@@ -312,4 +511,64 @@ public class PhotoController {
         StorageInfo info = photoService.getStorageInfo();
         return ResponseEntity.ok(ApiResponse.success(info));
     }
+    
+    /**
+     * 按照片信息处理If-None-Match/If-Modified-Since，设置ETag和Last-Modified
+     *
+     * @return 未修改时返回true(已设置304状态)
+     */
+    private boolean checkNotModified(HttpServletRequest request, HttpServletResponse response,
+                                     Photo photo, String variant) {
+        return new ServletWebRequest(request, response)
+            .checkNotModified(imageEtag(photo, variant), lastModified(photo));
+    }
+    
+    /**
+     * 返回原图的全部或Range指定的部分，设置ETag和Last-Modified供If-Range校验
+     */
+    private void writeRanges(HttpServletRequest request, HttpServletResponse response,
+                             Photo photo, File file, String contentType) throws IOException {
+        // 原图不会被修改，ETag只取决于内容
+        String version = photo.getMd5() != null ? photo.getMd5() : photo.getStorageFilename();
+        String etag = "\"" + version + "-f\"";
+        long lastModified = lastModified(photo);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (lastModified >= 0) {
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        }
+        RangeTransferUtils.writeRanges(request, response, file.toPath(), contentType, etag, lastModified);
+    }
+    
+    /**
+     * 强ETag：上传内容的MD5、图片类型(原图/缩略图/宽度)和衍生图状态，生成压缩图后原尺寸查看的内容随之变化
+     */
+    private String imageEtag(Photo photo, String variant) {
+        String version = photo.getMd5() != null ? photo.getMd5() : photo.getStorageFilename();
+        boolean derived = photo.getDerivativeStatus() == null
+            || photo.getDerivativeStatus() == Photo.DerivativeStatus.COMPLETED;
+        return "\"" + version + "-" + variant + (derived ? "-d" : "") + "\"";
+    }
+    
+    /**
+     * 照片最后更新时间(毫秒)，未知时返回-1
+     */
+    private long lastModified(Photo photo) {
+        LocalDateTime modifiedAt = photo.getUpdatedAt() != null ? photo.getUpdatedAt() : photo.getCreatedAt();
+        return modifiedAt == null ? -1 : modifiedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    /**
+     * 发送错误状态码(响应已提交时忽略)
+     */
+    private void sendErrorQuietly(HttpServletResponse response, HttpStatus status) {
+        if (response.isCommitted()) {
+            return;
+        }
+        try {
+            response.reset();
+            response.sendError(status.value());
+        } catch (IOException e) {
+            log.debug("发送错误响应失败: {}", e.getMessage());
+        }
+    }
 }
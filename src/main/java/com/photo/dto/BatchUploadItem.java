@@ -0,0 +1,41 @@
+package com.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量上传中单个文件的结果
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchUploadItem {
+    
+    /**
+     * 文件在请求中的序号
+     */
+    private Integer index;
+    
+    /**
+     * 原始文件名
+     */
+    private String originalFilename;
+    
+    /**
+     * 是否上传成功
+     */
+    private Boolean success;
+    
+    /**
+     * 上传结果(成功时)
+     */
+    private PhotoUploadResponse photo;
+    
+    /**
+     * 失败原因(失败时)
+     */
+    private String error;
+}
@@ -0,0 +1,48 @@
+package com.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 批量上传响应DTO
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchUploadResponse {
+    
+    /**
+     * 文件总数
+     */
+    private Integer total;
+    
+    /**
+     * 成功数
+     */
+    private Integer succeeded;
+    
+    /**
+     * 失败数
+     */
+    private Integer failed;
+    
+    /**
+     * 总字节数
+     */
+    private Long totalBytes;
+    
+    /**
+     * 耗时(毫秒)
+     */
+    private Long elapsedMillis;
+    
+    /**
+     * 每个文件的结果(与请求中的顺序一致)
+     */
+    private List<BatchUploadItem> items;
+}
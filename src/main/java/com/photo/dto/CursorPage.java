@@ -0,0 +1,38 @@
+package com.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 游标分页结果DTO(不查询总数)
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPage<T> {
+    
+    /**
+     * 当前页数据
+     */
+    private List<T> content;
+    
+    /**
+     * 每页数量
+     */
+    private Integer size;
+    
+    /**
+     * 是否还有下一页
+     */
+    private Boolean hasNext;
+    
+    /**
+     * 下一页游标(作为cursor参数传入)，没有下一页时为null
+     */
+    private String nextCursor;
+}
@@ -0,0 +1,118 @@
+package com.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 本地目录批量导入状态DTO
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportStatus {
+
+    /**
+     * 是否正在导入
+     */
+    private Boolean running;
+
+    /**
+     * 是否已请求停止
+     */
+    private Boolean stopRequested;
+
+    /**
+     * 导入的目录
+     */
+    private String root;
+
+    /**
+     * 照片所属用户ID
+     */
+    private String userId;
+
+    /**
+     * 从检查点继续时的起始位置(相对路径)
+     */
+    private String resumedFrom;
+
+    /**
+     * 目录中的图片文件总数(统计完成前为空)
+     */
+    private Long totalFiles;
+
+    /**
+     * 本次已发现的图片文件数
+     */
+    private Long discoveredFiles;
+
+    /**
+     * 导入成功数(含中断前，与已有照片内容相同时返回已有记录，也计为成功)
+     */
+    private Long succeededFiles;
+
+    /**
+     * 导入失败数(含中断前)
+     */
+    private Long failedFiles;
+
+    /**
+     * 跳过的非图片文件数
+     */
+    private Long ignoredFiles;
+
+    /**
+     * 已读取的字节数(含中断前)
+     */
+    private Long importedBytes;
+
+    /**
+     * 等待读取的文件数
+     */
+    private Integer ingestQueueSize;
+
+    /**
+     * 已读取、等待写入数据库的文件数
+     */
+    private Integer writeQueueSize;
+
+    /**
+     * 已保存、等待生成衍生图的照片数
+     */
+    private Integer derivativeQueueSize;
+
+    /**
+     * 本次运行已生成衍生图的照片数
+     */
+    private Long processedDerivatives;
+
+    /**
+     * 本次运行的平均吞吐量(文件/秒)
+     */
+    private Double filesPerSecond;
+
+    /**
+     * 本次运行的平均吞吐量(字节/秒)
+     */
+    private Long bytesPerSecond;
+
+    /**
+     * 预计剩余时间(秒)，文件总数统计完成前为空
+     */
+    private Long etaSeconds;
+
+    /**
+     * 开始时间
+     */
+    private LocalDateTime startedAt;
+
+    /**
+     * 结束时间
+     */
+    private LocalDateTime finishedAt;
+}
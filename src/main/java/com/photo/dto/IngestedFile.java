@@ -0,0 +1,81 @@
+package com.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.file.Path;
+
+/**
+ * 单次读取上传流后得到的文件信息
+ * 文件内容已写入临时目录，MD5、MIME类型和尺寸均在同一次读取中得到
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestedFile {
+
+    /**
+     * 临时文件路径
+     */
+    private Path tempPath;
+
+    /**
+     * 原始文件名
+     */
+    private String originalFilename;
+
+    /**
+     * 存储文件名(UUID生成)
+     */
+    private String storedFilename;
+
+    /**
+     * 文件扩展名
+     */
+    private String extension;
+
+    /**
+     * 文件大小(字节)
+     */
+    private Long fileSize;
+
+    /**
+     * 文件MD5值
+     */
+    private String md5;
+    
+    /**
+     * 文件SHA-256值(内容寻址存储的键)
+     */
+    private String sha256;
+
+    /**
+     * 感知哈希(dHash)，无法解码时为null
+     */
+    private Long perceptualHash;
+
+    /**
+     * 检测到的MIME类型
+     */
+    private String mimeType;
+
+    /**
+     * 图片宽度
+     */
+    private Integer width;
+
+    /**
+     * 图片高度
+     */
+    private Integer height;
+
+    /**
+     * 是否为可解析的图片
+     */
+    public boolean isValidImage() {
+        return width != null && height != null && width > 0 && height > 0;
+    }
+}
@@ -0,0 +1,48 @@
+package com.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 存储目录分片迁移状态DTO
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LayoutMigrationStatus {
+    
+    /**
+     * 是否正在迁移
+     */
+    private Boolean running;
+    
+    /**
+     * 已迁移的原图数
+     */
+    private Long movedFiles;
+    
+    /**
+     * 已迁移的缩略图数
+     */
+    private Long movedThumbnails;
+    
+    /**
+     * 失败数
+     */
+    private Long failed;
+    
+    /**
+     * 开始时间
+     */
+    private LocalDateTime startedAt;
+    
+    /**
+     * 结束时间
+     */
+    private LocalDateTime finishedAt;
+}
@@ -100,4 +100,9 @@ public class PhotoDTO {
      * 最后访问时间
      */
     private LocalDateTime lastAccessedAt;
+    
+    /**
+     * 缩略图和压缩图生成状态(PENDING, PROCESSING, COMPLETED, FAILED)
+     */
+    private String derivativeStatus;
 }
@@ -80,4 +80,9 @@ public class PhotoUploadResponse {
      * MD5值
      */
     private String md5;
+    
+    /**
+     * 缩略图和压缩图生成状态(PENDING, PROCESSING, COMPLETED, FAILED)
+     */
+    private String derivativeStatus;
 }
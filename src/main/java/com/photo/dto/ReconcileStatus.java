@@ -0,0 +1,89 @@
+package com.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 孤立文件核对状态DTO
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReconcileStatus {
+
+    /**
+     * 是否正在核对
+     */
+    private Boolean running;
+
+    /**
+     * 孤立文件处理方式(report、quarantine、delete)
+     */
+    private String action;
+
+    /**
+     * 数据库中的内容文件数
+     */
+    private Long knownFiles;
+
+    /**
+     * 已扫描的原图文件数
+     */
+    private Long scannedFiles;
+
+    /**
+     * 已扫描的缩略图文件数
+     */
+    private Long scannedThumbnails;
+
+    /**
+     * 没有对应记录的原图文件数
+     */
+    private Long orphanFiles;
+
+    /**
+     * 没有对应记录的缩略图文件数
+     */
+    private Long orphanThumbnails;
+
+    /**
+     * 孤立文件中已隔离或删除的数量
+     */
+    private Long handledOrphans;
+
+    /**
+     * 修改时间较新、暂不处理的文件数
+     */
+    private Long skippedRecent;
+
+    /**
+     * 文件缺失的照片数
+     */
+    private Long missingFiles;
+
+    /**
+     * 文件缺失的照片ID(最多列出 max-reported-missing 个)
+     */
+    private List<Long> missingPhotoIds;
+
+    /**
+     * 失败数
+     */
+    private Long failed;
+
+    /**
+     * 开始时间
+     */
+    private LocalDateTime startedAt;
+
+    /**
+     * 结束时间
+     */
+    private LocalDateTime finishedAt;
+}
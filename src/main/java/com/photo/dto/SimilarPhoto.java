@@ -0,0 +1,26 @@
+package com.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 相似照片DTO
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SimilarPhoto {
+    
+    /**
+     * 照片信息
+     */
+    private PhotoDTO photo;
+    
+    /**
+     * 感知哈希的汉明距离(0表示几乎相同，越大差异越大)
+     */
+    private Integer distance;
+}
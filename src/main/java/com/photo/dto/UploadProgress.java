@@ -14,6 +14,11 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class UploadProgress {
     
+    /**
+     * 上传ID
+     */
+    private String uploadId;
+    
     /**
      * 已上传字节数
      */
@@ -40,7 +45,7 @@ public class UploadProgress {
     private Integer totalFiles;
     
     /**
-     * 状态(uploading, completed, failed)
+     * 状态(uploading, processing, completed, failed)
      */
     private String status;
     
@@ -18,7 +18,13 @@ import java.time.LocalDateTime;
 @Table(name = "photos", indexes = {
     @Index(name = "idx_original_filename", columnList = "originalFilename"),
     @Index(name = "idx_created_at", columnList = "createdAt"),
-    @Index(name = "idx_user_id", columnList = "userId")
+    @Index(name = "idx_user_id", columnList = "userId"),
+    @Index(name = "idx_md5", columnList = "md5"),
+    @Index(name = "idx_blob_filename", columnList = "blobFilename"),
+    @Index(name = "idx_user_created", columnList = "userId, deleted, createdAt, id"),
+    @Index(name = "idx_public_created", columnList = "isPublic, deleted, createdAt, id"),
+    @Index(name = "idx_deleted_created", columnList = "deleted, createdAt, id"),
+    @Index(name = "idx_derivative_status", columnList = "derivativeStatus, derivativeUpdatedAt")
 })
 @Data
 @Builder
@@ -26,11 +32,19 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 public class Photo {
     
+    /**
+     * 每次从号段表分配的ID数，与hibernate.jdbc.batch_size一致
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+    
     /**
      * 主键ID
+     * 使用号段表分配(每次取{@link #ID_ALLOCATION_SIZE}个)，插入不需要回读自增值，可以批量执行
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "photo_id")
+    @TableGenerator(name = "photo_id", table = "id_generators", pkColumnName = "name",
+        valueColumnName = "next_val", pkColumnValue = "photos", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
     
     /**
@@ -45,6 +59,13 @@ public class Photo {
     @Column(nullable = false, unique = true, length = 100)
     private String storedFilename;
     
+    /**
+     * 共享内容文件名(按内容哈希命名，多条记录可指向同一文件)
+     * 为空表示引入内容寻址存储之前上传的文件，文件名即storedFilename
+     */
+    @Column(length = 100)
+    private String blobFilename;
+    
     /**
      * 文件路径
      */
@@ -86,11 +107,16 @@ public class Photo {
     private Integer height;
     
     /**
-     * 文件MD5值(用于去重)
+     * 文件MD5值
      */
-    @Column(length = 32, unique = true)
+    @Column(length = 32)
     private String md5;
     
+    /**
+     * 感知哈希(dHash)，用于查找相似照片，无法解码的文件为空
+     */
+    private Long perceptualHash;
+    
     /**
      * 上传用户ID
      */
@@ -156,6 +182,34 @@ public class Photo {
     @Column(length = 50)
     private String ipAddress;
     
+    /**
+     * 衍生图(缩略图、压缩图)生成状态，为空表示历史数据已同步生成
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    @Builder.Default
+    private DerivativeStatus derivativeStatus = DerivativeStatus.PENDING;
+    
+    /**
+     * 衍生图状态变化时间
+     * 不使用updatedAt：访问计数等更新也会修改updatedAt(MySQL的ON UPDATE)，生成中断的照片持续被访问时永远不会超时
+     */
+    @CreationTimestamp
+    private LocalDateTime derivativeUpdatedAt;
+    
+    /**
+     * 衍生图生成失败次数
+     */
+    @Builder.Default
+    private Integer derivativeAttempts = 0;
+    
+    /**
+     * 实际存储的文件名(原图、缩略图和多尺寸图片均以此命名)
+     */
+    public String getStorageFilename() {
+        return blobFilename != null ? blobFilename : storedFilename;
+    }
+    
     /**
      * 增加访问次数
      */
@@ -170,4 +224,18 @@ public class Photo {
     public void incrementDownloadCount() {
         this.downloadCount++;
     }
+    
+    /**
+     * 衍生图生成状态
+     */
+    public enum DerivativeStatus {
+        /** 等待生成 */
+        PENDING,
+        /** 生成中 */
+        PROCESSING,
+        /** 已生成 */
+        COMPLETED,
+        /** 重试后仍失败 */
+        FAILED
+    }
 }
@@ -0,0 +1,65 @@
+package com.photo.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * 内容寻址存储的文件实体类
+ * 相同内容只存储一份，由多条照片记录引用，引用计数归零时删除文件
+ */
+@Entity
+@Table(name = "photo_blobs")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PhotoBlob {
+    
+    /**
+     * 主键ID
+     * 使用号段表分配(每次取{@link Photo#ID_ALLOCATION_SIZE}个)，插入不需要回读自增值，可以批量执行
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "photo_blob_id")
+    @TableGenerator(name = "photo_blob_id", table = "id_generators", pkColumnName = "name",
+        valueColumnName = "next_val", pkColumnValue = "photo_blobs", allocationSize = Photo.ID_ALLOCATION_SIZE)
+    private Long id;
+    
+    /**
+     * 上传内容的SHA-256值
+     */
+    @Column(nullable = false, unique = true, length = 64)
+    private String hash;
+    
+    /**
+     * 存储文件名(SHA-256值加扩展名)
+     */
+    @Column(nullable = false, unique = true, length = 100)
+    private String storedFilename;
+    
+    /**
+     * 文件大小(字节)
+     */
+    @Column(nullable = false)
+    private Long fileSize;
+    
+    /**
+     * 引用该文件的照片记录数(含已软删除的记录)
+     */
+    @Column(nullable = false)
+    @Builder.Default
+    private Long refCount = 1L;
+    
+    /**
+     * 创建时间
+     */
+    @CreationTimestamp
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,15 @@
+package com.photo.exception;
+
+/**
+ * 近似重复文件异常
+ */
+public class DuplicateFileException extends FileException {
+    
+    public DuplicateFileException(String message) {
+        super(message);
+    }
+    
+    public DuplicateFileException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -42,6 +42,17 @@ public class GlobalExceptionHandler {
                 .body(ApiResponse.error(400, e.getMessage()));
     }
     
+    /**
+     * 处理分页游标无效异常
+     */
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<ApiResponse<Void>> handleInvalidCursorException(InvalidCursorException e) {
+        log.error("分页游标无效: {}", e.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.BAD_REQUEST)
+                .body(ApiResponse.error(400, e.getMessage()));
+    }
+    
     /**
      * 处理文件存储异常
      */
@@ -64,6 +75,28 @@ public class GlobalExceptionHandler {
                 .body(ApiResponse.error(404, e.getMessage()));
     }
     
+    /**
+     * 处理近似重复文件异常
+     */
+    @ExceptionHandler(DuplicateFileException.class)
+    public ResponseEntity<ApiResponse<Void>> handleDuplicateFileException(DuplicateFileException e) {
+        log.error("近似重复文件: {}", e.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.CONFLICT)
+                .body(ApiResponse.error(409, e.getMessage()));
+    }
+    
+    /**
+     * 处理分片上传状态冲突异常
+     */
+    @ExceptionHandler(UploadConflictException.class)
+    public ResponseEntity<ApiResponse<Void>> handleUploadConflictException(UploadConflictException e) {
+        log.error("分片上传冲突: {}", e.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.CONFLICT)
+                .body(ApiResponse.error(409, e.getMessage()));
+    }
+    
     /**
      * 处理存储空间不足异常
      */
@@ -0,0 +1,15 @@
+package com.photo.exception;
+
+/**
+ * 分页游标无效异常
+ */
+public class InvalidCursorException extends FileException {
+    
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+    
+    public InvalidCursorException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,15 @@
+package com.photo.exception;
+
+/**
+ * 分片上传状态冲突异常(偏移量不匹配、分片正在写入或尚未上传完成)
+ */
+public class UploadConflictException extends FileException {
+    
+    public UploadConflictException(String message) {
+        super(message);
+    }
+    
+    public UploadConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,57 @@
+package com.photo.repository;
+
+import com.photo.entity.PhotoBlob;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 内容寻址存储文件数据访问层
+ */
+@Repository
+public interface PhotoBlobRepository extends JpaRepository<PhotoBlob, Long> {
+    
+    /**
+     * 根据内容哈希查找并加行锁(用于修改引用计数)
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM PhotoBlob b WHERE b.hash = :hash")
+    Optional<PhotoBlob> findByHashForUpdate(@Param("hash") String hash);
+    
+    /**
+     * 根据内容哈希批量查找并加行锁
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM PhotoBlob b WHERE b.hash IN :hashes ORDER BY b.hash")
+    List<PhotoBlob> findAllByHashInForUpdate(@Param("hashes") Collection<String> hashes);
+    
+    /**
+     * 根据存储文件名查找并加行锁(用于修改引用计数)
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM PhotoBlob b WHERE b.storedFilename = :storedFilename")
+    Optional<PhotoBlob> findByStoredFilenameForUpdate(@Param("storedFilename") String storedFilename);
+    
+    /**
+     * 是否存在该内容哈希的记录
+     */
+    boolean existsByHash(String hash);
+    
+    /**
+     * 是否存在使用该存储文件名的内容记录
+     */
+    boolean existsByStoredFilename(String storedFilename);
+    
+    /**
+     * 统计所有文件总大小
+     */
+    @Query("SELECT COALESCE(SUM(b.fileSize), 0) FROM PhotoBlob b WHERE b.refCount > 0")
+    Long sumFileSize();
+}
@@ -1,15 +1,19 @@
 package com.photo.repository;
 
 import com.photo.entity.Photo;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -25,9 +29,40 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     Optional<Photo> findByStoredFilename(String storedFilename);
     
     /**
-     * 根据MD5查找照片(用于去重)
+     * 根据MD5查找最早上传的照片(MD5不唯一)
      */
-    Optional<Photo> findByMd5(String md5);
+    @Query("SELECT p FROM Photo p WHERE p.md5 = :md5 ORDER BY p.id ASC LIMIT 1")
+    Optional<Photo> findByMd5(@Param("md5") String md5);
+    
+    /**
+     * 查找用户引用同一内容文件的未删除照片
+     */
+    Optional<Photo> findFirstByUserIdAndBlobFilenameAndDeletedFalse(String userId, String blobFilename);
+    
+    /**
+     * 查找引用同一内容文件且指定衍生图状态的照片
+     */
+    Optional<Photo> findFirstByBlobFilenameAndDerivativeStatus(String blobFilename, Photo.DerivativeStatus status);
+    
+    /**
+     * 批量查找用户引用指定内容文件的未删除照片
+     */
+    List<Photo> findByUserIdAndBlobFilenameInAndDeletedFalse(String userId, Collection<String> blobFilenames);
+    
+    /**
+     * 批量查找引用指定内容文件且指定衍生图状态的照片
+     */
+    List<Photo> findByBlobFilenameInAndDerivativeStatus(Collection<String> blobFilenames,
+                                                        Photo.DerivativeStatus status);
+    
+    /**
+     * 查找引用这些内容的照片已计算的感知哈希(同一内容的哈希相同)
+     *
+     * @return 每行为[内容文件名, 感知哈希]
+     */
+    @Query("SELECT p.blobFilename, MAX(p.perceptualHash) FROM Photo p " +
+           "WHERE p.blobFilename IN :blobFilenames AND p.perceptualHash IS NOT NULL GROUP BY p.blobFilename")
+    List<Object[]> findPerceptualHashesByBlobFilenameIn(@Param("blobFilenames") Collection<String> blobFilenames);
     
     /**
      * 根据用户ID查找照片
@@ -45,6 +80,54 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     @Query("SELECT p FROM Photo p WHERE p.originalFilename LIKE %:filename% AND p.deleted = false")
     Page<Photo> searchByFilename(@Param("filename") String filename, Pageable pageable);
     
+    /**
+     * 游标分页查询用户照片的第一页(按创建时间、ID倒序，不查询总数)
+     */
+    @Query("SELECT p FROM Photo p WHERE p.userId = :userId AND p.deleted = false " +
+           "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Photo> findUserPhotosFirst(@Param("userId") String userId, Pageable pageable);
+    
+    /**
+     * 游标分页查询公开照片的第一页
+     */
+    @Query("SELECT p FROM Photo p WHERE p.isPublic = true AND p.deleted = false " +
+           "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Photo> findPublicPhotosFirst(Pageable pageable);
+    
+    /**
+     * 游标分页按文件名搜索照片的第一页
+     */
+    @Query("SELECT p FROM Photo p WHERE p.originalFilename LIKE %:filename% AND p.deleted = false " +
+           "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Photo> searchByFilenameFirst(@Param("filename") String filename, Pageable pageable);
+    
+    /**
+     * 游标分页查询用户的照片(取游标位置之后的记录)
+     */
+    @Query("SELECT p FROM Photo p WHERE p.userId = :userId AND p.deleted = false " +
+           "AND (p.createdAt < :createdAt OR (p.createdAt = :createdAt AND p.id < :id)) " +
+           "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Photo> findUserPhotosAfter(@Param("userId") String userId, @Param("createdAt") LocalDateTime createdAt,
+                                    @Param("id") Long id, Pageable pageable);
+    
+    /**
+     * 游标分页查询公开照片
+     */
+    @Query("SELECT p FROM Photo p WHERE p.isPublic = true AND p.deleted = false " +
+           "AND (p.createdAt < :createdAt OR (p.createdAt = :createdAt AND p.id < :id)) " +
+           "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Photo> findPublicPhotosAfter(@Param("createdAt") LocalDateTime createdAt, @Param("id") Long id,
+                                      Pageable pageable);
+    
+    /**
+     * 游标分页按文件名搜索照片
+     */
+    @Query("SELECT p FROM Photo p WHERE p.originalFilename LIKE %:filename% AND p.deleted = false " +
+           "AND (p.createdAt < :createdAt OR (p.createdAt = :createdAt AND p.id < :id)) " +
+           "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Photo> searchByFilenameAfter(@Param("filename") String filename, @Param("createdAt") LocalDateTime createdAt,
+                                      @Param("id") Long id, Pageable pageable);
+    
     /**
      * 统计用户上传的文件总大小
      */
@@ -57,6 +140,12 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     @Query("SELECT COALESCE(SUM(p.fileSize), 0) FROM Photo p WHERE p.deleted = false")
     Long sumAllFileSize();
     
+    /**
+     * 统计引入内容寻址存储之前上传的未删除文件总大小
+     */
+    @Query("SELECT COALESCE(SUM(p.fileSize), 0) FROM Photo p WHERE p.blobFilename IS NULL AND p.deleted = false")
+    Long sumLegacyFileSize();
+    
     /**
      * 统计未删除的文件数量
      */
@@ -64,10 +153,26 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     Long countActiveFiles();
     
     /**
-     * 查找过期文件(用于定期清理)
+     * 按ID顺序分批查找过期照片ID(用于定期清理)
      */
-    @Query("SELECT p FROM Photo p WHERE p.createdAt < :expiryDate AND p.deleted = false")
-    List<Photo> findExpiredPhotos(@Param("expiryDate") LocalDateTime expiryDate);
+    @Query("SELECT p.id FROM Photo p WHERE p.createdAt < :expiryDate AND p.deleted = false " +
+           "AND p.id > :afterId ORDER BY p.id")
+    List<Long> findExpiredIds(@Param("expiryDate") LocalDateTime expiryDate,
+                              @Param("afterId") Long afterId, Pageable pageable);
+    
+    /**
+     * 批量查找照片并加行锁(用于批量物理删除)
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT p FROM Photo p WHERE p.id IN :ids ORDER BY p.id")
+    List<Photo> findAllByIdInForUpdate(@Param("ids") List<Long> ids);
+    
+    /**
+     * 批量物理删除照片
+     */
+    @Modifying
+    @Query("DELETE FROM Photo p WHERE p.id IN :ids")
+    int deleteByIds(@Param("ids") List<Long> ids);
     
     /**
      * 软删除照片
@@ -97,6 +202,46 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     @Query("UPDATE Photo p SET p.downloadCount = p.downloadCount + 1 WHERE p.id = :id")
     void incrementDownloadCount(@Param("id") Long id);
     
+    /**
+     * 更新衍生图生成状态
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Photo p SET p.derivativeStatus = :status, p.derivativeUpdatedAt = :now WHERE p.id = :id")
+    int updateDerivativeStatus(@Param("id") Long id, @Param("status") Photo.DerivativeStatus status,
+                               @Param("now") LocalDateTime now);
+    
+    /**
+     * 衍生图生成完成
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Photo p SET p.derivativeStatus = :status, p.thumbnailPath = :thumbnailPath, " +
+           "p.width = :width, p.height = :height, p.derivativeUpdatedAt = :now WHERE p.id = :id")
+    int completeDerivatives(@Param("id") Long id, @Param("status") Photo.DerivativeStatus status,
+                            @Param("thumbnailPath") String thumbnailPath, @Param("width") Integer width,
+                            @Param("height") Integer height, @Param("now") LocalDateTime now);
+    
+    /**
+     * 记录衍生图生成失败
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Photo p SET p.derivativeStatus = :status, " +
+           "p.derivativeAttempts = COALESCE(p.derivativeAttempts, 0) + 1, p.derivativeUpdatedAt = :now WHERE p.id = :id")
+    int recordDerivativeFailure(@Param("id") Long id, @Param("status") Photo.DerivativeStatus status,
+                                @Param("now") LocalDateTime now);
+    
+    /**
+     * 查找指定状态且状态长时间未变化的照片ID(用于补偿提交衍生图任务)
+     * 状态变化时间为空的是升级前的记录，同样视为已超时
+     */
+    @Query("SELECT p.id FROM Photo p WHERE p.derivativeStatus = :status " +
+           "AND (p.derivativeUpdatedAt < :before OR p.derivativeUpdatedAt IS NULL) " +
+           "AND p.deleted = false ORDER BY p.id")
+    List<Long> findIdsByDerivativeStatus(@Param("status") Photo.DerivativeStatus status,
+                                         @Param("before") LocalDateTime before, Pageable pageable);
+    
     /**
      * 查找热门照片(按访问次数排序)
      */
@@ -0,0 +1,256 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 访问次数和下载次数写缓冲
+ * 计数先累加在内存中，按固定间隔合并后批量写入数据库；
+ * 刷新在独立线程中执行，不受其他定时任务影响，进程异常退出时最多丢失一个刷新间隔内(且不超过max-pending)的计数。
+ * 计数的累加和刷新时的取出都在映射的原子操作中完成，取出后的条目不会再被修改
+ */
+@Slf4j
+@Service
+public class AccessCounterBuffer {
+
+    private static final String UPDATE_SQL =
+        "UPDATE photos SET access_count = access_count + ?, download_count = download_count + ?, " +
+        "last_accessed_at = COALESCE(?, last_accessed_at) WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 每张照片待写入的增量
+     */
+    private final Map<Long, PendingCounts> pendingCounts = new ConcurrentHashMap<>();
+
+    /**
+     * 待写入的增量总数
+     */
+    private final LongAdder pendingDeltas = new LongAdder();
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final AtomicBoolean earlyFlushRequested = new AtomicBoolean();
+
+    private Counter flushedCounter;
+
+    private Timer flushTimer;
+
+    private ScheduledExecutorService flushScheduler;
+
+    /**
+     * 注册监控指标，启动定时刷新
+     */
+    @PostConstruct
+    public void init() {
+        Gauge.builder("photo.counter.pending.deltas", pendingDeltas, LongAdder::sum)
+            .description("待写入数据库的访问/下载计数增量")
+            .register(meterRegistry);
+        Gauge.builder("photo.counter.pending.photos", pendingCounts, Map::size)
+            .description("有待写入计数的照片数")
+            .register(meterRegistry);
+        flushedCounter = Counter.builder("photo.counter.flushed")
+            .description("已写入数据库的计数增量")
+            .register(meterRegistry);
+        flushTimer = Timer.builder("photo.counter.flush")
+            .description("计数批量写入耗时")
+            .register(meterRegistry);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("counter-flush-");
+        threadFactory.setDaemon(true);
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long interval = storageProperties.getCounter().getFlushInterval();
+        flushScheduler.scheduleWithFixedDelay(this::scheduledFlush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void recordAccess(Long photoId) {
+        long now = System.currentTimeMillis();
+        pendingCounts.compute(photoId, (id, counts) -> {
+            counts = counts != null ? counts : new PendingCounts();
+            counts.access++;
+            counts.lastAccessedAt = now;
+            return counts;
+        });
+        onRecorded();
+    }
+
+    /**
+     * 记录一次下载
+     */
+    public void recordDownload(Long photoId) {
+        pendingCounts.compute(photoId, (id, counts) -> {
+            counts = counts != null ? counts : new PendingCounts();
+            counts.download++;
+            return counts;
+        });
+        onRecorded();
+    }
+
+    /**
+     * 待写入的增量总数
+     */
+    public long getPendingDeltas() {
+        return pendingDeltas.sum();
+    }
+
+    /**
+     * 定时刷新，异常时只记录日志，避免后续刷新被取消
+     */
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("访问计数刷新失败", e);
+        }
+    }
+
+    /**
+     * 停止定时刷新，写入剩余计数
+     */
+    @PreDestroy
+    public void shutdown() {
+        flushScheduler.shutdown();
+        try {
+            flushScheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * 将缓冲的增量合并后批量写入数据库
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            earlyFlushRequested.set(false);
+            if (pendingCounts.isEmpty()) {
+                return;
+            }
+            flushTimer.record(this::doFlush);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void doFlush() {
+        List<Object[]> batch = new ArrayList<>();
+        List<Long> batchIds = new ArrayList<>();
+        int batchSize = storageProperties.getCounter().getBatchSize();
+
+        for (Long photoId : pendingCounts.keySet()) {
+            // 取出后并发的计数累加到新条目中，由下次刷新写入
+            PendingCounts counts = pendingCounts.remove(photoId);
+            if (counts == null) {
+                continue;
+            }
+            batch.add(new Object[]{counts.access, counts.download,
+                counts.access > 0 ? new Timestamp(counts.lastAccessedAt) : null, photoId});
+            batchIds.add(photoId);
+            if (batch.size() >= batchSize) {
+                writeBatch(batch, batchIds);
+                batch = new ArrayList<>();
+                batchIds = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch, batchIds);
+        }
+    }
+
+    /**
+     * 批量写入，失败时将增量放回缓冲区等待下次刷新
+     */
+    private void writeBatch(List<Object[]> batch, List<Long> batchIds) {
+        long deltas = batch.stream().mapToLong(args -> (long) args[0] + (long) args[1]).sum();
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, batch,
+                new int[]{Types.BIGINT, Types.BIGINT, Types.TIMESTAMP, Types.BIGINT});
+            pendingDeltas.add(-deltas);
+            flushedCounter.increment(deltas);
+            log.debug("访问计数写入完成: {} 张照片, {} 次", batch.size(), deltas);
+        } catch (Exception e) {
+            log.error("访问计数写入失败，将在下次刷新时重试: {}", e.getMessage());
+            for (int i = 0; i < batch.size(); i++) {
+                Object[] args = batch.get(i);
+                Timestamp lastAccessedAt = (Timestamp) args[2];
+                restore(batchIds.get(i), (long) args[0], (long) args[1],
+                    lastAccessedAt == null ? 0L : lastAccessedAt.getTime());
+            }
+        }
+    }
+
+    /**
+     * 将增量放回缓冲区(不重复计入待写入总数)
+     */
+    private void restore(Long photoId, long access, long download, long lastAccessedAt) {
+        pendingCounts.compute(photoId, (id, counts) -> {
+            counts = counts != null ? counts : new PendingCounts();
+            counts.access += access;
+            counts.download += download;
+            counts.lastAccessedAt = Math.max(counts.lastAccessedAt, lastAccessedAt);
+            return counts;
+        });
+    }
+
+    /**
+     * 待写入增量超过上限时提前刷新
+     */
+    private void onRecorded() {
+        pendingDeltas.increment();
+        if (pendingDeltas.sum() >= storageProperties.getCounter().getMaxPending()
+                && earlyFlushRequested.compareAndSet(false, true)) {
+            try {
+                flushScheduler.execute(this::scheduledFlush);
+            } catch (RejectedExecutionException e) {
+                // 正在关闭，剩余计数在shutdown中写入
+                earlyFlushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * 单张照片的待写入计数，只在映射的原子操作中修改
+     */
+    private static class PendingCounts {
+        private long access;
+        private long download;
+        private long lastAccessedAt;
+    }
+}
@@ -0,0 +1,248 @@
+package com.photo.service;
+
+import com.photo.dto.IngestedFile;
+import com.photo.entity.PhotoBlob;
+import com.photo.repository.PhotoBlobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * 内容寻址存储服务
+ * 相同内容只存储一份，记录引用计数；同一内容的创建和释放在进程内串行执行直到事务结束，
+ * 避免并发上传重复创建，或文件在被新记录引用的同时被删除
+ */
+@Slf4j
+@Service
+public class BlobService {
+
+    /**
+     * 内容锁分段数
+     */
+    private static final int LOCK_STRIPES = 1024;
+
+    @Autowired
+    private PhotoBlobRepository photoBlobRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private RenditionService renditionService;
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    /**
+     * 孤立文件的处理操作(删除或移入隔离目录)
+     */
+    @FunctionalInterface
+    public interface OrphanAction {
+        void run() throws IOException;
+    }
+
+    public BlobService() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * 锁定内容哈希直到当前事务结束
+     */
+    public void lock(String hash) {
+        lockStripe(stripeOf(hash));
+    }
+
+    /**
+     * 锁定多个内容哈希直到当前事务结束
+     * 按分段序号升序加锁，多个批量导入事务并发执行时不会互相死锁
+     */
+    public void lockAll(Collection<String> hashes) {
+        hashes.stream()
+            .mapToInt(BlobService::stripeOf)
+            .distinct()
+            .sorted()
+            .forEach(this::lockStripe);
+    }
+
+    /**
+     * 批量查找已存储的相同内容(加行锁)
+     *
+     * @return 内容哈希到内容记录的映射
+     */
+    public Map<String, PhotoBlob> findAll(Collection<String> hashes) {
+        return photoBlobRepository.findAllByHashInForUpdate(hashes).stream()
+            .collect(Collectors.toMap(PhotoBlob::getHash, blob -> blob));
+    }
+
+    private static int stripeOf(String hash) {
+        return Math.floorMod(hash.hashCode(), LOCK_STRIPES);
+    }
+
+    private void lockStripe(int stripe) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("内容锁必须在事务中获取");
+        }
+        ReentrantLock lock = locks[stripe];
+        lock.lock();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * 查找已存储的相同内容(加行锁)
+     */
+    public Optional<PhotoBlob> find(String hash) {
+        return photoBlobRepository.findByHashForUpdate(hash);
+    }
+
+    /**
+     * 是否已存储相同内容(不加锁)
+     */
+    public boolean exists(String hash) {
+        return photoBlobRepository.existsByHash(hash);
+    }
+
+    /**
+     * 增加引用
+     */
+    public void addReference(PhotoBlob blob) {
+        blob.setRefCount(blob.getRefCount() + 1);
+        photoBlobRepository.save(blob);
+        log.debug("内容引用增加: {}, 引用数={}", blob.getStoredFilename(), blob.getRefCount());
+    }
+
+    /**
+     * 存储新内容，引用数为1；事务回滚时删除已存储的文件
+     */
+    public PhotoBlob create(IngestedFile ingestedFile) {
+        String blobFilename = fileStorageService.commitBlob(ingestedFile);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    deleteFiles(blobFilename);
+                }
+            }
+        });
+
+        PhotoBlob blob = PhotoBlob.builder()
+            .hash(ingestedFile.getSha256())
+            .storedFilename(blobFilename)
+            .fileSize(ingestedFile.getFileSize())
+            .build();
+        return photoBlobRepository.save(blob);
+    }
+
+    /**
+     * 释放引用，引用数归零时删除记录，并在事务提交后删除文件及其缩略图、多尺寸图片
+     *
+     * @return 释放的存储空间(字节)，仍有其他引用时返回0
+     */
+    public long release(String blobFilename) {
+        // 在afterCommit中删除时内容锁尚未释放，删除完成前不会有新的上传引用该内容
+        return release(blobFilename, filename -> TransactionSynchronizationManager.registerSynchronization(
+            new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deleteFiles(filename);
+                }
+            }));
+    }
+
+    /**
+     * 释放引用，引用数归零时删除记录，文件由调用方在事务结束后通过 {@link #deleteOrphanedFiles(String)} 删除
+     *
+     * @param orphanedFiles 接收引用数归零的内容文件名
+     * @return 释放的存储空间(字节)，仍有其他引用时返回0
+     */
+    public long release(String blobFilename, Consumer<String> orphanedFiles) {
+        lock(FilenameUtils.getBaseName(blobFilename));
+
+        Optional<PhotoBlob> optional = photoBlobRepository.findByStoredFilenameForUpdate(blobFilename);
+        if (optional.isEmpty()) {
+            log.warn("内容记录不存在: {}", blobFilename);
+            return 0;
+        }
+        PhotoBlob blob = optional.get();
+        if (blob.getRefCount() > 1) {
+            blob.setRefCount(blob.getRefCount() - 1);
+            photoBlobRepository.save(blob);
+            log.debug("内容引用减少: {}, 引用数={}", blobFilename, blob.getRefCount());
+            return 0;
+        }
+
+        photoBlobRepository.delete(blob);
+        orphanedFiles.accept(blobFilename);
+        log.info("内容已无引用，删除文件: {}", blobFilename);
+        return blob.getFileSize();
+    }
+
+    /**
+     * 在事务外删除已无引用的内容文件
+     * 删除期间短暂持有内容锁：新上传相同内容时在同一把锁下提交文件和记录，
+     * 因此加锁后记录仍不存在，说明没有进行中或已提交的上传在使用该文件
+     */
+    public void deleteOrphanedFiles(String blobFilename) {
+        ReentrantLock lock = locks[stripeOf(FilenameUtils.getBaseName(blobFilename))];
+        lock.lock();
+        try {
+            if (photoBlobRepository.existsByStoredFilename(blobFilename)) {
+                log.info("内容已被重新上传，保留文件: {}", blobFilename);
+                return;
+            }
+            deleteFiles(blobFilename);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * 在事务外处理核对发现的孤立文件，加锁方式与 {@link #deleteOrphanedFiles(String)} 相同：
+     * 核对读取文件名后相同内容可能已被重新上传，加锁后记录仍不存在才执行处理
+     *
+     * @param blobFilename 文件对应的内容文件名(缩略图为去掉前缀后的文件名)
+     * @return 内容已被重新上传、未执行处理时返回false
+     */
+    public boolean handleOrphanedFile(String blobFilename, OrphanAction action) throws IOException {
+        ReentrantLock lock = locks[stripeOf(FilenameUtils.getBaseName(blobFilename))];
+        lock.lock();
+        try {
+            if (photoBlobRepository.existsByStoredFilename(blobFilename)) {
+                return false;
+            }
+            action.run();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除内容文件及其缩略图、多尺寸图片，失败时只记录日志
+     */
+    public void deleteFiles(String blobFilename) {
+        try {
+            fileStorageService.deleteFile(blobFilename);
+            fileStorageService.deleteThumbnail(blobFilename);
+            renditionService.deleteRenditions(blobFilename);
+        } catch (Exception e) {
+            log.warn("删除内容文件失败: {}", blobFilename, e);
+        }
+    }
+}
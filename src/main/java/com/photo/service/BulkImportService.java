@@ -0,0 +1,728 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.dto.BatchUploadItem;
+import com.photo.dto.ImportStatus;
+import com.photo.dto.IngestedFile;
+import com.photo.exception.AccessDeniedException;
+import com.photo.exception.FileNotFoundException;
+import com.photo.exception.FileSizeException;
+import com.photo.exception.FileStorageException;
+import com.photo.exception.UploadConflictException;
+import com.photo.util.FileUtils;
+import com.photo.util.JobCheckpoint;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 本地目录批量导入
+ * 导入按阶段组成流水线，阶段之间用有界队列连接，下游处理不过来时上游阻塞等待，临时文件数也因此有上限：
+ * 1. 遍历(1个线程)：按文件名顺序深度优先遍历目录，图片文件放入读取队列；
+ * 2. 读取(ingest-threads个线程)：复制到临时目录，同时计算MD5、SHA-256，解析类型和尺寸；
+ * 3. 写入(writer-threads个线程)：每次取最多batch-size个文件，由 {@link PhotoService#importPhotos} 每lock-group-size个
+ *    文件一个事务校验、与已有内容和本人已有照片去重、存储并批量插入记录；
+ * 4. 衍生图(derivative-threads个线程)：事务提交后照片ID放入衍生图队列，由 {@link DerivativeService#generateNow}
+ *    生成缩略图和压缩图；队列满时写入阶段等待，衍生图生成速度决定整个导入的速度。
+ * 每批写入后保存检查点(遍历顺序中此前的文件都已处理完的位置)，停止或进程退出后从该位置继续；
+ * 检查点之后已导入过的文件再次导入时返回已有记录，不会产生重复照片。停止时衍生图队列中剩余的照片保持待生成状态，
+ * 由衍生图服务的定时补偿任务补做。
+ */
+@Slf4j
+@Service
+public class BulkImportService {
+
+    private static final String KEY_ROOT = "root";
+
+    private static final String KEY_USER_ID = "userId";
+
+    private static final String KEY_DESCRIPTION = "description";
+
+    private static final String KEY_POSITION = "position";
+
+    private static final String KEY_POSITION_DONE = "positionDone";
+
+    private static final String KEY_SUCCEEDED = "succeeded";
+
+    private static final String KEY_FAILED = "failed";
+
+    private static final String KEY_BYTES = "bytes";
+
+    /**
+     * 写入线程凑满一批的最长等待时间
+     */
+    private static final long BATCH_WAIT_MILLIS = 200;
+
+    /**
+     * 关闭服务时等待当前批次写完的时间
+     */
+    private static final long SHUTDOWN_WAIT_MILLIS = 30000;
+
+    private static final ImportFile END_OF_FILES = new ImportFile(-1, null, null);
+
+    private static final ImportItem END_OF_ITEMS = new ImportItem(END_OF_FILES, null);
+
+    private static final Long END_OF_DERIVATIVES = -1L;
+
+    @Autowired
+    private PhotoService photoService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private DerivativeService derivativeService;
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile ImportJob job;
+
+    private volatile Thread coordinator;
+
+    /**
+     * 上次导入未完成时，启动后在后台继续
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        JobCheckpoint checkpoint = new JobCheckpoint(Paths.get(storageProperties.getBulkImport().getCheckpointPath()));
+        try {
+            if (checkpoint.load()) {
+                start(checkpoint.get(KEY_ROOT), checkpoint.get(KEY_USER_ID), checkpoint.get(KEY_DESCRIPTION));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("未能继续上次的批量导入: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 在后台开始导入，同一目录和用户存在检查点时从检查点继续
+     *
+     * @param path        本地目录，必须位于 allowed-roots 配置的目录下
+     * @param userId      照片所属用户ID
+     * @param description 照片描述
+     */
+    public ImportStatus start(String path, String userId, String description) {
+        Path root = resolveRoot(path);
+        if (!running.compareAndSet(false, true)) {
+            throw new UploadConflictException("已有导入任务在执行");
+        }
+        try {
+            FileStorageProperties.ImportConfig config = storageProperties.getBulkImport();
+            ImportJob newJob = new ImportJob(root, userId, description, config);
+            newJob.restore();
+            job = newJob;
+            coordinator = threadFactory("bulk-import-").newThread(() -> run(newJob, config));
+            coordinator.start();
+        } catch (IOException e) {
+            running.set(false);
+            throw new FileStorageException("读取导入检查点失败", e);
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        return getStatus();
+    }
+
+    /**
+     * 请求停止导入，已读取的文件写入后结束，检查点保留
+     */
+    public ImportStatus stop() {
+        ImportJob current = job;
+        if (current != null && running.get()) {
+            current.stopRequested = true;
+            log.info("已请求停止批量导入: {}", current.root);
+        }
+        return getStatus();
+    }
+
+    /**
+     * 当前导入状态
+     */
+    public ImportStatus getStatus() {
+        ImportJob current = job;
+        if (current == null) {
+            return ImportStatus.builder().running(false).build();
+        }
+        long elapsedNanos = Math.max(System.nanoTime() - current.startNanos, 1);
+        if (current.finishedAt != null) {
+            elapsedNanos = Math.max(current.finishNanos - current.startNanos, 1);
+        }
+        double seconds = elapsedNanos / 1e9;
+        double filesPerSecond = current.runFiles.get() / seconds;
+        Long totalFiles = current.totalFiles;
+        Long etaSeconds = null;
+        if (totalFiles != null && current.finishedAt == null && filesPerSecond > 0) {
+            long remaining = Math.max(totalFiles - current.succeededFiles.get() - current.failedFiles.get(), 0);
+            etaSeconds = (long) Math.ceil(remaining / filesPerSecond);
+        }
+        return ImportStatus.builder()
+            .running(current.finishedAt == null)
+            .stopRequested(current.stopRequested)
+            .root(current.root.toString())
+            .userId(current.userId)
+            .resumedFrom(current.resumedFrom)
+            .totalFiles(totalFiles)
+            .discoveredFiles(current.discoveredFiles.get())
+            .succeededFiles(current.succeededFiles.get())
+            .failedFiles(current.failedFiles.get())
+            .ignoredFiles(current.ignoredFiles.get())
+            .importedBytes(current.importedBytes.get())
+            .ingestQueueSize(current.ingestQueue.size())
+            .writeQueueSize(current.writeQueue.size())
+            .derivativeQueueSize(current.derivativeQueue.size())
+            .processedDerivatives(current.processedDerivatives.get())
+            .filesPerSecond(Math.round(filesPerSecond * 100) / 100.0)
+            .bytesPerSecond((long) (current.runBytes.get() / seconds))
+            .etaSeconds(etaSeconds)
+            .startedAt(current.startedAt)
+            .finishedAt(current.finishedAt)
+            .build();
+    }
+
+    /**
+     * 关闭服务时停止导入并等待当前批次写完，下次启动从检查点继续
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        Thread thread = coordinator;
+        if (thread != null && thread.isAlive()) {
+            stop();
+            thread.join(SHUTDOWN_WAIT_MILLIS);
+        }
+    }
+
+    private void run(ImportJob job, FileStorageProperties.ImportConfig config) {
+        log.info("开始批量导入: 目录={}, 用户={}, 起始位置={}", job.root, job.userId,
+            job.resumedFrom != null ? job.resumedFrom : "开头");
+        ExecutorService ingestPool = Executors.newFixedThreadPool(config.getIngestThreads(),
+            threadFactory("bulk-import-ingest-"));
+        ExecutorService writerPool = Executors.newFixedThreadPool(config.getWriterThreads(),
+            threadFactory("bulk-import-writer-"));
+        ExecutorService derivativePool = Executors.newFixedThreadPool(config.getDerivativeThreads(),
+            threadFactory("bulk-import-derivative-"));
+        Thread counter = threadFactory("bulk-import-count-").newThread(() -> countFiles(job));
+        try {
+            counter.start();
+            for (int i = 0; i < config.getIngestThreads(); i++) {
+                ingestPool.execute(() -> ingestLoop(job));
+            }
+            for (int i = 0; i < config.getWriterThreads(); i++) {
+                writerPool.execute(() -> writeLoop(job, config.getBatchSize()));
+            }
+            for (int i = 0; i < config.getDerivativeThreads(); i++) {
+                derivativePool.execute(() -> derivativeLoop(job));
+            }
+
+            boolean walked = walk(job, job.root);
+
+            // 上游全部结束后再通知下游结束，队列中剩余的文件都会被处理
+            for (int i = 0; i < config.getIngestThreads(); i++) {
+                job.ingestQueue.put(END_OF_FILES);
+            }
+            ingestPool.shutdown();
+            ingestPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < config.getWriterThreads(); i++) {
+                job.writeQueue.put(END_OF_ITEMS);
+            }
+            writerPool.shutdown();
+            writerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < config.getDerivativeThreads(); i++) {
+                job.derivativeQueue.put(END_OF_DERIVATIVES);
+            }
+            derivativePool.shutdown();
+            derivativePool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+            if (walked && job.inFlight.isEmpty()) {
+                job.checkpoint.clear();
+                log.info("批量导入完成: 目录={}, 成功={}, 失败={}, 跳过={}", job.root,
+                    job.succeededFiles.get(), job.failedFiles.get(), job.ignoredFiles.get());
+            } else {
+                job.saveCheckpoint();
+                log.info("批量导入已停止: 目录={}, 成功={}, 失败={}, 下次从 {} 继续", job.root,
+                    job.succeededFiles.get(), job.failedFiles.get(), job.checkpoint.get(KEY_POSITION));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("批量导入被中断: {}", job.root);
+        } catch (Exception e) {
+            log.error("批量导入中断: {}", job.root, e);
+        } finally {
+            ingestPool.shutdownNow();
+            writerPool.shutdownNow();
+            derivativePool.shutdownNow();
+            counter.interrupt();
+            job.finishNanos = System.nanoTime();
+            job.finishedAt = LocalDateTime.now();
+            running.set(false);
+        }
+    }
+
+    /**
+     * 按文件名顺序深度优先遍历，跳过检查点之前的目录和文件
+     *
+     * @return 请求停止时返回false
+     */
+    private boolean walk(ImportJob job, Path directory) throws InterruptedException {
+        List<Path> children;
+        try (Stream<Path> stream = Files.list(directory)) {
+            children = stream
+                .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                .collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("读取目录失败: {}, 原因={}", directory, e.getMessage());
+            return true;
+        }
+        for (Path child : children) {
+            if (job.stopRequested) {
+                return false;
+            }
+            Path relative = job.root.relativize(child);
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                if (!job.isBeforePosition(relative, true) && !walk(job, child)) {
+                    return false;
+                }
+            } else if (Files.isRegularFile(child, LinkOption.NOFOLLOW_LINKS) && !job.isBeforePosition(relative, false)) {
+                if (!FileUtils.isImageExtension(child.getFileName().toString())) {
+                    job.ignoredFiles.incrementAndGet();
+                    continue;
+                }
+                long sequence = job.nextSequence++;
+                job.inFlight.put(sequence, relative);
+                job.lastDiscovered = relative;
+                job.discoveredFiles.incrementAndGet();
+                job.ingestQueue.put(new ImportFile(sequence, child, relative));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取阶段：复制到临时目录并计算哈希(新内容同时计算感知哈希)，请求停止后剩余的文件留待下次导入
+     */
+    private void ingestLoop(ImportJob job) {
+        long maxFileSize = storageProperties.getMaxFileSize();
+        try {
+            while (true) {
+                ImportFile file = job.ingestQueue.take();
+                if (file == END_OF_FILES) {
+                    return;
+                }
+                if (job.stopRequested) {
+                    continue;
+                }
+                IngestedFile ingestedFile;
+                try {
+                    if (Files.size(file.path) > maxFileSize) {
+                        throw new FileSizeException("文件大小不能超过 " + FileUtils.formatFileSize(maxFileSize));
+                    }
+                    try (InputStream inputStream = Files.newInputStream(file.path)) {
+                        ingestedFile = fileStorageService.ingest(inputStream, file.path.getFileName().toString());
+                    }
+                    photoService.precomputePerceptualHash(ingestedFile);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("导入文件失败: {}, 原因={}", file.relative, e.getMessage());
+                    job.failedFiles.incrementAndGet();
+                    job.runFiles.incrementAndGet();
+                    job.finish(file);
+                    continue;
+                }
+                try {
+                    job.writeQueue.put(new ImportItem(file, ingestedFile));
+                } catch (InterruptedException e) {
+                    fileStorageService.discardIngestedFile(ingestedFile);
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 写入阶段：凑满一批(或等待超时)后分组保存，之后更新检查点
+     */
+    private void writeLoop(ImportJob job, int batchSize) {
+        List<ImportItem> batch = new ArrayList<>(batchSize);
+        try {
+            boolean end = false;
+            while (!end) {
+                ImportItem item = job.writeQueue.take();
+                while (item != END_OF_ITEMS) {
+                    batch.add(item);
+                    if (batch.size() >= batchSize) {
+                        break;
+                    }
+                    item = job.writeQueue.poll(BATCH_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (item == null) {
+                        break;
+                    }
+                }
+                end = item == END_OF_ITEMS;
+                if (!batch.isEmpty()) {
+                    write(job, batch);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.forEach(item -> fileStorageService.discardIngestedFile(item.ingestedFile));
+        }
+    }
+
+    /**
+     * 保存一批文件并更新检查点，之后把需要生成衍生图的照片放入衍生图队列(队列满时等待)
+     */
+    private void write(ImportJob job, List<ImportItem> batch) throws InterruptedException {
+        List<IngestedFile> ingestedFiles = batch.stream()
+            .map(item -> item.ingestedFile)
+            .collect(Collectors.toList());
+        List<Long> derivativeIds = new ArrayList<>();
+        try {
+            List<BatchUploadItem> results = photoService.importPhotos(ingestedFiles, job.userId, job.description,
+                derivativeIds);
+            for (int i = 0; i < results.size(); i++) {
+                BatchUploadItem result = results.get(i);
+                if (result.getSuccess()) {
+                    job.succeededFiles.incrementAndGet();
+                    job.importedBytes.addAndGet(ingestedFiles.get(i).getFileSize());
+                } else {
+                    job.failedFiles.incrementAndGet();
+                    log.warn("导入文件失败: {}, 原因={}", batch.get(i).file.relative, result.getError());
+                }
+            }
+        } catch (RuntimeException e) {
+            derivativeIds.clear();
+            job.failedFiles.addAndGet(batch.size());
+            log.error("导入批次保存失败: {} 个文件, 从 {} 开始", batch.size(), batch.get(0).file.relative, e);
+        }
+        job.runFiles.addAndGet(batch.size());
+        job.runBytes.addAndGet(ingestedFiles.stream().mapToLong(IngestedFile::getFileSize).sum());
+        batch.forEach(item -> job.finish(item.file));
+        try {
+            job.saveCheckpoint();
+        } catch (IOException e) {
+            log.warn("保存导入检查点失败: {}", e.getMessage());
+        }
+        for (Long photoId : derivativeIds) {
+            job.derivativeQueue.put(photoId);
+        }
+    }
+
+    /**
+     * 衍生图阶段：逐个生成缩略图和压缩图，请求停止后剩余的照片留给定时补偿任务
+     */
+    private void derivativeLoop(ImportJob job) {
+        try {
+            while (true) {
+                Long photoId = job.derivativeQueue.take();
+                if (END_OF_DERIVATIVES.equals(photoId)) {
+                    return;
+                }
+                if (job.stopRequested) {
+                    continue;
+                }
+                try {
+                    derivativeService.generateNow(photoId);
+                } catch (RuntimeException e) {
+                    log.warn("导入照片衍生图生成失败: ID={}, 原因={}", photoId, e.getMessage());
+                }
+                job.processedDerivatives.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 统计目录中的图片文件总数，用于估算剩余时间；与导入并行执行，不受导入背压影响
+     */
+    private void countFiles(ImportJob job) {
+        long[] count = {0};
+        try {
+            Files.walkFileTree(job.root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (Thread.currentThread().isInterrupted() || job.stopRequested) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (attrs.isRegularFile() && FileUtils.isImageExtension(file.getFileName().toString())) {
+                        count[0]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            if (!Thread.currentThread().isInterrupted() && !job.stopRequested) {
+                job.totalFiles = count[0];
+                log.info("导入目录统计完成: {}, 图片文件={}", job.root, count[0]);
+            }
+        } catch (IOException e) {
+            log.warn("统计导入目录失败: {}, 原因={}", job.root, e.getMessage());
+        }
+    }
+
+    /**
+     * 导入目录必须位于允许的目录下(按真实路径比较，符号链接不能绕过)
+     */
+    private Path resolveRoot(String path) {
+        List<String> allowedRoots = storageProperties.getBulkImport().getAllowedRoots();
+        if (allowedRoots.isEmpty()) {
+            throw new AccessDeniedException("未配置允许导入的目录");
+        }
+        Path root;
+        try {
+            root = Paths.get(path).toRealPath();
+        } catch (InvalidPathException | IOException e) {
+            throw new FileNotFoundException("导入目录不存在: " + path);
+        }
+        if (!Files.isDirectory(root)) {
+            throw new FileNotFoundException("导入目录不存在: " + path);
+        }
+        for (String allowedRoot : allowedRoots) {
+            try {
+                if (root.startsWith(Paths.get(allowedRoot).toRealPath())) {
+                    return root;
+                }
+            } catch (InvalidPathException | IOException e) {
+                log.warn("允许导入的目录不存在: {}", allowedRoot);
+            }
+        }
+        throw new AccessDeniedException("不允许从该目录导入: " + path);
+    }
+
+    private static CustomizableThreadFactory threadFactory(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    /**
+     * 按遍历顺序比较相对路径：逐级比较文件名，上级目录排在其下的文件之前
+     */
+    static int compareWalkOrder(Path a, Path b) {
+        int count = Math.min(a.getNameCount(), b.getNameCount());
+        for (int i = 0; i < count; i++) {
+            int result = a.getName(i).toString().compareTo(b.getName(i).toString());
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(a.getNameCount(), b.getNameCount());
+    }
+
+    /**
+     * 一次导入任务的状态
+     */
+    private static final class ImportJob {
+
+        private final Path root;
+
+        private final String userId;
+
+        private final String description;
+
+        private final JobCheckpoint checkpoint;
+
+        private final BlockingQueue<ImportFile> ingestQueue;
+
+        private final BlockingQueue<ImportItem> writeQueue;
+
+        private final BlockingQueue<Long> derivativeQueue;
+
+        /**
+         * 处理中的文件(遍历序号到相对路径)，最小序号之前的文件都已处理完
+         */
+        private final ConcurrentSkipListMap<Long, Path> inFlight = new ConcurrentSkipListMap<>();
+
+        private final AtomicLong discoveredFiles = new AtomicLong();
+
+        private final AtomicLong succeededFiles = new AtomicLong();
+
+        private final AtomicLong failedFiles = new AtomicLong();
+
+        private final AtomicLong ignoredFiles = new AtomicLong();
+
+        private final AtomicLong importedBytes = new AtomicLong();
+
+        private final AtomicLong processedDerivatives = new AtomicLong();
+
+        private final AtomicLong runFiles = new AtomicLong();
+
+        private final AtomicLong runBytes = new AtomicLong();
+
+        private final LocalDateTime startedAt = LocalDateTime.now();
+
+        private final long startNanos = System.nanoTime();
+
+        /**
+         * 检查点位置，以及该位置的文件本身是否已处理
+         */
+        private Path position;
+
+        private boolean positionDone;
+
+        private String resumedFrom;
+
+        /**
+         * 只由遍历线程修改
+         */
+        private long nextSequence;
+
+        private volatile Path lastDiscovered;
+
+        private volatile Long totalFiles;
+
+        private volatile boolean stopRequested;
+
+        private volatile long finishNanos;
+
+        private volatile LocalDateTime finishedAt;
+
+        private ImportJob(Path root, String userId, String description,
+                          FileStorageProperties.ImportConfig config) {
+            this.root = root;
+            this.userId = userId;
+            this.description = description;
+            this.checkpoint = new JobCheckpoint(Paths.get(config.getCheckpointPath()));
+            this.ingestQueue = new ArrayBlockingQueue<>(config.getQueueCapacity() + config.getIngestThreads());
+            this.writeQueue = new ArrayBlockingQueue<>(config.getQueueCapacity() + config.getWriterThreads());
+            this.derivativeQueue = new ArrayBlockingQueue<>(config.getQueueCapacity() + config.getDerivativeThreads());
+        }
+
+        /**
+         * 同一目录和用户存在检查点时恢复进度，否则丢弃旧检查点
+         */
+        private void restore() throws IOException {
+            if (!checkpoint.load()) {
+                return;
+            }
+            if (!root.toString().equals(checkpoint.get(KEY_ROOT)) || !userId.equals(checkpoint.get(KEY_USER_ID))) {
+                log.warn("丢弃未完成的导入检查点: 目录={}, 用户={}", checkpoint.get(KEY_ROOT), checkpoint.get(KEY_USER_ID));
+                checkpoint.clear();
+                return;
+            }
+            if (checkpoint.get(KEY_POSITION) != null) {
+                position = Paths.get(checkpoint.get(KEY_POSITION));
+                positionDone = Boolean.parseBoolean(checkpoint.get(KEY_POSITION_DONE));
+                resumedFrom = checkpoint.get(KEY_POSITION);
+            }
+            succeededFiles.set(checkpoint.getLong(KEY_SUCCEEDED, 0));
+            failedFiles.set(checkpoint.getLong(KEY_FAILED, 0));
+            importedBytes.set(checkpoint.getLong(KEY_BYTES, 0));
+        }
+
+        /**
+         * 是否位于检查点之前(已处理过)；目录只有在检查点位置不在其下时才整体跳过
+         */
+        private boolean isBeforePosition(Path relative, boolean directory) {
+            if (position == null) {
+                return false;
+            }
+            int result = compareWalkOrder(relative, position);
+            if (directory) {
+                return result < 0 && !position.startsWith(relative);
+            }
+            return positionDone ? result <= 0 : result < 0;
+        }
+
+        private void finish(ImportFile file) {
+            inFlight.remove(file.sequence);
+        }
+
+        /**
+         * 保存检查点：有处理中的文件时从其中最早的一个继续，否则从最后发现的文件之后继续
+         */
+        private synchronized void saveCheckpoint() throws IOException {
+            // 先读最后发现的文件再读处理中的文件，读到空时该文件及之前的文件一定都已处理完
+            Path discovered = lastDiscovered;
+            Map.Entry<Long, Path> first = inFlight.firstEntry();
+            if (first != null) {
+                checkpoint.set(KEY_POSITION, first.getValue()).set(KEY_POSITION_DONE, false);
+            } else if (discovered != null) {
+                checkpoint.set(KEY_POSITION, discovered).set(KEY_POSITION_DONE, true);
+            } else if (position != null) {
+                checkpoint.set(KEY_POSITION, position).set(KEY_POSITION_DONE, positionDone);
+            }
+            checkpoint.set(KEY_ROOT, root)
+                .set(KEY_USER_ID, userId)
+                .set(KEY_SUCCEEDED, succeededFiles.get())
+                .set(KEY_FAILED, failedFiles.get())
+                .set(KEY_BYTES, importedBytes.get());
+            if (description != null) {
+                checkpoint.set(KEY_DESCRIPTION, description);
+            }
+            checkpoint.save();
+        }
+    }
+
+    /**
+     * 待读取的文件
+     */
+    private static final class ImportFile {
+
+        private final long sequence;
+
+        private final Path path;
+
+        private final Path relative;
+
+        private ImportFile(long sequence, Path path, Path relative) {
+            this.sequence = sequence;
+            this.path = path;
+            this.relative = relative;
+        }
+    }
+
+    /**
+     * 已读取、待写入的文件
+     */
+    private static final class ImportItem {
+
+        private final ImportFile file;
+
+        private final IngestedFile ingestedFile;
+
+        private ImportItem(ImportFile file, IngestedFile ingestedFile) {
+            this.file = file;
+            this.ingestedFile = ingestedFile;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.entity.Photo;
+import com.photo.repository.PhotoRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 衍生图异步生成服务
+ * 上传事务提交后在有界线程池中生成缩略图和压缩图，失败时按退避间隔重试
+ */
+@Slf4j
+@Service
+public class DerivativeService {
+
+    /**
+     * 每次补偿提交的最大数量
+     */
+    private static final int SWEEP_BATCH_SIZE = 100;
+
+    /**
+     * 内容锁分段数
+     */
+    private static final int CONTENT_LOCK_STRIPES = 64;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private RenditionService renditionService;
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Autowired
+    @Qualifier("derivativeExecutor")
+    private ThreadPoolTaskExecutor derivativeExecutor;
+
+    /**
+     * 已排队、生成中或等待重试的照片ID
+     */
+    private final Set<Long> scheduledIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 内容锁，按存储文件名分段；锁对象固定不变，同一内容不会同时持有两把不同的锁
+     */
+    private final ReentrantLock[] contentLocks = new ReentrantLock[CONTENT_LOCK_STRIPES];
+
+    public DerivativeService() {
+        for (int i = 0; i < CONTENT_LOCK_STRIPES; i++) {
+            contentLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * 提交衍生图生成任务
+     * 在事务中调用时，任务在事务提交后才提交，保证原图和记录已持久化
+     */
+    public void schedule(Long photoId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(photoId);
+                }
+            });
+        } else {
+            submit(photoId);
+        }
+    }
+
+    /**
+     * 提交任务(同一照片只保留一个任务)
+     */
+    public void submit(Long photoId) {
+        if (scheduledIds.add(photoId)) {
+            dispatch(photoId);
+        }
+    }
+
+    /**
+     * 在调用线程中生成衍生图(批量导入的衍生图阶段使用)，失败时按退避间隔交给线程池重试
+     * 照片已有任务在排队或生成中时直接返回
+     */
+    public void generateNow(Long photoId) {
+        if (scheduledIds.add(photoId)) {
+            run(photoId);
+        }
+    }
+
+    /**
+     * 定期补偿：重新提交因队列已满、服务重启或线程中断而遗漏的任务
+     */
+    @Scheduled(fixedDelayString = "${file.storage.derivative.sweep-interval:60000}",
+               initialDelayString = "${file.storage.derivative.sweep-interval:60000}")
+    public void sweep() {
+        FileStorageProperties.DerivativeConfig config = storageProperties.getDerivative();
+        LocalDateTime now = LocalDateTime.now();
+
+        List<Long> pendingIds = photoRepository.findIdsByDerivativeStatus(Photo.DerivativeStatus.PENDING,
+            now.minus(Duration.ofMillis(config.getSweepInterval())), PageRequest.of(0, SWEEP_BATCH_SIZE));
+        List<Long> staleIds = photoRepository.findIdsByDerivativeStatus(Photo.DerivativeStatus.PROCESSING,
+            now.minus(Duration.ofMillis(config.getStaleTimeout())), PageRequest.of(0, SWEEP_BATCH_SIZE));
+
+        if (!pendingIds.isEmpty() || !staleIds.isEmpty()) {
+            log.info("补偿提交衍生图任务: 等待中={}, 已中断={}", pendingIds.size(), staleIds.size());
+        }
+        pendingIds.forEach(this::submit);
+        staleIds.forEach(this::submit);
+    }
+
+    /**
+     * 当前排队中的任务数
+     */
+    public int getQueueSize() {
+        return derivativeExecutor.getThreadPoolExecutor().getQueue().size();
+    }
+
+    /**
+     * 将任务放入线程池
+     */
+    private void dispatch(Long photoId) {
+        try {
+            derivativeExecutor.execute(() -> run(photoId));
+        } catch (RejectedExecutionException e) {
+            // 保持PENDING状态，由补偿任务稍后重新提交
+            scheduledIds.remove(photoId);
+            log.warn("衍生图任务队列已满，稍后重试: ID={}", photoId);
+        }
+    }
+
+    /**
+     * 执行任务，失败时按退避间隔重新提交
+     */
+    private void run(Long photoId) {
+        Duration retryDelay = null;
+        try {
+            retryDelay = generate(photoId);
+        } finally {
+            if (retryDelay != null) {
+                taskScheduler.schedule(() -> dispatch(photoId), Instant.now().plus(retryDelay));
+            } else {
+                scheduledIds.remove(photoId);
+            }
+        }
+    }
+
+    /**
+     * 生成缩略图和压缩图
+     *
+     * @return 需要重试时返回重试间隔，否则返回null
+     */
+    private Duration generate(Long photoId) {
+        Optional<Photo> optional = photoRepository.findById(photoId);
+        if (optional.isEmpty() || optional.get().getDeleted()) {
+            return null;
+        }
+        Photo photo = optional.get();
+        if (photo.getDerivativeStatus() == null || photo.getDerivativeStatus() == Photo.DerivativeStatus.COMPLETED) {
+            return null;
+        }
+
+        String storedFilename = photo.getStorageFilename();
+        photoRepository.updateDerivativeStatus(photoId, Photo.DerivativeStatus.PROCESSING, LocalDateTime.now());
+
+        // 共享同一内容的照片串行处理，压缩只执行一次
+        ReentrantLock contentLock = contentLocks[Math.floorMod(storedFilename.hashCode(), CONTENT_LOCK_STRIPES)];
+        contentLock.lock();
+        try {
+            return generate(photo, storedFilename);
+        } finally {
+            contentLock.unlock();
+        }
+    }
+
+    /**
+     * 在内容锁内生成缩略图和压缩图
+     */
+    private Duration generate(Photo photo, String storedFilename) {
+        Long photoId = photo.getId();
+        long startTime = System.currentTimeMillis();
+
+        try {
+            // 引用同一内容的其他照片已处理完成时直接复用
+            if (photo.getBlobFilename() != null) {
+                Optional<Photo> processed = photoRepository.findFirstByBlobFilenameAndDerivativeStatus(
+                    storedFilename, Photo.DerivativeStatus.COMPLETED);
+                if (processed.isPresent()) {
+                    photoRepository.completeDerivatives(photoId, Photo.DerivativeStatus.COMPLETED,
+                        processed.get().getThumbnailPath(), processed.get().getWidth(),
+                        processed.get().getHeight(), LocalDateTime.now());
+                    evictCache(photo);
+                    return null;
+                }
+            }
+
+            File storedFile = fileStorageService.getFile(storedFilename);
+
+            // 已生成的部分在重试时跳过
+            if (!fileStorageService.thumbnailExists(storedFilename)) {
+                fileStorageService.createThumbnail(storedFile, storedFilename);
+            }
+            // 压缩图单独存放，原图不被修改，与内容哈希、MD5和已计入的存储空间保持一致
+            if (storageProperties.getCompression().getEnabled()
+                    && renditionService.getCompressedPath(storedFilename) == null) {
+                renditionService.createCompressed(storedFile, storedFilename);
+            }
+
+            photoRepository.completeDerivatives(photoId, Photo.DerivativeStatus.COMPLETED,
+                fileStorageService.getThumbnailPath(storedFilename), photo.getWidth(), photo.getHeight(),
+                LocalDateTime.now());
+            evictCache(photo);
+            log.debug("衍生图生成完成: ID={}, 耗时={}ms", photoId, System.currentTimeMillis() - startTime);
+            return null;
+        } catch (Exception e) {
+            int attempts = (photo.getDerivativeAttempts() == null ? 0 : photo.getDerivativeAttempts()) + 1;
+            FileStorageProperties.DerivativeConfig config = storageProperties.getDerivative();
+            boolean retry = attempts < config.getMaxAttempts();
+
+            photoRepository.recordDerivativeFailure(photoId,
+                retry ? Photo.DerivativeStatus.PENDING : Photo.DerivativeStatus.FAILED, LocalDateTime.now());
+            evictCache(photo);
+
+            if (!retry) {
+                log.error("衍生图生成失败，已达最大重试次数: ID={}", photoId, e);
+                return null;
+            }
+            Duration delay = Duration.ofMillis(config.getRetryDelay() << (attempts - 1));
+            log.warn("衍生图生成失败，{}ms后重试({}/{}): ID={}, 原因={}",
+                delay.toMillis(), attempts, config.getMaxAttempts(), photoId, e.getMessage());
+            return delay;
+        }
+    }
+
+    /**
+     * 清除照片缓存，使状态变化对读取方可见
+     */
+    private void evictCache(Photo photo) {
+        Cache cache = cacheManager.getCache("photos");
+        if (cache != null) {
+            cache.evict(photo.getId());
+            cache.evict(photo.getStoredFilename());
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.entity.Photo;
+import com.photo.repository.PhotoRepository;
+import com.photo.util.JobCheckpoint;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 过期照片清理任务
+ * 按ID顺序分批读取过期照片ID，内存占用与过期照片总数无关。每批在独立的短事务中加行锁、按分段顺序锁定内容、
+ * 释放内容引用，并用一条 DELETE ... WHERE id IN 删除记录；事务结束、内容锁释放后在IO线程池中并行删除文件。
+ * 每批完成后写入检查点(截止时间和已处理的最大ID)，进程中断后在启动时从检查点继续。
+ */
+@Slf4j
+@Service
+public class ExpiredPhotoCleaner {
+
+    private static final String KEY_EXPIRY_DATE = "expiryDate";
+
+    private static final String KEY_LAST_ID = "lastId";
+
+    private static final String KEY_DELETED = "deleted";
+
+    private static final String KEY_FAILED = "failed";
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private BlobService blobService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private RenditionService renditionService;
+
+    @Autowired
+    private StorageUsageTracker storageUsageTracker;
+
+    @Autowired
+    private PhotoSearchIndex photoSearchIndex;
+
+    @Autowired
+    private SimilarityIndex similarityIndex;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    @Qualifier("cleanupExecutor")
+    private Executor cleanupExecutor;
+
+    @Autowired
+    @Qualifier("maintenanceExecutor")
+    private Executor maintenanceExecutor;
+
+    @Lazy
+    @Autowired
+    private ExpiredPhotoCleaner self;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 上次清理未完成时，启动后在后台继续
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!storageProperties.getCleanup().getEnabled()
+                || !Files.isRegularFile(Paths.get(storageProperties.getCleanup().getCheckpointPath()))) {
+            return;
+        }
+        submit();
+    }
+
+    /**
+     * 定期清理过期文件，在维护线程池中执行，不占用定时任务线程
+     */
+    @Scheduled(cron = "${file.storage.cleanup.cron}")
+    public void cleanupExpiredFiles() {
+        if (storageProperties.getCleanup().getEnabled()) {
+            submit();
+        }
+    }
+
+    private void submit() {
+        try {
+            maintenanceExecutor.execute(this::run);
+        } catch (RejectedExecutionException e) {
+            log.warn("维护任务队列已满，清理任务将在下次定时执行时继续");
+        }
+    }
+
+    /**
+     * 执行清理，存在检查点时沿用其截止时间并从已处理的位置继续
+     *
+     * @return 整个任务(含中断前)删除的照片数，任务已在执行时返回-1
+     */
+    public long run() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("清理任务正在执行，跳过");
+            return -1;
+        }
+        try {
+            FileStorageProperties.CleanupConfig config = storageProperties.getCleanup();
+            JobCheckpoint checkpoint = new JobCheckpoint(Paths.get(config.getCheckpointPath()));
+            LocalDateTime expiryDate;
+            if (checkpoint.load()) {
+                expiryDate = LocalDateTime.parse(checkpoint.get(KEY_EXPIRY_DATE));
+                log.info("继续未完成的清理任务: 截止时间={}, 已处理ID={}", expiryDate, checkpoint.get(KEY_LAST_ID));
+            } else {
+                expiryDate = LocalDateTime.now().minusDays(config.getDaysToKeep());
+                checkpoint.set(KEY_EXPIRY_DATE, expiryDate);
+                log.info("开始执行定期清理任务: 截止时间={}", expiryDate);
+            }
+            long lastId = checkpoint.getLong(KEY_LAST_ID, 0);
+            long deleted = checkpoint.getLong(KEY_DELETED, 0);
+            long failed = checkpoint.getLong(KEY_FAILED, 0);
+            long startTime = System.currentTimeMillis();
+
+            while (true) {
+                List<Long> ids = photoRepository.findExpiredIds(expiryDate, lastId,
+                    PageRequest.of(0, config.getBatchSize()));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                List<Runnable> fileDeletions = new ArrayList<>();
+                try {
+                    deleted += self.deleteBatch(ids, expiryDate, fileDeletions);
+                    deleteFilesInParallel(fileDeletions);
+                } catch (Exception e) {
+                    // 整批回滚，留到下次任务重新处理
+                    failed += ids.size();
+                    log.error("清理批次失败: ID {} - {}", ids.get(0), ids.get(ids.size() - 1), e);
+                }
+                lastId = ids.get(ids.size() - 1);
+                checkpoint.set(KEY_LAST_ID, lastId)
+                    .set(KEY_DELETED, deleted)
+                    .set(KEY_FAILED, failed)
+                    .save();
+                if (ids.size() < config.getBatchSize()) {
+                    break;
+                }
+            }
+
+            checkpoint.clear();
+            log.info("定期清理任务完成: 删除={}, 失败={}, 耗时={}ms",
+                deleted, failed, System.currentTimeMillis() - startTime);
+            return deleted;
+        } catch (IOException e) {
+            log.error("清理任务检查点读写失败", e);
+            return 0;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 在一个事务中删除一批照片
+     * 读取ID后被删除或恢复的照片会跳过。释放引用前按分段顺序一次锁定整批内容，与批量导入的加锁顺序一致；
+     * 需要删除的文件放入fileDeletions，由调用方在事务提交后执行(此时内容锁已释放，不阻塞上传)
+     *
+     * @return 删除的照片数
+     */
+    @Transactional
+    public int deleteBatch(List<Long> ids, LocalDateTime expiryDate, List<Runnable> fileDeletions) {
+        List<Photo> photos = photoRepository.findAllByIdInForUpdate(ids);
+        List<Long> deletedIds = new ArrayList<>(photos.size());
+        List<Photo> expired = photos.stream()
+            .filter(photo -> !photo.getDeleted() && photo.getCreatedAt().isBefore(expiryDate))
+            .collect(Collectors.toList());
+        blobService.lockAll(expired.stream()
+            .map(Photo::getBlobFilename)
+            .filter(Objects::nonNull)
+            .map(FilenameUtils::getBaseName)
+            .collect(Collectors.toSet()));
+
+        for (Photo photo : expired) {
+            long freedBytes;
+            if (photo.getBlobFilename() != null) {
+                // 释放共享内容的引用，最后一个引用删除后才删除文件
+                freedBytes = blobService.release(photo.getBlobFilename(),
+                    blobFilename -> fileDeletions.add(() -> blobService.deleteOrphanedFiles(blobFilename)));
+            } else {
+                String storedFilename = photo.getStoredFilename();
+                boolean hasThumbnail = photo.getThumbnailPath() != null;
+                fileDeletions.add(() -> deleteLegacyFiles(storedFilename, hasThumbnail));
+                freedBytes = photo.getFileSize();
+            }
+            storageUsageTracker.onDeleted(freedBytes, true);
+            photoSearchIndex.removeAfterCommit(photo.getId());
+            similarityIndex.removeAfterCommit(photo.getId(), photo.getPerceptualHash());
+            deletedIds.add(photo.getId());
+        }
+
+        if (deletedIds.isEmpty()) {
+            return 0;
+        }
+        photoRepository.deleteByIds(deletedIds);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                Cache cache = cacheManager.getCache("photos");
+                if (cache != null) {
+                    deletedIds.forEach(cache::evict);
+                }
+            }
+        });
+        log.debug("已删除过期照片: {} 个, ID {} - {}", deletedIds.size(), ids.get(0), ids.get(ids.size() - 1));
+        return deletedIds.size();
+    }
+
+    /**
+     * 在IO线程池中并行删除文件并等待全部完成
+     */
+    private void deleteFilesInParallel(List<Runnable> fileDeletions) {
+        if (fileDeletions.isEmpty()) {
+            return;
+        }
+        CompletableFuture<?>[] futures = fileDeletions.stream()
+            .map(deletion -> CompletableFuture.runAsync(deletion, cleanupExecutor))
+            .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (Exception e) {
+            log.error("删除过期文件失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 删除未使用内容寻址存储的历史照片文件
+     */
+    private void deleteLegacyFiles(String storedFilename, boolean hasThumbnail) {
+        try {
+            fileStorageService.deleteFile(storedFilename);
+            if (hasThumbnail) {
+                fileStorageService.deleteThumbnail(storedFilename);
+            }
+            renditionService.deleteRenditions(storedFilename);
+        } catch (Exception e) {
+            log.error("删除文件失败: {}", e.getMessage(), e);
+        }
+    }
+}
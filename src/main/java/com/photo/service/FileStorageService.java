@@ -1,8 +1,11 @@
 package com.photo.service;
 
 import com.photo.config.FileStorageProperties;
+import com.photo.dto.IngestedFile;
+import com.photo.exception.FileSizeException;
 import com.photo.exception.FileStorageException;
 import com.photo.util.FileUtils;
+import com.photo.util.ImageProbe;
 import com.photo.util.ImageUtils;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
@@ -11,21 +14,45 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * 文件存储服务
+ * 原图和缩略图按文件名前缀分两级子目录存放(如 ab/cd/abcd....jpg)，读取时兼容迁移前的平铺目录；
+ * 启用打包存储时新缩略图写入打包卷，已有的缩略图文件仍可读取
  */
 @Slf4j
 @Service
 public class FileStorageService {
     
+    /**
+     * 上传流读取缓冲区大小
+     */
+    private static final int INGEST_BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * 用于MIME检测和尺寸解析的文件头缓冲区大小
+     */
+    private static final int HEADER_BUFFER_SIZE = 64 * 1024;
+    
     @Autowired
     private FileStorageProperties storageProperties;
     
+    @Autowired
+    private PackedThumbnailStore packedThumbnailStore;
+    
+    @Autowired
+    private ImageByteCache imageByteCache;
+    
     private Path baseLocation;
     private Path tempLocation;
     private Path thumbnailLocation;
@@ -73,13 +100,8 @@ public class FileStorageService {
             }
             
             // 解析存储路径
-            Path destinationFile = baseLocation.resolve(Paths.get(storedFilename))
-                .normalize().toAbsolutePath();
-            
-            // 验证目标路径
-            if (!destinationFile.getParent().equals(baseLocation)) {
-                throw new FileStorageException("无法在目标目录外存储文件");
-            }
+            Path destinationFile = getShardedFilePath(storedFilename);
+            Files.createDirectories(destinationFile.getParent());
             
             // 复制文件
             try (InputStream inputStream = file.getInputStream()) {
@@ -94,13 +116,226 @@ public class FileStorageService {
         }
     }
     
+    /**
+     * 单次读取上传文件
+     * 上传流只读取一次，同时写入临时文件、计算MD5和SHA-256并保留文件头用于MIME检测和尺寸解析
+     */
+    public IngestedFile ingestFile(MultipartFile file) {
+        return ingestFile(file, UploadProgressTracker.NONE, 0);
+    }
+    
+    /**
+     * 单次读取上传文件，读取的字节数累计到上传进度
+     */
+    public IngestedFile ingestFile(MultipartFile file, UploadProgressTracker tracker, int fileIndex) {
+        String originalFilename = file.getOriginalFilename();
+        try (InputStream inputStream = tracker.track(file.getInputStream(), fileIndex)) {
+            return ingest(inputStream, originalFilename);
+        } catch (IOException e) {
+            log.error("读取上传文件失败: {}", e.getMessage(), e);
+            throw new FileStorageException("读取上传文件失败: " + originalFilename, e);
+        }
+    }
+    
+    /**
+     * 单次读取输入流并写入临时文件
+     */
+    public IngestedFile ingest(InputStream inputStream, String originalFilename) {
+        if (!FileUtils.isValidFilename(originalFilename)) {
+            throw new FileStorageException("文件名包含非法字符: " + originalFilename);
+        }
+        
+        String storedFilename = FileUtils.generateUniqueFilename(originalFilename);
+        Path tempFile = tempLocation.resolve(storedFilename + ".part");
+        long maxFileSize = storageProperties.getMaxFileSize();
+        
+        MessageDigest md5;
+        MessageDigest sha256;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new FileStorageException("哈希计算失败", e);
+        }
+        
+        byte[] header = new byte[HEADER_BUFFER_SIZE];
+        int headerLength = 0;
+        long totalBytes = 0;
+        byte[] buffer = new byte[INGEST_BUFFER_SIZE];
+        
+        try (OutputStream outputStream = Files.newOutputStream(tempFile,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                totalBytes += read;
+                if (totalBytes > maxFileSize) {
+                    throw new FileSizeException("文件大小不能超过 " + FileUtils.formatFileSize(maxFileSize));
+                }
+                outputStream.write(buffer, 0, read);
+                md5.update(buffer, 0, read);
+                sha256.update(buffer, 0, read);
+                if (headerLength < header.length) {
+                    int n = Math.min(read, header.length - headerLength);
+                    System.arraycopy(buffer, 0, header, headerLength, n);
+                    headerLength += n;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(tempFile);
+            if (e instanceof FileSizeException) {
+                throw (FileSizeException) e;
+            }
+            log.error("写入临时文件失败: {}", e.getMessage(), e);
+            throw new FileStorageException("文件存储失败: " + originalFilename, e);
+        }
+        
+        if (totalBytes == 0) {
+            deleteQuietly(tempFile);
+            throw new FileStorageException("无法存储空文件: " + originalFilename);
+        }
+        
+        log.debug("上传流读取完成: {}, {} 字节", originalFilename, totalBytes);
+        return toIngestedFile(tempFile, originalFilename, storedFilename, totalBytes,
+            FileUtils.toHex(md5.digest()), FileUtils.toHex(sha256.digest()), header, headerLength);
+    }
+    
+    /**
+     * 接收分片上传已在临时目录中组装完成的文件
+     * 内容的MD5和SHA-256已在写入分片时计算，文件在同一目录内改名，不再复制
+     */
+    public IngestedFile ingestAssembled(Path assembledFile, String originalFilename, String md5, String sha256) {
+        if (!FileUtils.isValidFilename(originalFilename)) {
+            throw new FileStorageException("文件名包含非法字符: " + originalFilename);
+        }
+        
+        String storedFilename = FileUtils.generateUniqueFilename(originalFilename);
+        Path tempFile = tempLocation.resolve(storedFilename + ".part");
+        byte[] header = new byte[HEADER_BUFFER_SIZE];
+        int headerLength = 0;
+        long totalBytes;
+        try {
+            Files.move(assembledFile, tempFile, StandardCopyOption.ATOMIC_MOVE);
+            totalBytes = Files.size(tempFile);
+            try (InputStream inputStream = Files.newInputStream(tempFile)) {
+                int read;
+                while (headerLength < header.length
+                        && (read = inputStream.read(header, headerLength, header.length - headerLength)) != -1) {
+                    headerLength += read;
+                }
+            }
+        } catch (IOException e) {
+            deleteQuietly(tempFile);
+            log.error("接收分片上传文件失败: {}", e.getMessage(), e);
+            throw new FileStorageException("文件存储失败: " + originalFilename, e);
+        }
+        return toIngestedFile(tempFile, originalFilename, storedFilename, totalBytes, md5, sha256, header, headerLength);
+    }
+    
+    /**
+     * 由文件头解析MIME类型和图片尺寸
+     */
+    private IngestedFile toIngestedFile(Path tempFile, String originalFilename, String storedFilename, long totalBytes,
+                                        String md5, String sha256, byte[] header, int headerLength) {
+        String mimeType = FileUtils.detectMimeType(header, headerLength);
+        ImageProbe.ImageInfo imageInfo = ImageProbe.probe(header, headerLength);
+        if (imageInfo == null && totalBytes > headerLength) {
+            // 文件头超出缓冲区(如EXIF较大)，从临时文件中按段跳读
+            imageInfo = ImageProbe.probe(tempFile.toFile());
+        }
+        
+        return IngestedFile.builder()
+            .tempPath(tempFile)
+            .originalFilename(originalFilename)
+            .storedFilename(storedFilename)
+            .extension(FileUtils.getFileExtension(originalFilename))
+            .fileSize(totalBytes)
+            .md5(md5)
+            .sha256(sha256)
+            .mimeType(mimeType)
+            .width(imageInfo == null ? 0 : imageInfo.getWidth())
+            .height(imageInfo == null ? 0 : imageInfo.getHeight())
+            .build();
+    }
+    
+    /**
+     * 解码临时文件计算感知哈希
+     * 需要解码整张图片，只对尚未存储的内容调用；已计算、未开启相似检测或不是可解析的图片时跳过
+     */
+    public void computePerceptualHash(IngestedFile ingestedFile) {
+        if (ingestedFile.getPerceptualHash() != null || !ingestedFile.isValidImage()
+                || !storageProperties.getSimilarity().getEnabled()) {
+            return;
+        }
+        ingestedFile.setPerceptualHash(ImageUtils.perceptualHash(ingestedFile.getTempPath().toFile()));
+    }
+    
+    /**
+     * 将临时文件移动到存储目录
+     */
+    public String commitIngestedFile(IngestedFile ingestedFile) {
+        String storedFilename = ingestedFile.getStoredFilename();
+        Path destinationFile = getShardedFilePath(storedFilename);
+        
+        try {
+            Files.createDirectories(destinationFile.getParent());
+            try {
+                Files.move(ingestedFile.getTempPath(), destinationFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(ingestedFile.getTempPath(), destinationFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            log.info("文件存储成功: {}", storedFilename);
+            return storedFilename;
+        } catch (IOException e) {
+            log.error("文件存储失败: {}", e.getMessage(), e);
+            throw new FileStorageException("文件存储失败: " + ingestedFile.getOriginalFilename(), e);
+        }
+    }
+    
+    /**
+     * 将临时文件按内容哈希存入共享存储
+     * 同名文件已存在时(内容相同)直接丢弃临时文件
+     *
+     * @return 共享文件名(SHA-256值加扩展名)
+     */
+    public String commitBlob(IngestedFile ingestedFile) {
+        String blobFilename = ingestedFile.getSha256() + "." + ingestedFile.getExtension();
+        Path destinationFile = getShardedFilePath(blobFilename);
+        
+        try {
+            Files.createDirectories(destinationFile.getParent());
+            if (Files.exists(destinationFile)) {
+                discardIngestedFile(ingestedFile);
+                return blobFilename;
+            }
+            try {
+                Files.move(ingestedFile.getTempPath(), destinationFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(ingestedFile.getTempPath(), destinationFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            log.info("文件存储成功: {}", blobFilename);
+            return blobFilename;
+        } catch (IOException e) {
+            log.error("文件存储失败: {}", e.getMessage(), e);
+            throw new FileStorageException("文件存储失败: " + ingestedFile.getOriginalFilename(), e);
+        }
+    }
+    
+    /**
+     * 丢弃临时文件
+     */
+    public void discardIngestedFile(IngestedFile ingestedFile) {
+        deleteQuietly(ingestedFile.getTempPath());
+    }
+    
     /**
      * 获取文件
      */
     public File getFile(String filename) {
         try {
-            Path filePath = baseLocation.resolve(filename).normalize();
-            File file = filePath.toFile();
+            File file = resolveFile(filename).toFile();
+            if (!file.isFile()) {
+                file = resolveFile(filename).toFile();
+            }
             
             if (!file.exists() || !file.isFile()) {
                 throw new FileStorageException("文件不存在: " + filename);
@@ -113,11 +348,87 @@ public class FileStorageService {
         }
     }
     
+    /**
+     * 临时文件目录
+     */
+    public Path getTempLocation() {
+        return tempLocation;
+    }
+    
     /**
      * 获取文件路径
      */
     public Path getFilePath(String filename) {
-        return baseLocation.resolve(filename).normalize();
+        return resolveFile(filename);
+    }
+    
+    /**
+     * 文件在分片目录中的路径(新文件的写入位置)
+     */
+    public Path getShardedFilePath(String filename) {
+        return shardedPath(baseLocation, filename, filename);
+    }
+    
+    /**
+     * 缩略图在分片目录中的路径(新缩略图的写入位置)
+     */
+    public Path getShardedThumbnailPath(String filename) {
+        return shardedPath(thumbnailLocation, "thumb_" + filename, filename);
+    }
+    
+    /**
+     * 原图根目录(迁移前的平铺目录)
+     */
+    public Path getBaseLocation() {
+        return baseLocation;
+    }
+    
+    /**
+     * 缩略图根目录(迁移前的平铺目录)
+     */
+    public Path getThumbnailLocation() {
+        return thumbnailLocation;
+    }
+    
+    /**
+     * 解析文件路径：优先分片目录，其次迁移前的平铺目录
+     * 两处都不存在时返回分片路径，检查平铺目录前文件刚被迁移移走也能找到。
+     * 解析到平铺路径后文件仍可能被移走，读取失败时重新解析一次即可(迁移只从平铺目录移到分片目录)
+     */
+    private Path resolveFile(String filename) {
+        return resolve(getShardedFilePath(filename), checkedPath(baseLocation, filename));
+    }
+    
+    /**
+     * 解析缩略图路径
+     */
+    private Path resolveThumbnail(String filename) {
+        return resolve(getShardedThumbnailPath(filename), checkedPath(thumbnailLocation, "thumb_" + filename));
+    }
+    
+    private Path resolve(Path shardedPath, Path flatPath) {
+        if (Files.exists(shardedPath)) {
+            return shardedPath;
+        }
+        if (Files.exists(flatPath)) {
+            return flatPath;
+        }
+        return shardedPath;
+    }
+    
+    private Path shardedPath(Path root, String name, String filename) {
+        return checkedPath(root.resolve(FileUtils.getShardDirectory(filename)), name);
+    }
+    
+    /**
+     * 解析路径并确认未超出所在目录
+     */
+    private Path checkedPath(Path directory, String name) {
+        Path path = directory.resolve(name).normalize();
+        if (!path.getParent().equals(directory.normalize())) {
+            throw new FileStorageException("非法文件路径: " + name);
+        }
+        return path;
     }
     
     /**
@@ -125,9 +436,10 @@ public class FileStorageService {
      */
     public File getThumbnail(String filename) {
         try {
-            String thumbnailFilename = "thumb_" + filename;
-            Path thumbnailPath = thumbnailLocation.resolve(thumbnailFilename).normalize();
-            File thumbnailFile = thumbnailPath.toFile();
+            File thumbnailFile = resolveThumbnail(filename).toFile();
+            if (!thumbnailFile.isFile()) {
+                thumbnailFile = resolveThumbnail(filename).toFile();
+            }
             
             if (!thumbnailFile.exists() || !thumbnailFile.isFile()) {
                 throw new FileStorageException("缩略图不存在: " + filename);
@@ -140,46 +452,76 @@ public class FileStorageService {
         }
     }
     
+    /**
+     * 获取打包存储中的缩略图
+     *
+     * @return 只读的内存映射切片，不在打包存储中时返回null
+     */
+    public ByteBuffer getPackedThumbnail(String filename) {
+        return packedThumbnailStore.get(filename);
+    }
+    
+    /**
+     * 获取缩略图路径
+     */
+    public String getThumbnailPath(String filename) {
+        if (packedThumbnailStore.contains(filename)) {
+            return packedThumbnailStore.describe(filename);
+        }
+        return resolveThumbnail(filename).toString();
+    }
+    
+    /**
+     * 缩略图是否已存在
+     */
+    public boolean thumbnailExists(String filename) {
+        return packedThumbnailStore.contains(filename) || Files.isRegularFile(resolveThumbnail(filename));
+    }
+    
     /**
      * 创建缩略图
+     * 失败时抛出FileStorageException，由调用方决定是否重试
      */
     public String createThumbnail(File sourceFile, String filename) {
+        if (storageProperties.getPack().getEnabled()) {
+            return createPackedThumbnail(sourceFile, filename);
+        }
+        
+        String thumbnailFilename = "thumb_" + filename;
+        Path thumbnailPath = getShardedThumbnailPath(filename);
+        File thumbnailFile = thumbnailPath.toFile();
+        
         try {
-            String thumbnailFilename = "thumb_" + filename;
-            Path thumbnailPath = thumbnailLocation.resolve(thumbnailFilename).normalize();
-            File thumbnailFile = thumbnailPath.toFile();
-            
-            ImageUtils.createThumbnail(
-                sourceFile, 
-                thumbnailFile,
-                storageProperties.getThumbnail().getWidth(),
-                storageProperties.getThumbnail().getHeight()
-            );
-            
-            log.debug("缩略图创建成功: {}", thumbnailFilename);
-            return thumbnailPath.toString();
-        } catch (Exception e) {
-            log.error("创建缩略图失败: {}", e.getMessage());
-            return null;
+            Files.createDirectories(thumbnailPath.getParent());
+        } catch (IOException e) {
+            throw new FileStorageException("无法创建缩略图目录", e);
         }
+        ImageUtils.createThumbnail(
+            sourceFile, 
+            thumbnailFile,
+            storageProperties.getThumbnail().getWidth(),
+            storageProperties.getThumbnail().getHeight()
+        );
+        imageByteCache.invalidate(thumbnailPath);
+        
+        log.debug("缩略图创建成功: {}", thumbnailFilename);
+        return thumbnailPath.toString();
     }
     
     /**
-     * 压缩图片
+     * 生成缩略图并写入打包存储
      */
-    public void compressImage(File file) {
-        try {
-            ImageUtils.compressImage(
-                file,
-                storageProperties.getCompression().getQuality(),
-                storageProperties.getCompression().getMaxWidth(),
-                storageProperties.getCompression().getMaxHeight()
-            );
-            log.debug("图片压缩成功: {}", file.getName());
-        } catch (Exception e) {
-            log.error("图片压缩失败: {}", e.getMessage());
-            // 压缩失败不影响整体流程
-        }
+    private String createPackedThumbnail(File sourceFile, String filename) {
+        byte[] thumbnail = ImageUtils.createThumbnail(
+            sourceFile,
+            FileUtils.getFileExtension(filename),
+            storageProperties.getThumbnail().getWidth(),
+            storageProperties.getThumbnail().getHeight()
+        );
+        packedThumbnailStore.put(filename, thumbnail);
+        
+        log.debug("缩略图写入打包存储: {}, {} 字节", filename, thumbnail.length);
+        return packedThumbnailStore.describe(filename);
     }
     
     /**
@@ -187,8 +529,8 @@ public class FileStorageService {
      */
     public void deleteFile(String filename) {
         try {
-            Path filePath = baseLocation.resolve(filename).normalize();
-            Files.deleteIfExists(filePath);
+            Files.deleteIfExists(getShardedFilePath(filename));
+            Files.deleteIfExists(checkedPath(baseLocation, filename));
             log.info("文件删除成功: {}", filename);
         } catch (IOException e) {
             log.error("文件删除失败: {}", e.getMessage());
@@ -200,10 +542,15 @@ public class FileStorageService {
      * 删除缩略图
      */
     public void deleteThumbnail(String filename) {
+        packedThumbnailStore.delete(filename);
         try {
             String thumbnailFilename = "thumb_" + filename;
-            Path thumbnailPath = thumbnailLocation.resolve(thumbnailFilename).normalize();
-            Files.deleteIfExists(thumbnailPath);
+            Path shardedPath = getShardedThumbnailPath(filename);
+            Path flatPath = checkedPath(thumbnailLocation, thumbnailFilename);
+            Files.deleteIfExists(shardedPath);
+            Files.deleteIfExists(flatPath);
+            imageByteCache.invalidate(shardedPath);
+            imageByteCache.invalidate(flatPath);
             log.info("缩略图删除成功: {}", thumbnailFilename);
         } catch (IOException e) {
             log.error("缩略图删除失败: {}", e.getMessage());
@@ -215,43 +562,13 @@ public class FileStorageService {
      */
     public byte[] readFileContent(String filename) {
         try {
-            Path filePath = baseLocation.resolve(filename).normalize();
-            return Files.readAllBytes(filePath);
-        } catch (IOException e) {
-            log.error("读取文件失败: {}", e.getMessage());
-            throw new FileStorageException("读取文件失败: " + filename, e);
-        }
-    }
-    
-    /**
-     * 读取文件部分内容(支持断点续传)
-     */
-    public byte[] readFileRange(String filename, long start, long end) {
-        try {
-            Path filePath = baseLocation.resolve(filename).normalize();
-            File file = filePath.toFile();
-            
-            long fileSize = file.length();
-            if (start >= fileSize) {
-                throw new FileStorageException("起始位置超出文件大小");
-            }
-            
-            // 调整结束位置
-            if (end >= fileSize) {
-                end = fileSize - 1;
+            try {
+                return Files.readAllBytes(resolveFile(filename));
+            } catch (NoSuchFileException e) {
+                return Files.readAllBytes(resolveFile(filename));
             }
-            
-            int length = (int) (end - start + 1);
-            byte[] buffer = new byte[length];
-            
-            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-                raf.seek(start);
-                raf.readFully(buffer);
-            }
-            
-            return buffer;
         } catch (IOException e) {
-            log.error("读取文件范围失败: {}", e.getMessage());
+            log.error("读取文件失败: {}", e.getMessage());
             throw new FileStorageException("读取文件失败: " + filename, e);
         }
     }
@@ -261,8 +578,11 @@ public class FileStorageService {
      */
     public long getFileSize(String filename) {
         try {
-            Path filePath = baseLocation.resolve(filename).normalize();
-            return Files.size(filePath);
+            try {
+                return Files.size(resolveFile(filename));
+            } catch (NoSuchFileException e) {
+                return Files.size(resolveFile(filename));
+            }
         } catch (IOException e) {
             log.error("获取文件大小失败: {}", e.getMessage());
             throw new FileStorageException("获取文件大小失败: " + filename, e);
@@ -273,8 +593,18 @@ public class FileStorageService {
      * 检查文件是否存在
      */
     public boolean fileExists(String filename) {
-        Path filePath = baseLocation.resolve(filename).normalize();
-        return Files.exists(filePath);
+        return Files.exists(resolveFile(filename));
+    }
+    
+    /**
+     * 删除文件(忽略异常)
+     */
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("删除临时文件失败: {}", path, e);
+        }
     }
     
     /**
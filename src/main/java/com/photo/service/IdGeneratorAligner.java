@@ -0,0 +1,57 @@
+package com.photo.service;
+
+import com.photo.entity.Photo;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * ID号段校准
+ * 主键由自增列改为号段表分配后，已有数据库中的号段从1开始，会与已有记录冲突。
+ * 启动时(表结构更新后、处理请求前)把各表的号段推进到已有最大ID之后；新数据库不做处理
+ */
+@Slf4j
+@Service
+@DependsOn("entityManagerFactory")
+public class IdGeneratorAligner {
+
+    /**
+     * 使用号段表分配ID的表(同时是号段表中的名称)
+     */
+    private static final List<String> TABLES = List.of("photos", "photo_blobs");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void init() {
+        for (String table : TABLES) {
+            align(table);
+        }
+    }
+
+    private void align(String table) {
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM " + table, Long.class);
+        if (maxId == null) {
+            return;
+        }
+        // 号段表中的值是下一个号段的上界，已分配的ID不超过 next_val - 号段大小
+        long required = maxId + Photo.ID_ALLOCATION_SIZE + 1;
+        List<Long> current = jdbcTemplate.queryForList(
+            "SELECT next_val FROM id_generators WHERE name = ?", Long.class, table);
+        if (current.isEmpty()) {
+            jdbcTemplate.update("INSERT INTO id_generators (name, next_val) VALUES (?, ?)", table, required);
+        } else if (current.get(0) < required) {
+            jdbcTemplate.update("UPDATE id_generators SET next_val = ? WHERE name = ? AND next_val < ?",
+                required, table, required);
+        } else {
+            return;
+        }
+        log.info("ID号段已校准: 表={}, 已有最大ID={}, 号段起点={}", table, maxId, required);
+    }
+}
@@ -0,0 +1,111 @@
+package com.photo.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.photo.config.FileStorageProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 图片内容缓存
+ * 缓存缩略图文件和小尺寸图片的编码后内容，按字节数限制容量；内容存放在堆外直接内存中，不增加GC压力。
+ * 使用Caffeine的W-TinyLFU准入策略，偶发的一次性访问不会挤掉反复访问的热点图片
+ */
+@Slf4j
+@Service
+public class ImageByteCache {
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, ByteBuffer> cache;
+
+    @PostConstruct
+    public void init() {
+        FileStorageProperties.ByteCacheConfig config = storageProperties.getByteCache();
+        cache = Caffeine.newBuilder()
+            .maximumWeight(config.getMaxSize() * 1024 * 1024)
+            .weigher((String key, ByteBuffer value) -> value.capacity())
+            .recordStats()
+            .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "imageBytes");
+        Gauge.builder("photo.image.cache.bytes", cache,
+                c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L))
+            .description("图片内容缓存占用的字节数")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("photo.image.cache.hit.ratio", cache, c -> c.stats().hitRate())
+            .description("图片内容缓存命中率")
+            .register(meterRegistry);
+        log.info("图片内容缓存: 启用={}, 容量={}MB, 单个上限={}字节",
+            config.getEnabled(), config.getMaxSize(), config.getMaxEntrySize());
+    }
+
+    /**
+     * 获取文件内容，未缓存时读取并缓存
+     *
+     * @return 只读缓冲区；缓存关闭、文件超过单个上限或不存在时返回null，由调用方直接读取文件
+     */
+    public ByteBuffer get(Path path) {
+        if (!storageProperties.getByteCache().getEnabled()) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = cache.get(path.toString(), key -> load(path));
+            return buffer == null ? null : buffer.asReadOnlyBuffer();
+        } catch (UncheckedIOException e) {
+            log.warn("读取图片内容失败: {}, 原因={}", path, e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 文件被替换或删除时移除缓存
+     */
+    public void invalidate(Path path) {
+        cache.invalidate(path.toString());
+    }
+
+    /**
+     * 读取到直接内存
+     *
+     * @return 文件超过单个上限或不存在时返回null(不缓存)
+     */
+    private ByteBuffer load(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > storageProperties.getByteCache().getMaxEntrySize()) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    // 文件在读取过程中被截断
+                    return null;
+                }
+            }
+            return buffer.flip();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.dto.ReconcileStatus;
+import com.photo.util.FingerprintSet;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 孤立文件核对
+ * 按ID分批读取数据库中的内容文件名，只保存指纹(每个约8字节)，再用多线程并行遍历原图目录和缩略图目录：
+ * 没有对应记录的文件按配置报告、移入隔离目录或删除；遍历时标记已找到的文件，最后再分批读取照片记录，
+ * 报告文件缺失的照片。修改时间较新的文件可能属于进行中的上传，不处理。
+ */
+@Slf4j
+@Service
+public class OrphanReconciler {
+
+    private static final String COUNT_KNOWN_SQL =
+        "SELECT (SELECT COUNT(*) FROM photo_blobs) + (SELECT COUNT(*) FROM photos WHERE blob_filename IS NULL)";
+
+    private static final String SELECT_BLOBS_SQL =
+        "SELECT id, stored_filename FROM photo_blobs WHERE id > ? ORDER BY id LIMIT ?";
+
+    private static final String SELECT_LEGACY_FILES_SQL =
+        "SELECT id, stored_filename FROM photos WHERE blob_filename IS NULL AND id > ? ORDER BY id LIMIT ?";
+
+    private static final String SELECT_PHOTOS_SQL =
+        "SELECT id, stored_filename, blob_filename FROM photos WHERE created_at < ? AND id > ? ORDER BY id LIMIT ?";
+
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    private static final String THUMBNAIL_PREFIX = "thumb_";
+
+    private static final String ACTION_REPORT = "report";
+
+    private static final String ACTION_DELETE = "delete";
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    private BlobService blobService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    @Qualifier("maintenanceExecutor")
+    private Executor maintenanceExecutor;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final AtomicLong knownFiles = new AtomicLong();
+
+    private final AtomicLong scannedFiles = new AtomicLong();
+
+    private final AtomicLong scannedThumbnails = new AtomicLong();
+
+    private final AtomicLong orphanFiles = new AtomicLong();
+
+    private final AtomicLong orphanThumbnails = new AtomicLong();
+
+    private final AtomicLong handledOrphans = new AtomicLong();
+
+    private final AtomicLong skippedRecent = new AtomicLong();
+
+    private final AtomicLong missingFiles = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile List<Long> missingPhotoIds = Collections.emptyList();
+
+    private volatile String action;
+
+    private volatile LocalDateTime startedAt;
+
+    private volatile LocalDateTime finishedAt;
+
+    /**
+     * 按配置定时核对
+     */
+    @Scheduled(cron = "${file.storage.reconcile.cron:-}")
+    public void scheduledReconcile() {
+        start();
+    }
+
+    /**
+     * 在后台启动核对(已在运行时不重复启动)
+     */
+    public ReconcileStatus start() {
+        if (running.compareAndSet(false, true)) {
+            knownFiles.set(0);
+            scannedFiles.set(0);
+            scannedThumbnails.set(0);
+            orphanFiles.set(0);
+            orphanThumbnails.set(0);
+            handledOrphans.set(0);
+            skippedRecent.set(0);
+            missingFiles.set(0);
+            failed.set(0);
+            missingPhotoIds = Collections.emptyList();
+            action = storageProperties.getReconcile().getAction();
+            startedAt = LocalDateTime.now();
+            finishedAt = null;
+            try {
+                maintenanceExecutor.execute(this::reconcile);
+            } catch (RuntimeException e) {
+                running.set(false);
+                throw e;
+            }
+        }
+        return getStatus();
+    }
+
+    /**
+     * 当前核对状态
+     */
+    public ReconcileStatus getStatus() {
+        return ReconcileStatus.builder()
+            .running(running.get())
+            .action(action)
+            .knownFiles(knownFiles.get())
+            .scannedFiles(scannedFiles.get())
+            .scannedThumbnails(scannedThumbnails.get())
+            .orphanFiles(orphanFiles.get())
+            .orphanThumbnails(orphanThumbnails.get())
+            .handledOrphans(handledOrphans.get())
+            .skippedRecent(skippedRecent.get())
+            .missingFiles(missingFiles.get())
+            .missingPhotoIds(missingPhotoIds)
+            .failed(failed.get())
+            .startedAt(startedAt)
+            .finishedAt(finishedAt)
+            .build();
+    }
+
+    private void reconcile() {
+        FileStorageProperties.ReconcileConfig config = storageProperties.getReconcile();
+        log.info("开始核对存储文件: 处理方式={}", action);
+        // 在读取文件名之前确定时间点，之后创建的记录和文件都不参与核对
+        LocalDateTime scanStart = LocalDateTime.now();
+        long orphanCutoff = System.currentTimeMillis() - config.getMinOrphanAge();
+        ForkJoinPool pool = new ForkJoinPool(config.getThreads());
+        try {
+            FingerprintSet known = loadKnownFiles();
+            knownFiles.set(known.size());
+            log.info("已加载内容文件名: {}", known.size());
+
+            Path baseLocation = fileStorageService.getBaseLocation();
+            Path thumbnailLocation = fileStorageService.getThumbnailLocation();
+            Path quarantineLocation = Paths.get(config.getQuarantinePath()).toAbsolutePath().normalize();
+            Set<Path> excluded = excludedDirectories(quarantineLocation);
+
+            pool.invoke(new ScanTask(baseLocation, excluded, path -> {
+                scannedFiles.incrementAndGet();
+                if (!known.markSeen(path.getFileName().toString())) {
+                    handleOrphan(path, path.getFileName().toString(), baseLocation, quarantineLocation.resolve("files"),
+                        orphanCutoff, orphanFiles);
+                }
+            }));
+            pool.invoke(new ScanTask(thumbnailLocation, excluded, path -> {
+                scannedThumbnails.incrementAndGet();
+                String name = path.getFileName().toString();
+                if (!name.startsWith(THUMBNAIL_PREFIX)) {
+                    return;
+                }
+                String filename = name.substring(THUMBNAIL_PREFIX.length());
+                if (!known.contains(filename)) {
+                    handleOrphan(path, filename, thumbnailLocation, quarantineLocation.resolve("thumbnails"),
+                        orphanCutoff, orphanThumbnails);
+                }
+            }));
+
+            findMissingFiles(known, scanStart, config.getMaxReportedMissing());
+            log.info("存储文件核对完成: 原图={}, 缩略图={}, 孤立原图={}, 孤立缩略图={}, 已处理={}, 暂不处理={}, 缺失文件={}, 失败={}",
+                scannedFiles.get(), scannedThumbnails.get(), orphanFiles.get(), orphanThumbnails.get(),
+                handledOrphans.get(), skippedRecent.get(), missingFiles.get(), failed.get());
+        } catch (Exception e) {
+            log.error("存储文件核对中断", e);
+        } finally {
+            pool.shutdown();
+            finishedAt = LocalDateTime.now();
+            running.set(false);
+        }
+    }
+
+    /**
+     * 按ID分批读取内容文件名(共享内容和未使用内容寻址的历史照片)
+     */
+    private FingerprintSet loadKnownFiles() {
+        Long expected = jdbcTemplate.queryForObject(COUNT_KNOWN_SQL, Long.class);
+        FingerprintSet known = new FingerprintSet(expected != null ? expected : 0);
+        for (String sql : new String[]{SELECT_BLOBS_SQL, SELECT_LEGACY_FILES_SQL}) {
+            long[] lastId = {0};
+            int[] count = new int[1];
+            do {
+                count[0] = 0;
+                jdbcTemplate.query(sql, rs -> {
+                    lastId[0] = rs.getLong("id");
+                    known.add(rs.getString("stored_filename"));
+                    count[0]++;
+                }, lastId[0], LOAD_BATCH_SIZE);
+            } while (count[0] == LOAD_BATCH_SIZE);
+        }
+        return known;
+    }
+
+    /**
+     * 分批读取照片记录，找出原图文件未在扫描中出现的照片
+     */
+    private void findMissingFiles(FingerprintSet known, LocalDateTime scanStart, int maxReported) {
+        List<Long> missing = new ArrayList<>();
+        long[] lastId = {0};
+        int[] count = new int[1];
+        do {
+            count[0] = 0;
+            jdbcTemplate.query(SELECT_PHOTOS_SQL, rs -> {
+                long id = rs.getLong("id");
+                String blobFilename = rs.getString("blob_filename");
+                String storageFilename = blobFilename != null ? blobFilename : rs.getString("stored_filename");
+                if (!known.isSeen(storageFilename)) {
+                    missingFiles.incrementAndGet();
+                    if (missing.size() < maxReported) {
+                        missing.add(id);
+                        log.warn("照片文件缺失: ID={}, 文件={}", id, storageFilename);
+                    }
+                }
+                lastId[0] = id;
+                count[0]++;
+            }, Timestamp.valueOf(scanStart), lastId[0], LOAD_BATCH_SIZE);
+        } while (count[0] == LOAD_BATCH_SIZE);
+        missingPhotoIds = Collections.unmodifiableList(missing);
+    }
+
+    /**
+     * 按配置报告、隔离或删除孤立文件，隔离时在隔离目录中保留相对路径
+     * 读取文件名后相同内容可能已被重新上传，隔离和删除在内容锁下重新确认记录不存在后执行
+     *
+     * @param filename 文件对应的内容文件名
+     */
+    private void handleOrphan(Path path, String filename, Path root, Path quarantineRoot, long orphanCutoff,
+                              AtomicLong counter) {
+        try {
+            if (Files.getLastModifiedTime(path).toMillis() > orphanCutoff) {
+                skippedRecent.incrementAndGet();
+                return;
+            }
+            if (ACTION_REPORT.equals(action)) {
+                counter.incrementAndGet();
+                log.info("发现孤立文件: {}", path);
+                return;
+            }
+            boolean handled = blobService.handleOrphanedFile(filename, () -> {
+                if (ACTION_DELETE.equals(action)) {
+                    Files.deleteIfExists(path);
+                    log.info("已删除孤立文件: {}", path);
+                } else {
+                    Path target = quarantineRoot.resolve(root.relativize(path)).normalize();
+                    Files.createDirectories(target.getParent());
+                    try {
+                        Files.move(path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        // 隔离目录在其他文件系统上
+                        Files.move(path, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    log.info("已隔离孤立文件: {} -> {}", path, target);
+                }
+            });
+            if (handled) {
+                counter.incrementAndGet();
+                handledOrphans.incrementAndGet();
+            } else {
+                log.info("文件已被重新上传，不再处理: {}", path);
+            }
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            log.warn("处理孤立文件失败: {}, 原因={}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * 原图目录下不参与核对的目录(默认配置中临时、缩略图等目录都位于原图目录下)
+     */
+    private Set<Path> excludedDirectories(Path quarantineLocation) {
+        Set<Path> excluded = new HashSet<>();
+        for (String path : new String[]{storageProperties.getTempPath(), storageProperties.getThumbnailPath(),
+                storageProperties.getRenditionPath(), storageProperties.getPackPath()}) {
+            excluded.add(Paths.get(path).toAbsolutePath().normalize());
+        }
+        excluded.add(quarantineLocation);
+        return excluded;
+    }
+
+    /**
+     * 并行遍历目录，每个子目录作为一个子任务
+     */
+    private class ScanTask extends RecursiveAction {
+
+        private final Path directory;
+
+        private final Set<Path> excluded;
+
+        private final Consumer<Path> visitor;
+
+        private ScanTask(Path directory, Set<Path> excluded, Consumer<Path> visitor) {
+            this.directory = directory;
+            this.excluded = excluded;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            List<ScanTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        if (!excluded.contains(path)) {
+                            subtasks.add(new ScanTask(path, excluded, visitor));
+                        }
+                    } else if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                        visitor.accept(path);
+                    }
+                }
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                log.warn("读取目录失败: {}, 原因={}", directory, e.getMessage());
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
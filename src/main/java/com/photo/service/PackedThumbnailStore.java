@@ -0,0 +1,613 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.exception.FileStorageException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+/**
+ * 缩略图打包存储
+ * 小文件依次追加写入卷文件(thumbnails-000001.pack)，内存中保存 键 -> (卷, 偏移, 长度) 索引，
+ * 读取时直接从内存映射的卷中切片，不再逐个打开文件；删除写入删除标记，由后台压缩回收空间。
+ * 启动时按卷顺序扫描重建索引，末尾未写完整的记录(校验失败)会被截断。
+ * 写入在返回前刷盘(调用方随后把照片标记为衍生图已生成)，刷盘在写入锁外进行，并发写入合并为一次刷盘；
+ * 删除标记不等待刷盘，断电丢失时只会恢复已删除内容的缩略图。
+ *
+ * 记录格式: magic(4) 类型(1) 键长度(2) 数据长度(4) CRC32(4) 键 数据
+ */
+@Slf4j
+@Service
+public class PackedThumbnailStore {
+
+    private static final int RECORD_MAGIC = 0x50484B31;
+
+    private static final int HEADER_SIZE = 15;
+
+    private static final byte TYPE_PUT = 1;
+
+    private static final byte TYPE_DELETE = 2;
+
+    private static final int MAX_KEY_LENGTH = 1024;
+
+    private static final String VOLUME_PREFIX = "thumbnails-";
+
+    private static final String VOLUME_SUFFIX = ".pack";
+
+    /**
+     * 卷按固定大小分块映射，每个写满的分块只映射一次
+     */
+    private static final int MAP_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    @Qualifier("maintenanceExecutor")
+    private Executor maintenanceExecutor;
+
+    private Path packLocation;
+
+    /**
+     * 键 -> 数据位置
+     */
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+
+    /**
+     * 卷编号 -> 卷
+     */
+    private final ConcurrentSkipListMap<Integer, Volume> volumes = new ConcurrentSkipListMap<>();
+
+    /**
+     * 写入锁，追加写入和索引更新串行执行，保证卷中记录顺序与索引一致
+     */
+    private final Object writeLock = new Object();
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private volatile Volume activeVolume;
+
+    @PostConstruct
+    public void init() {
+        try {
+            packLocation = Paths.get(storageProperties.getPackPath()).toAbsolutePath().normalize();
+            Files.createDirectories(packLocation);
+
+            TreeMap<Integer, Path> files = new TreeMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(packLocation,
+                    VOLUME_PREFIX + "*" + VOLUME_SUFFIX)) {
+                for (Path path : stream) {
+                    Integer id = parseVolumeId(path.getFileName().toString());
+                    if (id != null) {
+                        files.put(id, path);
+                    }
+                }
+            }
+            for (Map.Entry<Integer, Path> file : files.entrySet()) {
+                Volume volume = new Volume(file.getKey(), file.getValue());
+                volumes.put(volume.id, volume);
+                load(volume);
+            }
+            activeVolume = volumes.isEmpty() ? createVolume(1) : volumes.lastEntry().getValue();
+            volumes.headMap(activeVolume.id).values().forEach(volume -> volume.sealed = true);
+            log.info("缩略图打包存储: {}, {}个卷, {}个条目", packLocation, volumes.size(), index.size());
+        } catch (IOException e) {
+            throw new FileStorageException("无法初始化缩略图打包存储", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        Volume active = activeVolume;
+        if (active != null) {
+            try {
+                active.force();
+            } catch (IOException e) {
+                log.warn("卷刷盘失败: {}, 原因={}", active.path, e.getMessage());
+            }
+        }
+        for (Volume volume : volumes.values()) {
+            volume.closeQuietly();
+        }
+    }
+
+    /**
+     * 写入数据，已存在时覆盖；返回时数据已刷盘
+     */
+    public void put(String key, byte[] data) {
+        byte[] keyBytes = encodeKey(key);
+        Entry entry;
+        Volume volume;
+        synchronized (writeLock) {
+            try {
+                entry = append(TYPE_PUT, keyBytes, data);
+                volume = activeVolume;
+                markDead(index.put(key, entry));
+            } catch (IOException e) {
+                throw new FileStorageException("写入打包存储失败: " + key, e);
+            }
+        }
+        try {
+            volume.syncTo(entry.offset + entry.length);
+        } catch (IOException e) {
+            throw new FileStorageException("写入打包存储失败: " + key, e);
+        }
+    }
+
+    /**
+     * 读取数据
+     *
+     * @return 只读的内存映射切片(活动卷末尾的数据为复制的只读缓冲区)，不存在时返回null
+     */
+    public ByteBuffer get(String key) {
+        // 压缩可能在查找和读取之间移走条目，重新查找一次
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Entry entry = index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            Volume volume = volumes.get(entry.volumeId);
+            if (volume == null) {
+                continue;
+            }
+            try {
+                return volume.slice(entry.offset, entry.length);
+            } catch (IOException e) {
+                if (!volumes.containsKey(entry.volumeId)) {
+                    // 卷已被压缩删除
+                    continue;
+                }
+                throw new FileStorageException("读取打包存储失败: " + key, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 是否存在
+     */
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * 删除数据，写入删除标记
+     */
+    public void delete(String key) {
+        byte[] keyBytes = encodeKey(key);
+        synchronized (writeLock) {
+            Entry entry = index.get(key);
+            if (entry == null) {
+                return;
+            }
+            try {
+                Entry tombstone = append(TYPE_DELETE, keyBytes, new byte[0]);
+                index.remove(key);
+                markDead(entry);
+                markDead(tombstone);
+            } catch (IOException e) {
+                throw new FileStorageException("删除打包存储条目失败: " + key, e);
+            }
+        }
+    }
+
+    /**
+     * 数据所在位置的描述(用于记录)
+     */
+    public String describe(String key) {
+        return "pack:" + key;
+    }
+
+    /**
+     * 条目数
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * 定期检查并在后台压缩
+     */
+    @Scheduled(fixedDelayString = "${file.storage.pack.compact-interval:3600000}",
+        initialDelayString = "${file.storage.pack.compact-interval:3600000}")
+    public void scheduleCompaction() {
+        if (compacting.compareAndSet(false, true)) {
+            try {
+                maintenanceExecutor.execute(() -> {
+                    try {
+                        compact();
+                    } finally {
+                        compacting.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                compacting.set(false);
+                log.debug("维护线程繁忙，跳过本次压缩");
+            }
+        }
+    }
+
+    /**
+     * 压缩失效数据占比超过阈值的非活动卷：将仍有效的条目复制到活动卷后删除该卷
+     *
+     * @return 压缩的卷数
+     */
+    public int compact() {
+        double threshold = storageProperties.getPack().getCompactThreshold();
+        int compacted = 0;
+        for (Volume volume : new ArrayList<>(volumes.values())) {
+            if (volume == activeVolume || volume.size() == 0
+                    || (double) volume.deadBytes.get() / volume.size() < threshold) {
+                continue;
+            }
+            try {
+                compactVolume(volume);
+                compacted++;
+            } catch (IOException e) {
+                log.error("压缩卷失败: {}", volume.path, e);
+            }
+        }
+        return compacted;
+    }
+
+    private void compactVolume(Volume volume) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long before = volume.size();
+        boolean olderVolumeExists = volumes.firstKey() < volume.id;
+        int copied = 0;
+
+        long position = 0;
+        long size = volume.size();
+        while (position < size) {
+            Record record = readRecord(volume, position, size);
+            if (record == null) {
+                break;
+            }
+            synchronized (writeLock) {
+                Entry current = index.get(record.key);
+                if (record.type == TYPE_PUT) {
+                    // 仅复制仍指向本记录的条目
+                    if (current != null && current.volumeId == volume.id && current.offset == record.dataOffset) {
+                        byte[] data = new byte[record.dataLength];
+                        volume.slice(record.dataOffset, record.dataLength).get(data);
+                        index.put(record.key, append(TYPE_PUT, encodeKey(record.key), data));
+                        copied++;
+                    }
+                } else if (current == null && olderVolumeExists) {
+                    // 更早的卷中可能还有该键的数据，保留删除标记，避免重启后恢复已删除的条目
+                    markDead(append(TYPE_DELETE, encodeKey(record.key), new byte[0]));
+                }
+            }
+            position = record.nextOffset;
+        }
+
+        synchronized (writeLock) {
+            activeVolume.force();
+            volumes.remove(volume.id);
+        }
+        // 已取得的映射切片在文件删除后仍可读
+        volume.closeQuietly();
+        Files.deleteIfExists(volume.path);
+        log.info("卷压缩完成: {}, 复制{}个条目, 回收{}字节, 耗时={}ms",
+            volume.path.getFileName(), copied, before, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 追加一条记录(调用方持有写入锁)
+     */
+    private Entry append(byte type, byte[] keyBytes, byte[] data) throws IOException {
+        int recordSize = HEADER_SIZE + keyBytes.length + data.length;
+        Volume volume = activeVolume;
+        // 卷的分块映射数组按2GB分配
+        long maxVolumeSize = Math.min(storageProperties.getPack().getVolumeSize(), Integer.MAX_VALUE);
+        if (volume.size() > 0 && volume.size() + recordSize > maxVolumeSize) {
+            volume.force();
+            volume.sealed = true;
+            volume = createVolume(volume.id + 1);
+            activeVolume = volume;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(keyBytes);
+        crc.update(data);
+
+        ByteBuffer buffer = ByteBuffer.allocate(recordSize);
+        buffer.putInt(RECORD_MAGIC)
+            .put(type)
+            .putShort((short) keyBytes.length)
+            .putInt(data.length)
+            .putInt((int) crc.getValue())
+            .put(keyBytes)
+            .put(data)
+            .flip();
+
+        long offset = volume.size();
+        while (buffer.hasRemaining()) {
+            volume.channel.write(buffer, offset + buffer.position());
+        }
+        // 在写入锁外刷盘，见 put()
+        volume.written.set(offset + recordSize);
+        return new Entry(volume.id, offset + HEADER_SIZE + keyBytes.length, data.length, recordSize);
+    }
+
+    /**
+     * 扫描卷重建索引，截断末尾不完整的记录
+     */
+    private void load(Volume volume) throws IOException {
+        long fileSize = volume.channel.size();
+        long position = 0;
+        while (position < fileSize) {
+            Record record = readRecord(volume, position, fileSize);
+            if (record == null) {
+                log.warn("卷末尾记录不完整，截断: {}, 位置={}", volume.path, position);
+                volume.channel.truncate(position);
+                break;
+            }
+            Entry entry = new Entry(volume.id, record.dataOffset, record.dataLength,
+                (int) (record.nextOffset - position));
+            if (record.type == TYPE_PUT) {
+                markDead(index.put(record.key, entry));
+            } else {
+                markDead(index.remove(record.key));
+                markDead(entry);
+            }
+            position = record.nextOffset;
+        }
+        volume.written.set(position);
+        volume.synced.set(position);
+    }
+
+    /**
+     * 读取并校验一条记录
+     *
+     * @return 记录不完整或校验失败时返回null
+     */
+    private Record readRecord(Volume volume, long position, long limit) throws IOException {
+        if (limit - position < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(volume.channel, header, position);
+        header.flip();
+        if (header.getInt() != RECORD_MAGIC) {
+            return null;
+        }
+        byte type = header.get();
+        int keyLength = header.getShort() & 0xFFFF;
+        int dataLength = header.getInt();
+        int checksum = header.getInt();
+        if ((type != TYPE_PUT && type != TYPE_DELETE) || keyLength == 0 || dataLength < 0
+                || position + HEADER_SIZE + keyLength + dataLength > limit) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(keyLength + dataLength);
+        readFully(volume.channel, body, position + HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(body.array());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+
+        String key = new String(body.array(), 0, keyLength, StandardCharsets.UTF_8);
+        long dataOffset = position + HEADER_SIZE + keyLength;
+        return new Record(type, key, dataOffset, dataLength, dataOffset + dataLength);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("卷文件被截断");
+            }
+        }
+    }
+
+    private void markDead(Entry entry) {
+        if (entry != null) {
+            Volume volume = volumes.get(entry.volumeId);
+            if (volume != null) {
+                volume.deadBytes.addAndGet(entry.recordSize);
+            }
+        }
+    }
+
+    private Volume createVolume(int id) throws IOException {
+        Path path = packLocation.resolve(String.format("%s%06d%s", VOLUME_PREFIX, id, VOLUME_SUFFIX));
+        Volume volume = new Volume(id, path);
+        volumes.put(id, volume);
+        log.info("创建缩略图卷: {}", path.getFileName());
+        return volume;
+    }
+
+    private static Integer parseVolumeId(String name) {
+        try {
+            return Integer.parseInt(name.substring(VOLUME_PREFIX.length(), name.length() - VOLUME_SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encodeKey(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length == 0 || keyBytes.length > MAX_KEY_LENGTH) {
+            throw new FileStorageException("非法的存储键: " + key);
+        }
+        return keyBytes;
+    }
+
+    /**
+     * 卷文件；按固定大小分块映射，只映射已写满的分块(已切换的卷包括末尾不满的分块)，
+     * 映射后不再变化，活动卷末尾尚未写满的分块直接从文件读取
+     */
+    private static final class Volume {
+
+        private final int id;
+
+        private final Path path;
+
+        private final FileChannel channel;
+
+        /**
+         * 已写入的有效长度
+         */
+        private final AtomicLong written = new AtomicLong();
+
+        /**
+         * 已失效的记录字节数(被覆盖、删除的数据及删除标记)
+         */
+        private final AtomicLong deadBytes = new AtomicLong();
+
+        private final AtomicReferenceArray<MappedByteBuffer> chunks =
+            new AtomicReferenceArray<>(Integer.MAX_VALUE / MAP_CHUNK_SIZE + 1);
+
+        /**
+         * 已写满切换，不再追加
+         */
+        private volatile boolean sealed;
+
+        /**
+         * 已刷盘的长度
+         */
+        private final AtomicLong synced = new AtomicLong();
+
+        private final Object syncLock = new Object();
+
+        private Volume(int id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        }
+
+        private long size() {
+            return written.get();
+        }
+
+        private ByteBuffer slice(long offset, int length) throws IOException {
+            int chunk = (int) (offset / MAP_CHUNK_SIZE);
+            long chunkStart = (long) chunk * MAP_CHUNK_SIZE;
+            long chunkLength = Math.min(MAP_CHUNK_SIZE, written.get() - chunkStart);
+            if (offset + length > chunkStart + chunkLength || (chunkLength < MAP_CHUNK_SIZE && !sealed)) {
+                // 跨越分块边界，或位于活动卷末尾尚未写满的分块
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                readFully(channel, buffer, offset);
+                return buffer.flip().asReadOnlyBuffer();
+            }
+            MappedByteBuffer buffer = chunks.get(chunk);
+            if (buffer == null) {
+                synchronized (this) {
+                    buffer = chunks.get(chunk);
+                    if (buffer == null) {
+                        buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkLength);
+                        chunks.set(chunk, buffer);
+                    }
+                }
+            }
+            return buffer.slice((int) (offset - chunkStart), length).asReadOnlyBuffer();
+        }
+
+        private void force() throws IOException {
+            syncTo(written.get());
+        }
+
+        /**
+         * 确保指定位置之前的数据已刷盘
+         * 一次刷盘覆盖开始时已写入的全部数据，等待中的写入在刷盘完成后直接返回
+         */
+        private void syncTo(long position) throws IOException {
+            if (synced.get() >= position) {
+                return;
+            }
+            synchronized (syncLock) {
+                if (synced.get() >= position) {
+                    return;
+                }
+                long target = written.get();
+                channel.force(false);
+                synced.set(target);
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("关闭卷失败: {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * 索引条目
+     */
+    private static final class Entry {
+
+        private final int volumeId;
+
+        private final long offset;
+
+        private final int length;
+
+        private final int recordSize;
+
+        private Entry(int volumeId, long offset, int length, int recordSize) {
+            this.volumeId = volumeId;
+            this.offset = offset;
+            this.length = length;
+            this.recordSize = recordSize;
+        }
+    }
+
+    /**
+     * 扫描时读取的记录
+     */
+    private static final class Record {
+
+        private final byte type;
+
+        private final String key;
+
+        private final long dataOffset;
+
+        private final int dataLength;
+
+        private final long nextOffset;
+
+        private Record(byte type, String key, long dataOffset, int dataLength, long nextOffset) {
+            this.type = type;
+            this.key = key;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.nextOffset = nextOffset;
+        }
+    }
+}
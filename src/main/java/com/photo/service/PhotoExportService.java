@@ -0,0 +1,145 @@
+package com.photo.service;
+
+import com.photo.util.StreamingZipWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 照片库导出
+ * 接口不校验调用方身份，只导出公开照片。按(上传时间, ID)分批读取用户照片的文件信息，逐个写入流式ZIP：
+ * 不加载照片实体，也不生成中间文件，内存占用与照片数量和总大小无关。已压缩的图片格式原样存储，其他格式压缩存储。
+ */
+@Slf4j
+@Service
+public class PhotoExportService {
+
+    private static final int PAGE_SIZE = 500;
+
+    private static final String COLUMNS =
+        "SELECT id, original_filename, stored_filename, blob_filename, extension, created_at FROM photos ";
+
+    private static final String SELECT_FIRST_SQL = COLUMNS
+        + "WHERE user_id = ? AND deleted = FALSE AND is_public = TRUE ORDER BY created_at, id LIMIT ?";
+
+    private static final String SELECT_NEXT_SQL = COLUMNS
+        + "WHERE user_id = ? AND deleted = FALSE AND is_public = TRUE "
+        + "AND (created_at > ? OR (created_at = ? AND id > ?)) "
+        + "ORDER BY created_at, id LIMIT ?";
+
+    /**
+     * 已压缩、再次压缩基本没有收益的格式
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "webp");
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * 把用户的全部公开照片写入ZIP输出流(不关闭输出流)
+     *
+     * @return 写入的照片数
+     */
+    public long exportUserPhotos(String userId, OutputStream outputStream) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long skipped = 0;
+        Path spoolFile = Files.createTempFile(fileStorageService.getTempLocation(), "export-", ".cd");
+        try (StreamingZipWriter zip = new StreamingZipWriter(outputStream, spoolFile)) {
+            List<ExportEntry> page = loadPage(userId, null);
+            while (!page.isEmpty()) {
+                for (ExportEntry entry : page) {
+                    try {
+                        putFile(zip, entry);
+                    } catch (NoSuchFileException e) {
+                        skipped++;
+                        log.warn("导出时照片文件缺失，已跳过: ID={}, 文件={}", entry.id, entry.storageFilename);
+                    }
+                }
+                page = page.size() < PAGE_SIZE ? List.of() : loadPage(userId, page.get(page.size() - 1));
+            }
+            zip.finish();
+            log.info("照片库导出完成: 用户={}, 照片数={}, 跳过={}, 大小={}字节, 耗时={}ms",
+                userId, zip.getEntryCount(), skipped, zip.getBytesWritten(), System.currentTimeMillis() - startTime);
+            return zip.getEntryCount();
+        }
+    }
+
+    private void putFile(StreamingZipWriter zip, ExportEntry entry) throws IOException {
+        boolean compress = !COMPRESSED_EXTENSIONS.contains(entry.extension);
+        try {
+            zip.putFile(entry.entryName, fileStorageService.getFilePath(entry.storageFilename), compress,
+                entry.createdAt);
+        } catch (NoSuchFileException e) {
+            // 解析路径后文件可能刚被存储目录迁移移走，重新解析一次
+            zip.putFile(entry.entryName, fileStorageService.getFilePath(entry.storageFilename), compress,
+                entry.createdAt);
+        }
+    }
+
+    private List<ExportEntry> loadPage(String userId, ExportEntry last) {
+        List<ExportEntry> entries = new ArrayList<>(PAGE_SIZE);
+        if (last == null) {
+            jdbcTemplate.query(SELECT_FIRST_SQL, rs -> {
+                entries.add(toEntry(rs));
+            }, userId, PAGE_SIZE);
+        } else {
+            Timestamp createdAt = Timestamp.valueOf(last.createdAt);
+            jdbcTemplate.query(SELECT_NEXT_SQL, rs -> {
+                entries.add(toEntry(rs));
+            }, userId, createdAt, createdAt, last.id, PAGE_SIZE);
+        }
+        return entries;
+    }
+
+    private static ExportEntry toEntry(ResultSet rs) throws SQLException {
+        String blobFilename = rs.getString("blob_filename");
+        return new ExportEntry(
+            rs.getLong("id"),
+            rs.getString("original_filename"),
+            blobFilename != null ? blobFilename : rs.getString("stored_filename"),
+            rs.getString("extension").toLowerCase(),
+            rs.getTimestamp("created_at").toLocalDateTime());
+    }
+
+    /**
+     * 导出条目，ZIP中的名称以照片ID为前缀，保证不重名
+     */
+    private static final class ExportEntry {
+
+        private final long id;
+
+        private final String entryName;
+
+        private final String storageFilename;
+
+        private final String extension;
+
+        private final LocalDateTime createdAt;
+
+        private ExportEntry(long id, String originalFilename, String storageFilename, String extension,
+                            LocalDateTime createdAt) {
+            this.id = id;
+            this.entryName = id + "_" + originalFilename.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_");
+            this.storageFilename = storageFilename;
+            this.extension = extension;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,1053 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.entity.Photo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 照片搜索索引
+ * 对原始文件名和描述建立三元组(trigram)倒排索引，常驻内存。新增记录先写入内存缓冲段，
+ * 定时封存为不可变的段文件；删除只记录ID，合并段时才真正清除。段数超过上限时合并最小的段。
+ * 启动时按清单加载段文件并从数据库补齐新增记录，记录数与数据库不一致时在后台重建；
+ * 索引未就绪期间搜索回退到数据库查询。
+ *
+ * 段文件格式: magic(4) 记录数(4) 记录[ID 创建时间 文件名 描述] 词项数(4) 词项[三元组 记录序号(差值变长编码)] CRC32(8)
+ */
+@Slf4j
+@Service
+public class PhotoSearchIndex {
+
+    private static final int SEGMENT_MAGIC = 0x50534731;
+
+    private static final int MANIFEST_MAGIC = 0x50534D31;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String MANIFEST_FILE = "manifest.dat";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int REBUILD_BATCH_SIZE = 1000;
+
+    /**
+     * 已删除记录占比超过该值的段参与合并
+     */
+    private static final double MERGE_DELETED_RATIO = 0.3;
+
+    /**
+     * 文件名包含关键字时的加分
+     */
+    private static final double FILENAME_MATCH_BONUS = 1.0;
+
+    /**
+     * 描述包含关键字时的加分
+     */
+    private static final double DESCRIPTION_MATCH_BONUS = 0.5;
+
+    /**
+     * 文件名以关键字开头时的加分
+     */
+    private static final double PREFIX_MATCH_BONUS = 0.25;
+
+    private static final String SELECT_DOCS_SQL =
+        "SELECT id, original_filename, description, created_at FROM photos "
+            + "WHERE deleted = false AND id > ? ORDER BY id LIMIT ?";
+
+    private static final String COUNT_ACTIVE_SQL = "SELECT COUNT(*) FROM photos WHERE deleted = false";
+
+    private static final Posting EMPTY_POSTING = new Posting(new int[0], 0);
+
+    private static final Comparator<Hit> BY_RELEVANCE = Comparator.comparingDouble((Hit hit) -> hit.score).reversed()
+        .thenComparing(hit -> hit.doc, Doc.NEWEST_FIRST);
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    @Qualifier("maintenanceExecutor")
+    private Executor maintenanceExecutor;
+
+    private Path indexLocation;
+
+    /**
+     * 保护段列表、缓冲段和删除集合；搜索持有读锁
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 串行执行封存、合并和重建，保证段文件与清单一致
+     */
+    private final Object persistMonitor = new Object();
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private Segment buffer = Segment.buffer();
+
+    /**
+     * 已删除但仍保留在段中的照片ID
+     */
+    private final Set<Long> deletedIds = new HashSet<>();
+
+    /**
+     * 重建期间删除的照片ID，重建完成后应用到新段
+     */
+    private Set<Long> deletedDuringRebuild;
+
+    private boolean dirty;
+
+    private int nextGeneration = 1;
+
+    private volatile boolean needsRebuild;
+
+    private volatile boolean ready;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    @PostConstruct
+    public void init() {
+        if (!storageProperties.getSearch().getEnabled()) {
+            log.info("搜索索引已关闭，搜索使用数据库查询");
+            return;
+        }
+        try {
+            indexLocation = Paths.get(storageProperties.getSearch().getPath()).toAbsolutePath().normalize();
+            Files.createDirectories(indexLocation);
+            load();
+        } catch (IOException e) {
+            log.warn("搜索索引加载失败，将从数据库重建: {}", e.getMessage());
+            segments.clear();
+            deletedIds.clear();
+            needsRebuild = true;
+        }
+    }
+
+    /**
+     * 启动后在后台补齐或重建索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (indexLocation == null) {
+            return;
+        }
+        try {
+            maintenanceExecutor.execute(this::recover);
+        } catch (RejectedExecutionException e) {
+            log.warn("维护任务队列已满，搜索索引暂不可用");
+        }
+    }
+
+    /**
+     * 索引是否可用于搜索
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 按相关度搜索
+     * 三元组匹配比例达到阈值的记录参与排序，文件名或描述包含关键字的记录排在前面，相同得分按时间倒序
+     *
+     * @return 当前页的照片ID(按相关度排序)和匹配总数
+     */
+    public SearchResult search(String keyword, int offset, int limit) {
+        long startTime = System.nanoTime();
+        List<Hit> hits = collect(keyword, false);
+        hits.sort(BY_RELEVANCE);
+        List<Long> ids = hits.stream()
+            .skip(offset)
+            .limit(limit)
+            .map(hit -> hit.doc.id)
+            .collect(Collectors.toList());
+        log.debug("索引搜索: 关键字={}, 匹配={}, 耗时={}μs", keyword, hits.size(), (System.nanoTime() - startTime) / 1000);
+        return new SearchResult(ids, hits.size());
+    }
+
+    /**
+     * 按时间倒序搜索文件名或描述包含关键字的记录，用于游标分页
+     *
+     * @param createdAt 上一页最后一条的创建时间，第一页为null
+     * @param id        上一页最后一条的ID，第一页为null
+     */
+    public List<Long> searchAfter(String keyword, LocalDateTime createdAt, Long id, int limit) {
+        Doc position = createdAt == null ? null : new Doc(id, createdAt, "", null);
+        return collect(keyword, true).stream()
+            .map(hit -> hit.doc)
+            .filter(doc -> position == null || Doc.NEWEST_FIRST.compare(doc, position) > 0)
+            .sorted(Doc.NEWEST_FIRST)
+            .limit(limit)
+            .map(doc -> doc.id)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * 事务提交后将照片加入索引
+     */
+    public void addAfterCommit(Photo photo) {
+        afterCommit(() -> add(photo));
+    }
+
+    /**
+     * 事务提交后将照片从索引中移除
+     */
+    public void removeAfterCommit(Long id) {
+        afterCommit(() -> remove(id));
+    }
+
+    /**
+     * 加入索引(已存在时忽略)
+     */
+    public void add(Photo photo) {
+        if (indexLocation == null) {
+            return;
+        }
+        Doc doc = new Doc(photo.getId(), photo.getCreatedAt(),
+            normalize(photo.getOriginalFilename()), normalizeNullable(photo.getDescription()));
+        lock.writeLock().lock();
+        try {
+            if (!containsId(doc.id)) {
+                buffer.add(doc);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 从索引中移除，记录在下次合并时清除
+     */
+    public void remove(Long id) {
+        if (indexLocation == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (deletedDuringRebuild != null) {
+                deletedDuringRebuild.add(id);
+            }
+            if (containsId(id) && deletedIds.add(id)) {
+                dirty = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 在后台从数据库重建索引
+     *
+     * @return 重建已在运行时返回false
+     */
+    public boolean rebuild() {
+        if (indexLocation == null || rebuilding.get()) {
+            return false;
+        }
+        try {
+            maintenanceExecutor.execute(() -> {
+                try {
+                    rebuildNow();
+                } catch (Exception e) {
+                    log.error("搜索索引重建失败", e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.warn("维护任务队列已满，搜索索引重建未启动");
+            return false;
+        }
+    }
+
+    /**
+     * 索引中的有效记录数
+     */
+    public long size() {
+        lock.readLock().lock();
+        try {
+            long total = buffer.docs.size();
+            for (Segment segment : segments) {
+                total += segment.docs.size();
+            }
+            return total - deletedIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 定期将缓冲段封存为段文件，并合并过多或删除过多的段
+     */
+    @Scheduled(fixedDelayString = "${file.storage.search.flush-interval:60000}",
+        initialDelayString = "${file.storage.search.flush-interval:60000}")
+    public void flush() {
+        if (!ready || rebuilding.get()) {
+            return;
+        }
+        synchronized (persistMonitor) {
+            try {
+                Segment sealed = null;
+                List<Integer> generations;
+                Set<Long> deletes;
+                lock.writeLock().lock();
+                try {
+                    if (!buffer.docs.isEmpty()) {
+                        List<Doc> live = new ArrayList<>(buffer.docs.size());
+                        for (Doc doc : buffer.docs) {
+                            if (!deletedIds.remove(doc.id)) {
+                                live.add(doc);
+                            }
+                        }
+                        buffer = Segment.buffer();
+                        dirty = true;
+                        if (!live.isEmpty()) {
+                            sealed = Segment.build(nextGeneration++, live);
+                            segments.add(sealed);
+                        }
+                    }
+                    if (!dirty) {
+                        return;
+                    }
+                    dirty = false;
+                    generations = generations();
+                    deletes = new HashSet<>(deletedIds);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+
+                if (sealed != null) {
+                    writeSegment(sealed);
+                    log.debug("搜索索引封存段: 段={}, 记录数={}", sealed.generation, sealed.docs.size());
+                }
+                writeManifest(generations, deletes);
+                mergeIfNeeded();
+            } catch (IOException e) {
+                log.error("搜索索引写入失败", e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    /**
+     * 加载清单中的段和删除记录，清理不在清单中的段文件
+     */
+    private void load() throws IOException {
+        Path manifest = indexLocation.resolve(MANIFEST_FILE);
+        int maxGeneration = 0;
+        Set<Path> referenced = new HashSet<>();
+        if (Files.exists(manifest)) {
+            CRC32 crc = new CRC32();
+            try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                    new BufferedInputStream(Files.newInputStream(manifest)), crc))) {
+                if (in.readInt() != MANIFEST_MAGIC) {
+                    throw new IOException("清单格式错误");
+                }
+                int[] generations = new int[in.readInt()];
+                for (int i = 0; i < generations.length; i++) {
+                    generations[i] = in.readInt();
+                }
+                long[] deletes = new long[in.readInt()];
+                for (int i = 0; i < deletes.length; i++) {
+                    deletes[i] = in.readLong();
+                }
+                long checksum = crc.getValue();
+                if (in.readLong() != checksum) {
+                    throw new IOException("清单校验失败");
+                }
+                for (int generation : generations) {
+                    Path path = segmentPath(generation);
+                    segments.add(readSegment(path, generation));
+                    referenced.add(path);
+                    maxGeneration = Math.max(maxGeneration, generation);
+                }
+                for (long id : deletes) {
+                    deletedIds.add(id);
+                }
+            }
+        } else {
+            needsRebuild = true;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(indexLocation)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && !referenced.contains(path)) {
+                    Files.deleteIfExists(path);
+                    maxGeneration = Math.max(maxGeneration, generationOf(name));
+                }
+            }
+        }
+        nextGeneration = maxGeneration + 1;
+        log.info("搜索索引已加载: 段数={}, 记录数={}", segments.size(), size());
+    }
+
+    /**
+     * 补齐上次关闭后新增的记录，记录数与数据库不一致时重建
+     */
+    private void recover() {
+        try {
+            if (!needsRebuild) {
+                long maxId;
+                lock.readLock().lock();
+                try {
+                    maxId = buffer.maxId();
+                    for (Segment segment : segments) {
+                        maxId = Math.max(maxId, segment.maxId());
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+
+                List<Doc> missing = loadDocs(maxId);
+                lock.writeLock().lock();
+                try {
+                    for (Doc doc : missing) {
+                        if (!containsId(doc.id)) {
+                            buffer.add(doc);
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+
+                Long expected = jdbcTemplate.queryForObject(COUNT_ACTIVE_SQL, Long.class);
+                long indexed = size();
+                if (expected != null && expected == indexed) {
+                    ready = true;
+                    log.info("搜索索引已就绪: 记录数={}, 补齐={}", indexed, missing.size());
+                    return;
+                }
+                log.warn("搜索索引与数据库不一致(索引={}, 数据库={})，开始重建", indexed, expected);
+            }
+            rebuildNow();
+        } catch (Exception e) {
+            log.error("搜索索引恢复失败，搜索将使用数据库查询", e);
+        }
+    }
+
+    /**
+     * 从数据库读取全部有效记录构建单个段，替换现有的段
+     * 重建期间的新增记录保留在缓冲段中，删除记录在替换时应用
+     */
+    private void rebuildNow() throws IOException {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            deletedDuringRebuild = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            List<Doc> docs = loadDocs(0L);
+            synchronized (persistMonitor) {
+                Segment rebuilt = Segment.build(nextGeneration++, docs);
+                writeSegment(rebuilt);
+
+                List<Segment> replaced;
+                Set<Long> deletes;
+                lock.writeLock().lock();
+                try {
+                    Segment remaining = Segment.buffer();
+                    for (Doc doc : buffer.docs) {
+                        if (!rebuilt.contains(doc.id) && !deletedIds.contains(doc.id)) {
+                            remaining.add(doc);
+                        }
+                    }
+                    deletedIds.clear();
+                    for (Long id : deletedDuringRebuild) {
+                        if (rebuilt.contains(id)) {
+                            deletedIds.add(id);
+                        }
+                    }
+                    replaced = new ArrayList<>(segments);
+                    segments.clear();
+                    segments.add(rebuilt);
+                    buffer = remaining;
+                    deletes = new HashSet<>(deletedIds);
+                    dirty = false;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                writeManifest(List.of(rebuilt.generation), deletes);
+                deleteSegmentFiles(replaced);
+            }
+            needsRebuild = false;
+            ready = true;
+            log.info("搜索索引重建完成: 记录数={}, 耗时={}ms", docs.size(), System.currentTimeMillis() - startTime);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                deletedDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * 合并最小的段使段数不超过上限，同时重写已删除记录过多的段
+     */
+    private void mergeIfNeeded() throws IOException {
+        int maxSegments = storageProperties.getSearch().getMaxSegments();
+        List<Segment> toMerge = new ArrayList<>();
+        Set<Long> deletes;
+        lock.readLock().lock();
+        try {
+            deletes = new HashSet<>(deletedIds);
+            List<Segment> bySize = new ArrayList<>(segments);
+            bySize.sort(Comparator.comparingInt(segment -> segment.docs.size()));
+            int mergeCount = segments.size() > maxSegments ? segments.size() - maxSegments + 1 : 0;
+            for (int i = 0; i < bySize.size(); i++) {
+                Segment segment = bySize.get(i);
+                if (i < mergeCount || segment.deletedCount(deletes) > segment.docs.size() * MERGE_DELETED_RATIO) {
+                    toMerge.add(segment);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (toMerge.isEmpty() || (toMerge.size() == 1 && toMerge.get(0).deletedCount(deletes) == 0)) {
+            return;
+        }
+
+        List<Doc> docs = new ArrayList<>();
+        Set<Long> purged = new HashSet<>();
+        for (Segment segment : toMerge) {
+            for (Doc doc : segment.docs) {
+                if (deletes.contains(doc.id)) {
+                    purged.add(doc.id);
+                } else {
+                    docs.add(doc);
+                }
+            }
+        }
+        Segment merged = Segment.build(nextGeneration++, docs);
+        writeSegment(merged);
+
+        List<Integer> generations;
+        lock.writeLock().lock();
+        try {
+            segments.removeAll(toMerge);
+            segments.add(merged);
+            deletedIds.removeAll(purged);
+            generations = generations();
+            deletes = new HashSet<>(deletedIds);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeManifest(generations, deletes);
+        deleteSegmentFiles(toMerge);
+        log.info("搜索索引合并段: 合并={}, 记录数={}, 清除删除记录={}", toMerge.size(), docs.size(), purged.size());
+    }
+
+    /**
+     * 收集匹配的记录
+     *
+     * @param exact true时只返回文件名或描述包含关键字的记录
+     */
+    private List<Hit> collect(String keyword, boolean exact) {
+        String query = normalizeNullable(keyword);
+        if (query == null || query.isEmpty()) {
+            return new ArrayList<>();
+        }
+        long[] codes = trigrams(query).stream().mapToLong(Long::longValue).toArray();
+        int required = exact ? codes.length
+            : Math.max(1, (int) Math.ceil(codes.length * storageProperties.getSearch().getMinScore()));
+
+        List<Hit> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                collect(segment, query, codes, required, exact, hits);
+            }
+            collect(buffer, query, codes, required, exact, hits);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return hits;
+    }
+
+    private void collect(Segment segment, String query, long[] codes, int required, boolean exact, List<Hit> hits) {
+        if (codes.length == 0) {
+            // 少于3个字符的关键字逐条比较
+            for (Doc doc : segment.docs) {
+                addHit(doc, query, 1.0, true, hits);
+            }
+            return;
+        }
+
+        Posting[] postings = new Posting[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            postings[i] = segment.postings.getOrDefault(codes[i], EMPTY_POSTING);
+        }
+        Arrays.sort(postings, Comparator.comparingInt(posting -> posting.size));
+
+        // 匹配至少required个三元组的记录必然出现在最短的 (总数 - required + 1) 个倒排列表之一中
+        BitSet candidates = new BitSet();
+        for (int i = 0; i <= codes.length - required; i++) {
+            for (int j = 0; j < postings[i].size; j++) {
+                candidates.set(postings[i].ordinals[j]);
+            }
+        }
+        for (int ordinal = candidates.nextSetBit(0); ordinal >= 0; ordinal = candidates.nextSetBit(ordinal + 1)) {
+            int matched = 0;
+            for (Posting posting : postings) {
+                if (posting.contains(ordinal)) {
+                    matched++;
+                }
+            }
+            if (matched >= required) {
+                addHit(segment.docs.get(ordinal), query, (double) matched / codes.length, exact, hits);
+            }
+        }
+    }
+
+    private void addHit(Doc doc, String query, double ratio, boolean exact, List<Hit> hits) {
+        if (deletedIds.contains(doc.id)) {
+            return;
+        }
+        boolean inFilename = doc.filename.contains(query);
+        boolean inDescription = doc.description != null && doc.description.contains(query);
+        if (exact && !inFilename && !inDescription) {
+            return;
+        }
+        double score = ratio
+            + (inFilename ? FILENAME_MATCH_BONUS : 0)
+            + (inDescription ? DESCRIPTION_MATCH_BONUS : 0)
+            + (doc.filename.startsWith(query) ? PREFIX_MATCH_BONUS : 0);
+        hits.add(new Hit(doc, score));
+    }
+
+    private boolean containsId(long id) {
+        if (buffer.contains(id)) {
+            return true;
+        }
+        for (Segment segment : segments) {
+            if (segment.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Integer> generations() {
+        return segments.stream().map(segment -> segment.generation).collect(Collectors.toList());
+    }
+
+    /**
+     * 按ID分批读取数据库中的有效记录
+     */
+    private List<Doc> loadDocs(long afterId) {
+        List<Doc> docs = new ArrayList<>();
+        long lastId = afterId;
+        while (true) {
+            List<Doc> batch = jdbcTemplate.query(SELECT_DOCS_SQL, (rs, rowNum) -> {
+                Timestamp createdAt = rs.getTimestamp("created_at");
+                return new Doc(rs.getLong("id"), createdAt == null ? null : createdAt.toLocalDateTime(),
+                    normalize(rs.getString("original_filename")), normalizeNullable(rs.getString("description")));
+            }, lastId, REBUILD_BATCH_SIZE);
+            docs.addAll(batch);
+            if (batch.size() < REBUILD_BATCH_SIZE) {
+                return docs;
+            }
+            lastId = batch.get(batch.size() - 1).id;
+        }
+    }
+
+    private void writeSegment(Segment segment) throws IOException {
+        Path target = segmentPath(segment.generation);
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)), crc))) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(segment.docs.size());
+            for (Doc doc : segment.docs) {
+                out.writeLong(doc.id);
+                out.writeLong(doc.createdAt == null ? Long.MIN_VALUE : doc.createdAt.toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(doc.createdAt == null ? 0 : doc.createdAt.getNano());
+                out.writeUTF(doc.filename);
+                out.writeBoolean(doc.description != null);
+                if (doc.description != null) {
+                    out.writeUTF(doc.description);
+                }
+            }
+            out.writeInt(segment.postings.size());
+            for (Map.Entry<Long, Posting> entry : segment.postings.entrySet()) {
+                Posting posting = entry.getValue();
+                out.writeLong(entry.getKey());
+                writeVarInt(out, posting.size);
+                int previous = 0;
+                for (int i = 0; i < posting.size; i++) {
+                    writeVarInt(out, posting.ordinals[i] - previous);
+                    previous = posting.ordinals[i];
+                }
+            }
+            out.writeLong(crc.getValue());
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Segment readSegment(Path path, int generation) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(path)), crc))) {
+            if (in.readInt() != SEGMENT_MAGIC) {
+                throw new IOException("段文件格式错误: " + path.getFileName());
+            }
+            int docCount = in.readInt();
+            List<Doc> docs = new ArrayList<>(docCount);
+            for (int i = 0; i < docCount; i++) {
+                long id = in.readLong();
+                long seconds = in.readLong();
+                int nanos = in.readInt();
+                String filename = in.readUTF();
+                String description = in.readBoolean() ? in.readUTF() : null;
+                LocalDateTime createdAt = seconds == Long.MIN_VALUE
+                    ? null : LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+                docs.add(new Doc(id, createdAt, filename, description));
+            }
+            int termCount = in.readInt();
+            Map<Long, Posting> postings = new HashMap<>(termCount * 4 / 3 + 1);
+            for (int i = 0; i < termCount; i++) {
+                long code = in.readLong();
+                int[] ordinals = new int[readVarInt(in)];
+                int previous = 0;
+                for (int j = 0; j < ordinals.length; j++) {
+                    previous += readVarInt(in);
+                    ordinals[j] = previous;
+                }
+                postings.put(code, new Posting(ordinals, ordinals.length));
+            }
+            long checksum = crc.getValue();
+            if (in.readLong() != checksum) {
+                throw new IOException("段文件校验失败: " + path.getFileName());
+            }
+            return new Segment(generation, docs, postings);
+        }
+    }
+
+    private void writeManifest(List<Integer> generations, Set<Long> deletes) throws IOException {
+        Path target = indexLocation.resolve(MANIFEST_FILE);
+        Path temp = target.resolveSibling(MANIFEST_FILE + TEMP_SUFFIX);
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)), crc))) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeInt(generations.size());
+            for (int generation : generations) {
+                out.writeInt(generation);
+            }
+            out.writeInt(deletes.size());
+            for (long id : deletes) {
+                out.writeLong(id);
+            }
+            out.writeLong(crc.getValue());
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteSegmentFiles(List<Segment> removed) {
+        for (Segment segment : removed) {
+            try {
+                Files.deleteIfExists(segmentPath(segment.generation));
+            } catch (IOException e) {
+                log.warn("删除搜索索引段失败: {}, 原因={}", segment.generation, e.getMessage());
+            }
+        }
+    }
+
+    private Path segmentPath(int generation) {
+        return indexLocation.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, generation, SEGMENT_SUFFIX));
+    }
+
+    private static int generationOf(String filename) {
+        String digits = filename.substring(SEGMENT_PREFIX.length()).replaceAll("\\D.*$", "");
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String normalizeNullable(String text) {
+        return text == null ? null : normalize(text);
+    }
+
+    /**
+     * 文本的三元组，每个三元组的3个UTF-16字符编码为一个long
+     */
+    static Set<Long> trigrams(String text) {
+        Set<Long> codes = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            codes.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return codes;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+
+    /**
+     * 搜索结果
+     */
+    @Data
+    @AllArgsConstructor
+    public static class SearchResult {
+        private List<Long> ids;
+        private long total;
+    }
+
+    /**
+     * 索引记录(文本已转为小写)
+     * 创建时间截断到秒：提交后直接加入的记录带有秒以下的部分，而数据库(如MySQL的TIMESTAMP)只保存到秒，
+     * 游标取自数据库中的值，两边精度不同时同一秒内的记录会被跳过
+     */
+    private static final class Doc {
+
+        static final Comparator<Doc> NEWEST_FIRST = Comparator
+            .comparing((Doc doc) -> doc.createdAt, Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder()))
+            .thenComparingLong(doc -> doc.id)
+            .reversed();
+
+        private final long id;
+
+        private final LocalDateTime createdAt;
+
+        private final String filename;
+
+        private final String description;
+
+        private Doc(long id, LocalDateTime createdAt, String filename, String description) {
+            this.id = id;
+            this.createdAt = createdAt == null ? null : createdAt.truncatedTo(ChronoUnit.SECONDS);
+            this.filename = filename;
+            this.description = description;
+        }
+    }
+
+    /**
+     * 倒排列表，记录序号升序
+     */
+    private static final class Posting {
+
+        private int[] ordinals;
+
+        private int size;
+
+        private Posting(int[] ordinals, int size) {
+            this.ordinals = ordinals;
+            this.size = size;
+        }
+
+        private void add(int ordinal) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, Math.max(4, size * 2));
+            }
+            ordinals[size++] = ordinal;
+        }
+
+        private boolean contains(int ordinal) {
+            return Arrays.binarySearch(ordinals, 0, size, ordinal) >= 0;
+        }
+    }
+
+    /**
+     * 索引段
+     * 封存的段按ID排序且不再修改；缓冲段(generation为0)按加入顺序追加
+     */
+    private static final class Segment {
+
+        private final int generation;
+
+        private final List<Doc> docs;
+
+        private final Map<Long, Posting> postings;
+
+        /**
+         * 封存段的ID(升序)
+         */
+        private final long[] ids;
+
+        /**
+         * 缓冲段的ID集合
+         */
+        private final Set<Long> bufferedIds;
+
+        private Segment(int generation, List<Doc> docs, Map<Long, Posting> postings) {
+            this.generation = generation;
+            this.docs = docs;
+            this.postings = postings;
+            if (generation == 0) {
+                this.ids = null;
+                this.bufferedIds = new HashSet<>();
+            } else {
+                this.ids = docs.stream().mapToLong(doc -> doc.id).toArray();
+                this.bufferedIds = null;
+            }
+        }
+
+        static Segment buffer() {
+            return new Segment(0, new ArrayList<>(), new HashMap<>());
+        }
+
+        /**
+         * 由记录构建封存段
+         */
+        static Segment build(int generation, List<Doc> docs) {
+            List<Doc> sorted = new ArrayList<>(docs);
+            sorted.sort(Comparator.comparingLong(doc -> doc.id));
+            Map<Long, Posting> postings = new HashMap<>();
+            for (int ordinal = 0; ordinal < sorted.size(); ordinal++) {
+                index(postings, sorted.get(ordinal), ordinal);
+            }
+            for (Posting posting : postings.values()) {
+                posting.ordinals = Arrays.copyOf(posting.ordinals, posting.size);
+            }
+            return new Segment(generation, sorted, postings);
+        }
+
+        void add(Doc doc) {
+            index(postings, doc, docs.size());
+            docs.add(doc);
+            bufferedIds.add(doc.id);
+        }
+
+        boolean contains(long id) {
+            return ids == null ? bufferedIds.contains(id) : Arrays.binarySearch(ids, id) >= 0;
+        }
+
+        long maxId() {
+            if (ids != null) {
+                return ids.length == 0 ? 0L : ids[ids.length - 1];
+            }
+            return bufferedIds.stream().mapToLong(Long::longValue).max().orElse(0L);
+        }
+
+        int deletedCount(Set<Long> deletes) {
+            int count = 0;
+            for (Long id : deletes) {
+                if (contains(id)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static void index(Map<Long, Posting> postings, Doc doc, int ordinal) {
+            Set<Long> codes = trigrams(doc.filename);
+            if (doc.description != null) {
+                codes.addAll(trigrams(doc.description));
+            }
+            for (Long code : codes) {
+                postings.computeIfAbsent(code, key -> new Posting(new int[4], 0)).add(ordinal);
+            }
+        }
+    }
+
+    /**
+     * 匹配的记录及得分
+     */
+    private static final class Hit {
+
+        private final Doc doc;
+
+        private final double score;
+
+        private Hit(Doc doc, double score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+}
@@ -3,30 +3,45 @@ package com.photo.service;
 import com.photo.config.FileStorageProperties;
 import com.photo.dto.*;
 import com.photo.entity.Photo;
+import com.photo.entity.PhotoBlob;
 import com.photo.exception.*;
 import com.photo.repository.PhotoRepository;
 import com.photo.util.FileUtils;
-import com.photo.util.ImageUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * 照片服务实现类
@@ -35,6 +50,16 @@ import java.util.stream.Collectors;
 @Service
 public class PhotoService {
     
+    /**
+     * 游标分页每页最大数量
+     */
+    private static final int MAX_CURSOR_PAGE_SIZE = 100;
+    
+    /**
+     * 相似查询最多核对的候选数
+     */
+    private static final int MAX_SIMILAR_CANDIDATES = 500;
+    
     @Autowired
     private PhotoRepository photoRepository;
     
@@ -44,95 +69,509 @@ public class PhotoService {
     @Autowired
     private FileStorageProperties storageProperties;
     
+    @Autowired
+    private DerivativeService derivativeService;
+    
+    @Autowired
+    private AccessCounterBuffer accessCounterBuffer;
+    
+    @Autowired
+    private StorageUsageTracker storageUsageTracker;
+    
+    @Autowired
+    private RenditionService renditionService;
+    
+    @Autowired
+    private BlobService blobService;
+    
+    @Autowired
+    private PhotoSearchIndex photoSearchIndex;
+    
+    @Autowired
+    private SimilarityIndex similarityIndex;
+    
+    @Autowired
+    private UploadProgressRegistry uploadProgressRegistry;
+    
+    @Autowired
+    @Qualifier("batchUploadExecutor")
+    private Executor batchUploadExecutor;
+    
+    @Lazy
+    @Autowired
+    private PhotoService self;
+    
     /**
      * 上传单个照片
+     * 上传流只读取一次，MIME检测、MD5计算和尺寸解析都基于同一次读取的结果；
+     * 缩略图和压缩图在事务提交后异步生成
      */
     @Transactional
     public PhotoUploadResponse uploadPhoto(MultipartFile file, String userId, String description) {
+        return uploadPhoto(file, userId, description, null);
+    }
+    
+    /**
+     * 上传单个照片，指定上传ID时推送进度
+     * 完成事件在事务提交后发布，客户端收到时照片已可查询
+     */
+    @Transactional
+    public PhotoUploadResponse uploadPhoto(MultipartFile file, String userId, String description, String uploadId) {
+        UploadProgressTracker tracker = uploadProgressRegistry.start(uploadId, file.getSize(), 1);
+        try {
+            PhotoUploadResponse response = uploadPhoto(file, userId, description, tracker, 0);
+            publishOnCompletion(tracker, "ID=" + response.getId());
+            return response;
+        } catch (RuntimeException e) {
+            tracker.failed(e.getMessage());
+            throw e;
+        }
+    }
+    
+    /**
+     * 上传单个照片并累计到指定的上传进度
+     */
+    @Transactional
+    public PhotoUploadResponse uploadPhoto(MultipartFile file, String userId, String description,
+                                           UploadProgressTracker tracker, int fileIndex) {
         log.info("开始上传照片: {}, 用户: {}", file.getOriginalFilename(), userId);
         
         // 验证文件
         validateFile(file);
         
-        // 检查存储空间
-        checkStorageSpace(file.getSize());
-        
-        // 计算MD5(用于去重)
-        String md5 = FileUtils.calculateMD5(file);
+        // 预留存储空间
+        long reservedBytes = file.getSize();
+        reserveStorageSpace(reservedBytes);
         
-        // 检查是否已存在相同文件
-        Optional<Photo> existingPhoto = photoRepository.findByMd5(md5);
-        if (existingPhoto.isPresent()) {
-            log.info("文件已存在，返回已有记录: {}", md5);
-            return convertToUploadResponse(existingPhoto.get());
+        try {
+            // 读取上传流(写入临时文件并计算MD5和SHA-256)
+            IngestedFile ingestedFile = fileStorageService.ingestFile(file, tracker, fileIndex);
+            tracker.processing(fileIndex, ingestedFile.getOriginalFilename());
+            return storeUpload(ingestedFile, userId, description, reservedBytes);
+        } catch (RuntimeException e) {
+            storageUsageTracker.releaseReservation(reservedBytes);
+            throw e;
         }
-        
+    }
+    
+    /**
+     * 保存分片上传组装完成的文件
+     * 存储空间已在创建上传会话时预留，失败时释放
+     */
+    @Transactional
+    public PhotoUploadResponse uploadAssembled(IngestedFile ingestedFile, String userId, String description) {
+        log.info("分片上传接收完成: {}, 用户: {}", ingestedFile.getOriginalFilename(), userId);
+        long reservedBytes = ingestedFile.getFileSize();
         try {
-            // 存储文件
-            String storedFilename = fileStorageService.storeFile(file);
-            File storedFile = fileStorageService.getFile(storedFilename);
-            
-            // 获取图片尺寸
-            int[] dimensions = ImageUtils.getImageDimensions(storedFile);
+            return storeUpload(ingestedFile, userId, description, reservedBytes);
+        } catch (RuntimeException e) {
+            storageUsageTracker.releaseReservation(reservedBytes);
+            throw e;
+        }
+    }
+    
+    /**
+     * 存储上传文件并保存记录，成功时将预留空间转为已使用
+     * 内容已存在时只新增照片记录并引用已有文件，不占用新空间，也不重复处理图片
+     */
+    private PhotoUploadResponse storeUpload(IngestedFile ingestedFile, String userId, String description,
+                                            long reservedBytes) {
+        Optional<PhotoBlob> existingBlob;
+        try {
+            // 验证文件内容
+            validateIngestedFile(ingestedFile);
             
-            // 创建缩略图
-            String thumbnailFilename = fileStorageService.createThumbnail(storedFile, storedFilename);
+            // 解码在加锁前完成，加锁后发现内容已被删除时才在锁内计算
+            precomputePerceptualHash(ingestedFile);
             
-            // 如果启用了压缩，压缩原图
-            if (storageProperties.getCompression().getEnabled()) {
-                fileStorageService.compressImage(storedFile);
+            // 同一内容的上传和删除串行执行
+            blobService.lock(ingestedFile.getSha256());
+            existingBlob = blobService.find(ingestedFile.getSha256());
+            if (existingBlob.isPresent()) {
+                fileStorageService.discardIngestedFile(ingestedFile);
+                
+                // 同一用户重复上传时返回已有记录
+                Optional<Photo> ownPhoto = photoRepository.findFirstByUserIdAndBlobFilenameAndDeletedFalse(
+                    userId, existingBlob.get().getStoredFilename());
+                if (ownPhoto.isPresent()) {
+                    log.info("文件已存在，返回已有记录: ID={}", ownPhoto.get().getId());
+                    storageUsageTracker.releaseReservation(reservedBytes);
+                    return convertToUploadResponse(ownPhoto.get());
+                }
+                ingestedFile.setPerceptualHash(findPerceptualHashes(
+                    List.of(existingBlob.get().getStoredFilename())).get(existingBlob.get().getStoredFilename()));
+            } else {
+                fileStorageService.computePerceptualHash(ingestedFile);
             }
             
-            // 保存照片信息到数据库
-            Photo photo = Photo.builder()
-                .originalFilename(file.getOriginalFilename())
-                .storedFilename(storedFilename)
-                .filePath(storedFile.getAbsolutePath())
-                .thumbnailPath(thumbnailFilename)
-                .fileSize(file.getSize())
-                .contentType(file.getContentType())
-                .extension(FileUtils.getFileExtension(file.getOriginalFilename()))
-                .width(dimensions[0])
-                .height(dimensions[1])
-                .md5(md5)
-                .userId(userId)
-                .description(description)
-                .isPublic(true)
-                .build();
+            // 按配置拒绝与本人已有照片近似重复的上传
+            rejectNearDuplicate(ingestedFile, userId);
+        } catch (RuntimeException e) {
+            fileStorageService.discardIngestedFile(ingestedFile);
+            throw e;
+        }
+        
+        try {
+            Photo.PhotoBuilder builder = photoBuilder(ingestedFile, userId, description);
             
+            long addedBytes;
+            Photo processed = null;
+            if (existingBlob.isPresent()) {
+                // 引用已有内容
+                PhotoBlob blob = existingBlob.get();
+                blobService.addReference(blob);
+                builder.blobFilename(blob.getStoredFilename());
+                addedBytes = 0;
+                
+                // 已有衍生图时直接复用
+                processed = photoRepository.findFirstByBlobFilenameAndDerivativeStatus(
+                    blob.getStoredFilename(), Photo.DerivativeStatus.COMPLETED).orElse(null);
+                if (processed != null) {
+                    builder.thumbnailPath(processed.getThumbnailPath())
+                        .width(processed.getWidth())
+                        .height(processed.getHeight())
+                        .derivativeStatus(Photo.DerivativeStatus.COMPLETED);
+                }
+            } else {
+                // 存储新内容
+                PhotoBlob blob = blobService.create(ingestedFile);
+                builder.blobFilename(blob.getStoredFilename());
+                addedBytes = blob.getFileSize();
+            }
+            
+            Photo photo = builder.build();
+            photo.setFilePath(fileStorageService.getFilePath(photo.getStorageFilename()).toString());
             photo = photoRepository.save(photo);
-            log.info("照片上传成功: ID={}, 文件名={}", photo.getId(), storedFilename);
+            photoSearchIndex.addAfterCommit(photo);
+            similarityIndex.addAfterCommit(photo.getId(), photo.getPerceptualHash());
+            log.info("照片上传成功: ID={}, 文件名={}, 内容={}",
+                photo.getId(), photo.getStoredFilename(), photo.getBlobFilename());
+            
+            // 事务提交后异步生成缩略图和压缩图
+            if (processed == null) {
+                derivativeService.schedule(photo.getId());
+            }
             
-            return convertToUploadResponse(photo);
+            PhotoUploadResponse response = convertToUploadResponse(photo);
+            storageUsageTracker.commitReservation(reservedBytes, addedBytes);
+            return response;
         } catch (Exception e) {
             log.error("照片上传失败: {}", e.getMessage(), e);
+            fileStorageService.discardIngestedFile(ingestedFile);
             throw new FileStorageException("照片上传失败: " + e.getMessage(), e);
         }
     }
     
     /**
-     * 批量上传照片
+     * 批量导入已读取的文件
+     * 按 lock-group-size 分组保存，每组一个事务：先逐个校验并预留空间，再一次性锁定本组内容、查出已有内容和本人已有照片，
+     * 之后只做插入和引用计数更新，中间不执行查询，照片和内容记录按 hibernate.jdbc.batch_size 批量写入。
+     * 内容锁持有到事务结束，分组使每个事务只锁定少量分段，并发的单个上传、删除和其他写入线程不必等待整批完成。
+     * 单个文件校验失败或空间不足时只记为失败；数据库写入失败时该组回滚，组内文件记为失败。
+     * 衍生图不在此提交，由调用方在方法返回后按自己的并发和队列限制生成
+     *
+     * @param derivativeIds 接收需要生成衍生图的照片ID(所在事务均已提交)
+     * @return 与输入顺序一致的处理结果
+     */
+    public List<BatchUploadItem> importPhotos(List<IngestedFile> ingestedFiles, String userId, String description,
+                                             List<Long> derivativeIds) {
+        BatchUploadItem[] items = new BatchUploadItem[ingestedFiles.size()];
+        List<Integer> deferred = importGroups(ingestedFiles, IntStream.range(0, ingestedFiles.size()).boxed()
+            .collect(Collectors.toList()), true, userId, description, items, derivativeIds);
+        if (!deferred.isEmpty()) {
+            // 读取阶段判断内容已存在而未计算感知哈希，保存时内容已被删除：在锁外解码后再保存一次
+            log.info("批量导入中 {} 个文件的内容已被删除，计算感知哈希后重新保存", deferred.size());
+            deferred.forEach(i -> fileStorageService.computePerceptualHash(ingestedFiles.get(i)));
+            importGroups(ingestedFiles, deferred, false, userId, description, items, derivativeIds);
+        }
+        long failed = Arrays.stream(items).filter(item -> !item.getSuccess()).count();
+        log.info("批量导入保存完成: 文件={}, 失败={}", ingestedFiles.size(), failed);
+        return Arrays.asList(items);
+    }
+    
+    /**
+     * 按 lock-group-size 分组，每组在单独的事务中保存
+     *
+     * @return 需要在锁外计算感知哈希后重新保存的文件序号
+     */
+    private List<Integer> importGroups(List<IngestedFile> ingestedFiles, List<Integer> indexes, boolean deferDecode,
+                                       String userId, String description, BatchUploadItem[] items,
+                                       List<Long> derivativeIds) {
+        int groupSize = Math.max(1, storageProperties.getBulkImport().getLockGroupSize());
+        List<Integer> deferred = new ArrayList<>();
+        for (int from = 0; from < indexes.size(); from += groupSize) {
+            List<Integer> group = indexes.subList(from, Math.min(indexes.size(), from + groupSize));
+            List<Long> groupDerivativeIds = new ArrayList<>();
+            try {
+                deferred.addAll(self.importGroup(ingestedFiles, group, deferDecode, userId, description, items,
+                    groupDerivativeIds));
+                derivativeIds.addAll(groupDerivativeIds);
+            } catch (RuntimeException e) {
+                log.error("批量导入保存失败: {} 个文件, 原因={}", group.size(), e.getMessage(), e);
+                for (int i : group) {
+                    if (items[i] == null) {
+                        items[i] = failedImport(i, ingestedFiles.get(i), "保存失败: " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return deferred;
+    }
+    
+    /**
+     * 在一个事务中保存批量导入的一组文件，结果写入 items 中对应序号的位置
+     * 持有内容锁期间不解码图片：内容不存在且尚未计算感知哈希的文件在 deferDecode 为true时退回给调用方，
+     * 否则不计算感知哈希直接保存，由相似索引在后台补算
+     *
+     * @param indexes 本组文件在 ingestedFiles 中的序号
+     * @param derivativeIds 接收需要生成衍生图的照片ID，方法正常返回(事务已提交)后才可处理
+     * @return 退回的文件序号
      */
     @Transactional
-    public List<PhotoUploadResponse> uploadPhotos(MultipartFile[] files, String userId, String description) {
+    public List<Integer> importGroup(List<IngestedFile> ingestedFiles, List<Integer> indexes, boolean deferDecode,
+                                     String userId, String description, BatchUploadItem[] items,
+                                     List<Long> derivativeIds) {
+        List<Integer> accepted = new ArrayList<>(indexes.size());
+        List<Integer> deferred = new ArrayList<>();
+        long pendingBytes = 0;
+        try {
+            for (int i : indexes) {
+                IngestedFile ingestedFile = ingestedFiles.get(i);
+                try {
+                    validateIngestedFile(ingestedFile);
+                    reserveStorageSpace(ingestedFile.getFileSize());
+                    pendingBytes += ingestedFile.getFileSize();
+                    accepted.add(i);
+                } catch (FileException e) {
+                    fileStorageService.discardIngestedFile(ingestedFile);
+                    items[i] = failedImport(i, ingestedFile, e.getMessage());
+                }
+            }
+            if (accepted.isEmpty()) {
+                return deferred;
+            }
+            
+            // 同一内容的上传和删除串行执行
+            Set<String> hashes = accepted.stream()
+                .map(i -> ingestedFiles.get(i).getSha256())
+                .collect(Collectors.toSet());
+            blobService.lockAll(hashes);
+            Map<String, PhotoBlob> blobs = blobService.findAll(hashes);
+            List<String> blobFilenames = blobs.values().stream()
+                .map(PhotoBlob::getStoredFilename)
+                .collect(Collectors.toList());
+            Map<String, Photo> ownPhotos = new HashMap<>();
+            Map<String, Photo> processedPhotos = new HashMap<>();
+            Map<String, Long> perceptualHashes = findPerceptualHashes(blobFilenames);
+            if (!blobFilenames.isEmpty()) {
+                photoRepository.findByUserIdAndBlobFilenameInAndDeletedFalse(userId, blobFilenames)
+                    .forEach(photo -> ownPhotos.putIfAbsent(photo.getBlobFilename(), photo));
+                photoRepository.findByBlobFilenameInAndDerivativeStatus(blobFilenames,
+                        Photo.DerivativeStatus.COMPLETED)
+                    .forEach(photo -> processedPhotos.putIfAbsent(photo.getBlobFilename(), photo));
+            }
+            
+            // 本组中同一内容只保存一次，之后的文件返回同一条记录
+            Map<String, Photo> importedPhotos = new HashMap<>();
+            Map<Integer, Photo> results = new LinkedHashMap<>();
+            List<Photo> newPhotos = new ArrayList<>();
+            int newBlobs = 0;
+            for (int i : accepted) {
+                IngestedFile ingestedFile = ingestedFiles.get(i);
+                PhotoBlob blob = blobs.get(ingestedFile.getSha256());
+                Photo existing = importedPhotos.get(ingestedFile.getSha256());
+                if (existing == null && blob != null) {
+                    existing = ownPhotos.get(blob.getStoredFilename());
+                }
+                if (existing != null) {
+                    fileStorageService.discardIngestedFile(ingestedFile);
+                    storageUsageTracker.releaseReservation(ingestedFile.getFileSize());
+                    pendingBytes -= ingestedFile.getFileSize();
+                    results.put(i, existing);
+                    continue;
+                }
+                
+                if (blob != null) {
+                    ingestedFile.setPerceptualHash(perceptualHashes.get(blob.getStoredFilename()));
+                } else if (deferDecode && needsPerceptualHash(ingestedFile)) {
+                    storageUsageTracker.releaseReservation(ingestedFile.getFileSize());
+                    pendingBytes -= ingestedFile.getFileSize();
+                    deferred.add(i);
+                    continue;
+                }
+                try {
+                    rejectNearDuplicate(ingestedFile, userId);
+                } catch (DuplicateFileException e) {
+                    fileStorageService.discardIngestedFile(ingestedFile);
+                    storageUsageTracker.releaseReservation(ingestedFile.getFileSize());
+                    pendingBytes -= ingestedFile.getFileSize();
+                    items[i] = failedImport(i, ingestedFile, e.getMessage());
+                    continue;
+                }
+                
+                Photo.PhotoBuilder builder = photoBuilder(ingestedFile, userId, description);
+                long addedBytes;
+                Photo processed = null;
+                if (blob != null) {
+                    fileStorageService.discardIngestedFile(ingestedFile);
+                    blobService.addReference(blob);
+                    addedBytes = 0;
+                    processed = processedPhotos.get(blob.getStoredFilename());
+                    if (processed != null) {
+                        builder.thumbnailPath(processed.getThumbnailPath())
+                            .width(processed.getWidth())
+                            .height(processed.getHeight())
+                            .derivativeStatus(Photo.DerivativeStatus.COMPLETED);
+                    }
+                } else {
+                    blob = blobService.create(ingestedFile);
+                    addedBytes = blob.getFileSize();
+                    newBlobs++;
+                }
+                builder.blobFilename(blob.getStoredFilename());
+                
+                Photo photo = builder.build();
+                photo.setFilePath(fileStorageService.getFilePath(photo.getStorageFilename()).toString());
+                storageUsageTracker.commitReservation(ingestedFile.getFileSize(), addedBytes);
+                pendingBytes -= ingestedFile.getFileSize();
+                newPhotos.add(photo);
+                importedPhotos.put(ingestedFile.getSha256(), photo);
+                results.put(i, photo);
+            }
+            
+            photoRepository.saveAll(newPhotos);
+            photoRepository.flush();
+            for (Photo photo : newPhotos) {
+                photoSearchIndex.addAfterCommit(photo);
+                similarityIndex.addAfterCommit(photo.getId(), photo.getPerceptualHash());
+                if (photo.getDerivativeStatus() != Photo.DerivativeStatus.COMPLETED) {
+                    derivativeIds.add(photo.getId());
+                }
+            }
+            results.forEach((i, photo) -> items[i] = BatchUploadItem.builder()
+                .index(i)
+                .originalFilename(ingestedFiles.get(i).getOriginalFilename())
+                .success(true)
+                .photo(convertToUploadResponse(photo))
+                .build());
+            log.debug("批量导入分组保存完成: 文件={}, 新增照片={}, 新增内容={}, 退回={}",
+                indexes.size(), newPhotos.size(), newBlobs, deferred.size());
+            return deferred;
+        } catch (RuntimeException e) {
+            // 已转为已使用的预留空间和已存储的内容文件由事务回滚处理
+            storageUsageTracker.releaseReservation(pendingBytes);
+            indexes.forEach(i -> fileStorageService.discardIngestedFile(ingestedFiles.get(i)));
+            throw e;
+        }
+    }
+    
+    /**
+     * 内容尚未存储时是否还需要解码计算感知哈希
+     */
+    private boolean needsPerceptualHash(IngestedFile ingestedFile) {
+        return storageProperties.getSimilarity().getEnabled() && ingestedFile.isValidImage()
+            && ingestedFile.getPerceptualHash() == null;
+    }
+    
+    private BatchUploadItem failedImport(int index, IngestedFile ingestedFile, String error) {
+        return BatchUploadItem.builder()
+            .index(index)
+            .originalFilename(ingestedFile.getOriginalFilename())
+            .success(false)
+            .error(error)
+            .build();
+    }
+    
+    /**
+     * 根据已读取的文件创建照片记录(不含内容文件和衍生图信息)
+     */
+    private Photo.PhotoBuilder photoBuilder(IngestedFile ingestedFile, String userId, String description) {
+        return Photo.builder()
+            .originalFilename(ingestedFile.getOriginalFilename())
+            .storedFilename(ingestedFile.getStoredFilename())
+            .fileSize(ingestedFile.getFileSize())
+            .contentType(ingestedFile.getMimeType())
+            .extension(ingestedFile.getExtension())
+            .width(ingestedFile.getWidth())
+            .height(ingestedFile.getHeight())
+            .md5(ingestedFile.getMd5())
+            .perceptualHash(ingestedFile.getPerceptualHash())
+            .userId(userId)
+            .description(description)
+            .isPublic(true);
+    }
+    
+    /**
+     * 批量上传照片
+     * 各文件在批量上传线程池中并行处理，每个文件使用独立事务，单个文件失败不影响其他文件
+     */
+    public BatchUploadResponse uploadPhotos(MultipartFile[] files, String userId, String description) {
+        return uploadPhotos(files, userId, description, null);
+    }
+    
+    /**
+     * 批量上传照片，指定上传ID时按整批推送进度
+     */
+    public BatchUploadResponse uploadPhotos(MultipartFile[] files, String userId, String description, String uploadId) {
         log.info("开始批量上传照片: {} 个文件, 用户: {}", files.length, userId);
         
         if (files.length > storageProperties.getMaxFilesPerUpload()) {
             throw new FileSizeException("单次上传文件数不能超过 " + storageProperties.getMaxFilesPerUpload());
         }
         
-        List<PhotoUploadResponse> responses = new ArrayList<>();
-        for (MultipartFile file : files) {
-            try {
-                PhotoUploadResponse response = uploadPhoto(file, userId, description);
-                responses.add(response);
-            } catch (Exception e) {
-                log.error("文件上传失败: {}", file.getOriginalFilename(), e);
-                // 继续处理其他文件
-            }
+        long totalBytes = Arrays.stream(files).mapToLong(MultipartFile::getSize).sum();
+        UploadProgressTracker tracker = uploadProgressRegistry.start(uploadId, totalBytes, files.length);
+        
+        long startTime = System.nanoTime();
+        List<CompletableFuture<BatchUploadItem>> futures = new ArrayList<>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            int index = i;
+            MultipartFile file = files[i];
+            futures.add(CompletableFuture.supplyAsync(
+                () -> uploadBatchItem(index, file, userId, description, tracker), batchUploadExecutor));
         }
         
-        return responses;
+        List<BatchUploadItem> items = futures.stream()
+            .map(CompletableFuture::join)
+            .collect(Collectors.toList());
+        
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        int succeeded = (int) items.stream().filter(BatchUploadItem::getSuccess).count();
+        tracker.completed("成功 " + succeeded + ", 失败 " + (files.length - succeeded));
+        double seconds = Math.max(elapsedMillis, 1) / 1000.0;
+        log.info("批量上传完成: 成功={}, 失败={}, 耗时={}ms, 吞吐量={} 文件/秒, {}/秒",
+            succeeded, files.length - succeeded, elapsedMillis,
+            String.format("%.2f", files.length / seconds),
+            FileUtils.formatFileSize((long) (totalBytes / seconds)));
+        
+        return BatchUploadResponse.builder()
+            .total(files.length)
+            .succeeded(succeeded)
+            .failed(files.length - succeeded)
+            .totalBytes(totalBytes)
+            .elapsedMillis(elapsedMillis)
+            .items(items)
+            .build();
+    }
+    
+    /**
+     * 处理批量上传中的单个文件
+     */
+    private BatchUploadItem uploadBatchItem(int index, MultipartFile file, String userId, String description,
+                                            UploadProgressTracker tracker) {
+        BatchUploadItem.BatchUploadItemBuilder item = BatchUploadItem.builder()
+            .index(index)
+            .originalFilename(file.getOriginalFilename());
+        try {
+            // 通过代理调用，使每个文件都在独立事务中处理
+            PhotoUploadResponse response = self.uploadPhoto(file, userId, description, tracker, index);
+            tracker.fileFinished(index);
+            return item.success(true).photo(response).build();
+        } catch (Exception e) {
+            log.error("文件上传失败: {}", file.getOriginalFilename(), e);
+            tracker.fileFinished(index);
+            return item.success(false).error(e.getMessage()).build();
+        }
     }
     
     /**
@@ -179,13 +618,92 @@ public class PhotoService {
     
     /**
      * 搜索照片
+     * 索引就绪时按相关度排序，否则按文件名模糊查询数据库
      */
     public Page<PhotoDTO> searchPhotos(String keyword, int page, int size) {
+        if (photoSearchIndex.isReady()) {
+            PhotoSearchIndex.SearchResult result = photoSearchIndex.search(keyword, page * size, size);
+            List<PhotoDTO> content = findAllInOrder(result.getIds()).stream()
+                .map(this::convertToDTO)
+                .collect(Collectors.toList());
+            return new PageImpl<>(content, PageRequest.of(page, size), result.getTotal());
+        }
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
         Page<Photo> photos = photoRepository.searchByFilename(keyword, pageable);
         return photos.map(this::convertToDTO);
     }
     
+    /**
+     * 游标分页获取用户照片列表
+     */
+    public CursorPage<PhotoDTO> getUserPhotos(String userId, String cursor, int size) {
+        PhotoCursor position = decodeCursor(cursor);
+        Pageable limit = cursorLimit(size);
+        List<Photo> photos = position == null
+            ? photoRepository.findUserPhotosFirst(userId, limit)
+            : photoRepository.findUserPhotosAfter(userId, position.createdAt, position.id, limit);
+        return toCursorPage(photos, limit.getPageSize() - 1);
+    }
+    
+    /**
+     * 游标分页获取公开照片列表
+     */
+    public CursorPage<PhotoDTO> getPublicPhotos(String cursor, int size) {
+        PhotoCursor position = decodeCursor(cursor);
+        Pageable limit = cursorLimit(size);
+        List<Photo> photos = position == null
+            ? photoRepository.findPublicPhotosFirst(limit)
+            : photoRepository.findPublicPhotosAfter(position.createdAt, position.id, limit);
+        return toCursorPage(photos, limit.getPageSize() - 1);
+    }
+    
+    /**
+     * 游标分页搜索照片
+     */
+    public CursorPage<PhotoDTO> searchPhotos(String keyword, String cursor, int size) {
+        PhotoCursor position = decodeCursor(cursor);
+        Pageable limit = cursorLimit(size);
+        if (photoSearchIndex.isReady()) {
+            List<Long> ids = position == null
+                ? photoSearchIndex.searchAfter(keyword, null, null, limit.getPageSize())
+                : photoSearchIndex.searchAfter(keyword, position.createdAt, position.id, limit.getPageSize());
+            return toCursorPage(findAllInOrder(ids), limit.getPageSize() - 1);
+        }
+        List<Photo> photos = position == null
+            ? photoRepository.searchByFilenameFirst(keyword, limit)
+            : photoRepository.searchByFilenameAfter(keyword, position.createdAt, position.id, limit);
+        return toCursorPage(photos, limit.getPageSize() - 1);
+    }
+    
+    /**
+     * 查找相似照片(公开的或与该照片属于同一用户的)
+     *
+     * @param maxDistance 感知哈希的最大汉明距离，不超过配置的上限
+     */
+    public List<SimilarPhoto> findSimilarPhotos(Long id, int maxDistance, int limit) {
+        Photo photo = photoRepository.findById(id)
+            .filter(p -> !p.getDeleted())
+            .orElseThrow(() -> new FileNotFoundException("照片不存在: " + id));
+        if (photo.getPerceptualHash() == null) {
+            return new ArrayList<>();
+        }
+        
+        int distance = Math.max(0, Math.min(maxDistance, storageProperties.getSimilarity().getMaxDistance()));
+        Map<Long, Integer> distances = similarityIndex.search(photo.getPerceptualHash(), distance, MAX_SIMILAR_CANDIDATES)
+            .stream()
+            .filter(match -> match.getId() != id)
+            .collect(Collectors.toMap(SimilarityIndex.Match::getId, SimilarityIndex.Match::getDistance,
+                (a, b) -> a, LinkedHashMap::new));
+        return findAllInOrder(new ArrayList<>(distances.keySet())).stream()
+            .filter(candidate -> candidate.getIsPublic() || candidate.getUserId().equals(photo.getUserId()))
+            .map(candidate -> SimilarPhoto.builder()
+                .photo(convertToDTO(candidate))
+                .distance(distances.get(candidate.getId()))
+                .build())
+            .limit(Math.max(0, limit))
+            .collect(Collectors.toList());
+    }
+    
     /**
      * 删除照片(软删除)
      */
@@ -200,7 +718,13 @@ public class PhotoService {
             throw new AccessDeniedException("无权删除该照片");
         }
         
-        photoRepository.softDeleteById(id);
+        if (!photo.getDeleted()) {
+            photoRepository.softDeleteById(id);
+            photoSearchIndex.removeAfterCommit(id);
+            similarityIndex.removeAfterCommit(id, photo.getPerceptualHash());
+            // 共享内容在物理删除最后一个引用时才释放空间
+            storageUsageTracker.onDeleted(photo.getBlobFilename() == null ? photo.getFileSize() : 0, true);
+        }
         log.info("照片已软删除: ID={}", id);
     }
     
@@ -218,45 +742,54 @@ public class PhotoService {
             throw new AccessDeniedException("无权删除该照片");
         }
         
-        // 删除文件
-        try {
-            fileStorageService.deleteFile(photo.getStoredFilename());
-            if (photo.getThumbnailPath() != null) {
-                fileStorageService.deleteThumbnail(photo.getStoredFilename());
+        long freedBytes;
+        if (photo.getBlobFilename() != null) {
+            // 释放共享内容的引用，最后一个引用删除后才删除文件
+            freedBytes = blobService.release(photo.getBlobFilename());
+        } else {
+            // 删除文件
+            try {
+                fileStorageService.deleteFile(photo.getStoredFilename());
+                if (photo.getThumbnailPath() != null) {
+                    fileStorageService.deleteThumbnail(photo.getStoredFilename());
+                }
+                renditionService.deleteRenditions(photo.getStoredFilename());
+            } catch (Exception e) {
+                log.error("删除文件失败: {}", e.getMessage(), e);
             }
-        } catch (Exception e) {
-            log.error("删除文件失败: {}", e.getMessage(), e);
+            freedBytes = photo.getDeleted() ? 0 : photo.getFileSize();
         }
         
         // 删除数据库记录
         photoRepository.deleteById(id);
+        photoSearchIndex.removeAfterCommit(id);
+        similarityIndex.removeAfterCommit(id, photo.getPerceptualHash());
+        storageUsageTracker.onDeleted(freedBytes, !photo.getDeleted());
         log.info("照片已物理删除: ID={}", id);
     }
     
     /**
-     * 增加访问次数
+     * 增加访问次数(写入内存缓冲，定时批量落库)
      */
-    @Transactional
     public void incrementAccessCount(Long id) {
-        photoRepository.incrementAccessCount(id, LocalDateTime.now());
+        accessCounterBuffer.recordAccess(id);
     }
     
     /**
-     * 增加下载次数
+     * 增加下载次数(写入内存缓冲，定时批量落库)
      */
-    @Transactional
     public void incrementDownloadCount(Long id) {
-        photoRepository.incrementDownloadCount(id);
+        accessCounterBuffer.recordDownload(id);
     }
     
     /**
-     * 获取存储信息
+     * 获取存储信息(读取内存中的使用量计数)
      */
     public StorageInfo getStorageInfo() {
-        Long usedSpace = photoRepository.sumAllFileSize();
+        Long usedSpace = storageUsageTracker.getUsedBytes();
         Long totalSpace = storageProperties.getMaxStorageSize();
         Long freeSpace = totalSpace - usedSpace;
-        Long totalFiles = photoRepository.countActiveFiles();
+        Long totalFiles = storageUsageTracker.getFileCount();
         
         return StorageInfo.builder()
             .usedSpace(usedSpace)
@@ -271,43 +804,131 @@ public class PhotoService {
     }
     
     /**
-     * 定期清理过期文件
+     * 游标分页多查询一条，用于判断是否还有下一页
      */
-    @Scheduled(cron = "${file.storage.cleanup.cron}")
-    @Transactional
-    public void cleanupExpiredFiles() {
-        if (!storageProperties.getCleanup().getEnabled()) {
+    private Pageable cursorLimit(int size) {
+        int pageSize = Math.max(1, Math.min(size, MAX_CURSOR_PAGE_SIZE));
+        return PageRequest.of(0, pageSize + 1);
+    }
+    
+    /**
+     * 读取阶段预先计算感知哈希，使解码在并行的读取线程中完成
+     * 内容已存储时跳过，保存时沿用引用该内容的照片的哈希；此处的判断不加锁，保存时会重新确认
+     */
+    public void precomputePerceptualHash(IngestedFile ingestedFile) {
+        if (storageProperties.getSimilarity().getEnabled() && !blobService.exists(ingestedFile.getSha256())) {
+            fileStorageService.computePerceptualHash(ingestedFile);
+        }
+    }
+    
+    /**
+     * 查找已有内容的感知哈希，没有照片计算过时由相似索引在后台补算
+     *
+     * @return 内容文件名到感知哈希的映射
+     */
+    private Map<String, Long> findPerceptualHashes(Collection<String> blobFilenames) {
+        if (blobFilenames.isEmpty() || !storageProperties.getSimilarity().getEnabled()) {
+            return Map.of();
+        }
+        return photoRepository.findPerceptualHashesByBlobFilenameIn(blobFilenames).stream()
+            .collect(Collectors.toMap(row -> (String) row[0], row -> (Long) row[1]));
+    }
+    
+    /**
+     * 开启近似重复检测时，同一用户已有汉明距离在阈值内的照片则拒绝上传
+     */
+    private void rejectNearDuplicate(IngestedFile ingestedFile, String userId) {
+        FileStorageProperties.SimilarityConfig config = storageProperties.getSimilarity();
+        if (!config.getRejectNearDuplicates() || ingestedFile.getPerceptualHash() == null) {
             return;
         }
+        List<Long> candidateIds = similarityIndex.search(ingestedFile.getPerceptualHash(),
+                config.getDuplicateDistance(), MAX_SIMILAR_CANDIDATES).stream()
+            .map(SimilarityIndex.Match::getId)
+            .collect(Collectors.toList());
+        if (candidateIds.isEmpty()) {
+            return;
+        }
+        Optional<Photo> duplicate = findAllInOrder(candidateIds).stream()
+            .filter(photo -> photo.getUserId().equals(userId))
+            .findFirst();
+        if (duplicate.isPresent()) {
+            throw new DuplicateFileException("与已有照片近似重复: ID=" + duplicate.get().getId());
+        }
+    }
+    
+    /**
+     * 按给定ID顺序加载照片，跳过已删除或不存在的记录
+     */
+    private List<Photo> findAllInOrder(List<Long> ids) {
+        Map<Long, Photo> photos = photoRepository.findAllById(ids).stream()
+            .filter(photo -> !photo.getDeleted())
+            .collect(Collectors.toMap(Photo::getId, photo -> photo));
+        return ids.stream()
+            .map(photos::get)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+    }
+    
+    private CursorPage<PhotoDTO> toCursorPage(List<Photo> photos, int size) {
+        boolean hasNext = photos.size() > size;
+        List<Photo> content = hasNext ? photos.subList(0, size) : photos;
+        String nextCursor = hasNext ? encodeCursor(content.get(content.size() - 1)) : null;
+        return CursorPage.<PhotoDTO>builder()
+            .content(content.stream().map(this::convertToDTO).collect(Collectors.toList()))
+            .size(size)
+            .hasNext(hasNext)
+            .nextCursor(nextCursor)
+            .build();
+    }
+    
+    /**
+     * 游标为最后一条记录的(创建时间, ID)，Base64编码后对调用方不透明
+     */
+    private static String encodeCursor(Photo photo) {
+        String value = photo.getCreatedAt() + "," + photo.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static PhotoCursor decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.lastIndexOf(',');
+            return new PhotoCursor(LocalDateTime.parse(value.substring(0, separator)),
+                Long.parseLong(value.substring(separator + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+            throw new InvalidCursorException("无效的分页游标: " + cursor, e);
+        }
+    }
+    
+    /**
+     * 游标位置
+     */
+    private static final class PhotoCursor {
         
-        log.info("开始执行定期清理任务");
-        LocalDateTime expiryDate = LocalDateTime.now()
-            .minusDays(storageProperties.getCleanup().getDaysToKeep());
+        private final LocalDateTime createdAt;
         
-        List<Photo> expiredPhotos = photoRepository.findExpiredPhotos(expiryDate);
-        log.info("找到 {} 个过期文件", expiredPhotos.size());
+        private final Long id;
         
-        for (Photo photo : expiredPhotos) {
-            try {
-                permanentlyDeletePhoto(photo.getId(), photo.getUserId());
-            } catch (Exception e) {
-                log.error("清理文件失败: {}", photo.getId(), e);
-            }
+        private PhotoCursor(LocalDateTime createdAt, Long id) {
+            this.createdAt = createdAt;
+            this.id = id;
         }
-        
-        log.info("定期清理任务完成");
     }
     
     /**
-     * 验证文件
+     * 验证文件(不读取文件内容)
      */
     private void validateFile(MultipartFile file) {
         if (file == null || file.isEmpty()) {
             throw new FileTypeException("文件不能为空");
         }
         
-        // 验证文件类型
-        if (!FileUtils.isImageFile(file)) {
+        // 验证文件扩展名
+        if (!FileUtils.isImageExtension(file.getOriginalFilename())) {
             throw new FileTypeException("只允许上传图片文件");
         }
         
@@ -316,25 +937,55 @@ public class PhotoService {
             throw new FileSizeException("文件大小不能超过 " + 
                 FileUtils.formatFileSize(storageProperties.getMaxFileSize()));
         }
+    }
+    
+    /**
+     * 验证已读取的文件内容
+     */
+    private void validateIngestedFile(IngestedFile ingestedFile) {
+        // 验证文件类型
+        if (!FileUtils.isImageType(ingestedFile.getMimeType(), ingestedFile.getOriginalFilename())) {
+            throw new FileTypeException("只允许上传图片文件");
+        }
         
         // 验证图片有效性
-        if (!ImageUtils.isValidImage(file)) {
+        if (!ingestedFile.isValidImage()) {
             throw new FileTypeException("无效的图片文件");
         }
     }
     
     /**
-     * 检查存储空间
+     * 预留存储空间(原子操作，并发上传不会超出总容量)
      */
-    private void checkStorageSpace(long fileSize) {
-        Long usedSpace = photoRepository.sumAllFileSize();
-        Long maxSpace = storageProperties.getMaxStorageSize();
-        
-        if (usedSpace + fileSize > maxSpace) {
+    private void reserveStorageSpace(long fileSize) {
+        if (!storageUsageTracker.tryReserve(fileSize)) {
             throw new StorageFullException("存储空间不足");
         }
     }
     
+    /**
+     * 事务结束后发布上传结果，回滚时发布失败
+     */
+    private void publishOnCompletion(UploadProgressTracker tracker, String message) {
+        if (tracker == UploadProgressTracker.NONE) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            tracker.completed(message);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    tracker.completed(message);
+                } else {
+                    tracker.failed("照片保存失败");
+                }
+            }
+        });
+    }
+    
     /**
      * 转换为上传响应DTO
      */
@@ -353,6 +1004,7 @@ public class PhotoService {
             .height(photo.getHeight())
             .uploadedAt(photo.getCreatedAt())
             .md5(photo.getMd5())
+            .derivativeStatus(derivativeStatusOf(photo))
             .build();
     }
     
@@ -378,7 +1030,16 @@ public class PhotoService {
             .createdAt(photo.getCreatedAt())
             .updatedAt(photo.getUpdatedAt())
             .lastAccessedAt(photo.getLastAccessedAt())
+            .derivativeStatus(derivativeStatusOf(photo))
             .build();
     }
+    
+    /**
+     * 衍生图状态(历史数据视为已完成)
+     */
+    private String derivativeStatusOf(Photo photo) {
+        Photo.DerivativeStatus status = photo.getDerivativeStatus();
+        return (status == null ? Photo.DerivativeStatus.COMPLETED : status).name();
+    }
 }
 
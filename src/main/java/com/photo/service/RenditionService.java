@@ -0,0 +1,259 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.entity.Photo;
+import com.photo.exception.FileStorageException;
+import com.photo.util.FileUtils;
+import com.photo.util.ImageUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import net.coobird.thumbnailator.Thumbnails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 多尺寸图片服务
+ * 按配置的宽度生成一组缩小图，一次解码后从大到小逐级缩放；首次请求时生成，同一照片并发请求只生成一次。
+ * 压缩图同样作为衍生文件单独存放，原图(按内容哈希寻址)始终不被修改
+ */
+@Slf4j
+@Service
+public class RenditionService {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    private ImageByteCache imageByteCache;
+
+    private Path renditionLocation;
+
+    /**
+     * 正在生成的照片(按存储文件名)
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        try {
+            renditionLocation = Paths.get(storageProperties.getRenditionPath()).toAbsolutePath().normalize();
+            Files.createDirectories(renditionLocation);
+            log.info("多尺寸图片目录: {}", renditionLocation);
+        } catch (IOException e) {
+            throw new FileStorageException("无法创建多尺寸图片目录", e);
+        }
+    }
+
+    /**
+     * 获取不小于请求宽度的最小尺寸图片路径
+     * 请求宽度不小于原图宽度或超出最大配置宽度时返回原图
+     */
+    public Path getRenditionPath(Photo photo, int requestedWidth) {
+        String storedFilename = photo.getStorageFilename();
+        Path originalPath = fileStorageService.getFile(storedFilename).toPath();
+
+        Integer width = selectWidth(requestedWidth, photo.getWidth());
+        if (width == null) {
+            return originalPath;
+        }
+
+        Path renditionPath = resolve(width, storedFilename);
+        if (Files.isRegularFile(renditionPath)) {
+            return renditionPath;
+        }
+
+        try {
+            generateOnce(originalPath, storedFilename);
+        } catch (RuntimeException e) {
+            log.warn("生成多尺寸图片失败，返回原图: {}, 原因={}", storedFilename, e.getMessage());
+            return originalPath;
+        }
+        return Files.isRegularFile(renditionPath) ? renditionPath : originalPath;
+    }
+
+    /**
+     * 由原图生成压缩图(写入临时文件后原子替换)
+     */
+    public void createCompressed(File originalFile, String storedFilename) {
+        Path target = resolveCompressed(storedFilename);
+        FileStorageProperties.CompressionConfig config = storageProperties.getCompression();
+        try {
+            Files.createDirectories(target.getParent());
+            Path tempFile = target.resolveSibling("tmp_" + target.getFileName());
+            try {
+                ImageUtils.compressImage(originalFile, tempFile.toFile(), config.getQuality(),
+                    config.getMaxWidth(), config.getMaxHeight());
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            throw new FileStorageException("生成压缩图失败: " + storedFilename, e);
+        }
+        log.debug("压缩图生成成功: {}", storedFilename);
+    }
+
+    /**
+     * 获取压缩图路径
+     *
+     * @return 尚未生成时返回null
+     */
+    public Path getCompressedPath(String storedFilename) {
+        Path path = resolveCompressed(storedFilename);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    /**
+     * 删除照片的所有尺寸图片和压缩图
+     */
+    public void deleteRenditions(String storedFilename) {
+        for (Integer width : storageProperties.getRendition().getWidths()) {
+            try {
+                Path path = resolve(width, storedFilename);
+                Files.deleteIfExists(path);
+                imageByteCache.invalidate(path);
+            } catch (IOException e) {
+                log.warn("删除多尺寸图片失败: {}, 宽度={}", storedFilename, width, e);
+            }
+        }
+        try {
+            Files.deleteIfExists(resolveCompressed(storedFilename));
+        } catch (IOException e) {
+            log.warn("删除压缩图失败: {}", storedFilename, e);
+        }
+    }
+
+    /**
+     * 选择不小于请求宽度的最小配置宽度(不访问文件系统)
+     *
+     * @return 应返回原图时返回null
+     */
+    public Integer selectWidth(int requestedWidth, Integer originalWidth) {
+        Integer selected = storageProperties.getRendition().getWidths().stream()
+            .filter(w -> w >= requestedWidth)
+            .min(Integer::compareTo)
+            .orElse(null);
+        if (selected == null || (originalWidth != null && selected >= originalWidth)) {
+            return null;
+        }
+        return selected;
+    }
+
+    /**
+     * 生成所有尺寸，同一照片的并发请求等待同一次生成
+     */
+    private void generateOnce(Path originalPath, String storedFilename) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CompletableFuture<Void> existing = inFlight.putIfAbsent(storedFilename, future);
+        if (existing != null) {
+            try {
+                existing.join();
+                return;
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new FileStorageException("生成多尺寸图片失败", e.getCause());
+            }
+        }
+
+        try {
+            generate(originalPath, storedFilename);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(storedFilename, future);
+        }
+    }
+
+    /**
+     * 解码一次原图，按宽度从大到小逐级缩放并写入缺失的尺寸
+     */
+    private void generate(Path originalPath, String storedFilename) {
+        List<Integer> widths = storageProperties.getRendition().getWidths().stream()
+            .sorted(Comparator.reverseOrder())
+            .collect(Collectors.toList());
+        if (widths.isEmpty()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        String format = FileUtils.getFileExtension(storedFilename);
+        double quality = storageProperties.getRendition().getQuality();
+
+        try {
+            BufferedImage image = ImageUtils.readSubsampled(originalPath.toFile(), widths.get(0), Integer.MAX_VALUE);
+            if (image == null) {
+                throw new FileStorageException("不支持的图片格式: " + storedFilename);
+            }
+
+            int generated = 0;
+            for (Integer width : widths) {
+                if (width >= image.getWidth()) {
+                    // 不放大
+                    continue;
+                }
+                // 由上一级缩放得到当前级
+                image = Thumbnails.of(image).width(width).asBufferedImage();
+
+                Path target = resolve(width, storedFilename);
+                if (Files.isRegularFile(target)) {
+                    continue;
+                }
+                write(image, target, format, quality);
+                generated++;
+            }
+            log.debug("多尺寸图片生成完成: {}, 生成{}个, 耗时={}ms",
+                storedFilename, generated, System.currentTimeMillis() - startTime);
+        } catch (IOException e) {
+            throw new FileStorageException("生成多尺寸图片失败: " + storedFilename, e);
+        }
+    }
+
+    /**
+     * 写入临时文件后原子替换
+     */
+    private void write(BufferedImage image, Path target, String format, double quality) throws IOException {
+        Files.createDirectories(target.getParent());
+        File tempFile = target.resolveSibling("tmp_" + target.getFileName()).toFile();
+        try {
+            Thumbnails.of(image)
+                .scale(1.0)
+                .outputQuality(quality)
+                .outputFormat(format)
+                .toFile(tempFile);
+            Files.move(tempFile.toPath(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            imageByteCache.invalidate(target);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private Path resolve(int width, String storedFilename) {
+        return renditionLocation.resolve("w" + width)
+            .resolve(FileUtils.getShardDirectory(storedFilename))
+            .resolve(storedFilename).normalize();
+    }
+
+    private Path resolveCompressed(String storedFilename) {
+        return renditionLocation.resolve("compressed")
+            .resolve(FileUtils.getShardDirectory(storedFilename))
+            .resolve(storedFilename).normalize();
+    }
+}
@@ -0,0 +1,457 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.dto.IngestedFile;
+import com.photo.dto.PhotoUploadResponse;
+import com.photo.dto.UploadProgress;
+import com.photo.exception.FileNotFoundException;
+import com.photo.exception.FileSizeException;
+import com.photo.exception.FileStorageException;
+import com.photo.exception.FileTypeException;
+import com.photo.exception.StorageFullException;
+import com.photo.exception.UploadConflictException;
+import com.photo.util.FileUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分片断点续传
+ * 创建会话时在临时目录中预分配文件并预留存储空间；分片按偏移量顺序直接写入该文件，同时增量计算MD5和SHA-256，
+ * 连接中断后客户端查询已接收的字节数继续上传。会话信息保存在旁路文件中，服务重启后重新计算已接收部分的哈希即可恢复。
+ * 全部接收后文件直接交给正常的入库流程，不再复制内容
+ */
+@Slf4j
+@Service
+public class ResumableUploadService {
+
+    private static final String SESSION_DIRECTORY = "resumable";
+
+    private static final String DATA_SUFFIX = ".upload";
+
+    private static final String META_SUFFIX = ".session";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageUsageTracker storageUsageTracker;
+
+    @Autowired
+    private PhotoService photoService;
+
+    @Autowired
+    private UploadProgressRegistry uploadProgressRegistry;
+
+    private Path sessionLocation;
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * 恢复服务重启前未完成的会话
+     */
+    @PostConstruct
+    public void init() {
+        sessionLocation = fileStorageService.getTempLocation().resolve(SESSION_DIRECTORY);
+        try {
+            Files.createDirectories(sessionLocation);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(sessionLocation)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    if (name.endsWith(META_SUFFIX)) {
+                        recover(name.substring(0, name.length() - META_SUFFIX.length()));
+                    }
+                }
+            }
+            // 没有会话信息的数据文件
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(sessionLocation, "*" + DATA_SUFFIX)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    if (!sessions.containsKey(name.substring(0, name.length() - DATA_SUFFIX.length()))) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new FileStorageException("无法初始化分片上传目录", e);
+        }
+        if (!sessions.isEmpty()) {
+            log.info("已恢复未完成的分片上传: {}", sessions.size());
+        }
+    }
+
+    /**
+     * 创建上传会话，预分配文件并预留存储空间
+     */
+    public UploadProgress create(String originalFilename, long fileSize, String userId, String description) {
+        if (!FileUtils.isValidFilename(originalFilename) || !FileUtils.isImageExtension(originalFilename)) {
+            throw new FileTypeException("只允许上传图片文件");
+        }
+        if (fileSize <= 0) {
+            throw new FileTypeException("文件不能为空");
+        }
+        long maxFileSize = storageProperties.getResumable().getMaxFileSize();
+        if (fileSize > maxFileSize) {
+            throw new FileSizeException("文件大小不能超过 " + FileUtils.formatFileSize(maxFileSize));
+        }
+        if (!storageUsageTracker.tryReserve(fileSize)) {
+            throw new StorageFullException("存储空间不足");
+        }
+
+        String uploadId = UUID.randomUUID().toString().replace("-", "");
+        Session session = new Session(uploadId, originalFilename, userId, description, fileSize,
+            LocalDateTime.now(), 0);
+        try {
+            // 预分配文件(文件系统支持时为稀疏文件，不立即占用磁盘)
+            try (RandomAccessFile file = new RandomAccessFile(dataPath(uploadId).toFile(), "rw")) {
+                file.setLength(fileSize);
+            }
+            session.md5 = newDigest("MD5");
+            session.sha256 = newDigest("SHA-256");
+            saveSession(session);
+        } catch (IOException | RuntimeException e) {
+            storageUsageTracker.releaseReservation(fileSize);
+            deleteFiles(uploadId);
+            log.error("创建分片上传会话失败: {}", e.getMessage(), e);
+            throw new FileStorageException("创建上传会话失败: " + originalFilename, e);
+        }
+        sessions.put(uploadId, session);
+        log.info("创建分片上传会话: ID={}, 文件={}, 大小={}, 用户={}", uploadId, originalFilename, fileSize, userId);
+        return toProgress(session);
+    }
+
+    /**
+     * 从指定偏移量写入分片
+     * 偏移量必须等于已接收的字节数；传输中断时已写入的部分仍然有效，客户端查询进度后继续上传
+     */
+    public UploadProgress writeChunk(String uploadId, long offset, InputStream inputStream) {
+        Session session = getSession(uploadId);
+        if (!session.lock.tryLock()) {
+            throw new UploadConflictException("该上传正在写入分片");
+        }
+        try {
+            if (offset != session.offset) {
+                throw new UploadConflictException("偏移量不匹配，已接收 " + session.offset + " 字节");
+            }
+            restoreDigests(session);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (FileChannel channel = FileChannel.open(dataPath(uploadId), StandardOpenOption.WRITE)) {
+                int read;
+                try {
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        if (session.offset + read > session.fileSize) {
+                            throw new FileSizeException("分片超出文件大小 " + session.fileSize + " 字节");
+                        }
+                        ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                        while (data.hasRemaining()) {
+                            channel.write(data, session.offset + data.position());
+                        }
+                        session.md5.update(buffer, 0, read);
+                        session.sha256.update(buffer, 0, read);
+                        long previous = session.offset;
+                        session.offset += read;
+                        if (previous * 100 / session.fileSize != session.offset * 100 / session.fileSize) {
+                            uploadProgressRegistry.publish(toProgress(session));
+                        }
+                    }
+                } finally {
+                    // 中断时保留已写入的部分
+                    channel.force(false);
+                    session.lastActivity = LocalDateTime.now();
+                    saveSession(session);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("分片写入中断: ID={}, 已接收={}, 原因={}", uploadId, session.offset, e.getMessage());
+            throw new FileStorageException("分片写入失败，已接收 " + session.offset + " 字节", e);
+        } finally {
+            session.lock.unlock();
+        }
+        return toProgress(session);
+    }
+
+    /**
+     * 查询上传进度
+     */
+    public UploadProgress getProgress(String uploadId) {
+        return toProgress(getSession(uploadId));
+    }
+
+    /**
+     * 全部分片接收后入库
+     */
+    public PhotoUploadResponse complete(String uploadId) {
+        Session session = getSession(uploadId);
+        if (!session.lock.tryLock()) {
+            throw new UploadConflictException("该上传正在写入分片");
+        }
+        IngestedFile ingestedFile;
+        try {
+            if (session.offset < session.fileSize) {
+                throw new UploadConflictException("文件尚未上传完成: " + session.offset + "/" + session.fileSize);
+            }
+            sessions.remove(uploadId);
+            try {
+                restoreDigests(session);
+                Files.deleteIfExists(metaPath(uploadId));
+                ingestedFile = fileStorageService.ingestAssembled(dataPath(uploadId), session.originalFilename,
+                    FileUtils.toHex(session.md5.digest()), FileUtils.toHex(session.sha256.digest()));
+            } catch (IOException | RuntimeException e) {
+                storageUsageTracker.releaseReservation(session.fileSize);
+                deleteFiles(uploadId);
+                publishStatus(session, UploadProgressRegistry.STATUS_FAILED, e.getMessage());
+                throw e instanceof RuntimeException ? (RuntimeException) e
+                    : new FileStorageException("文件存储失败: " + session.originalFilename, e);
+            }
+        } finally {
+            session.lock.unlock();
+        }
+        publishStatus(session, UploadProgressRegistry.STATUS_PROCESSING, session.originalFilename);
+        try {
+            PhotoUploadResponse response = photoService.uploadAssembled(ingestedFile, session.userId, session.description);
+            publishStatus(session, UploadProgressRegistry.STATUS_COMPLETED, "ID=" + response.getId());
+            return response;
+        } catch (RuntimeException e) {
+            publishStatus(session, UploadProgressRegistry.STATUS_FAILED, e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * 取消上传，删除已接收的内容并释放预留空间
+     */
+    public void cancel(String uploadId) {
+        Session session = getSession(uploadId);
+        session.lock.lock();
+        try {
+            if (sessions.remove(uploadId, session)) {
+                deleteFiles(uploadId);
+                storageUsageTracker.releaseReservation(session.fileSize);
+                publishStatus(session, UploadProgressRegistry.STATUS_FAILED, "上传已取消");
+                log.info("分片上传已取消: ID={}", uploadId);
+            }
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * 定期清理长时间未上传分片的会话
+     */
+    @Scheduled(fixedDelayString = "${file.storage.resumable.cleanup-interval:600000}")
+    public void cleanupExpiredSessions() {
+        LocalDateTime deadline = LocalDateTime.now()
+            .minus(Duration.ofMillis(storageProperties.getResumable().getSessionTimeout()));
+        for (Session session : sessions.values()) {
+            if (session.lastActivity.isBefore(deadline) && session.lock.tryLock()) {
+                try {
+                    if (sessions.remove(session.uploadId, session)) {
+                        deleteFiles(session.uploadId);
+                        storageUsageTracker.releaseReservation(session.fileSize);
+                        publishStatus(session, UploadProgressRegistry.STATUS_FAILED, "上传会话已过期");
+                        log.info("清理过期的分片上传: ID={}, 已接收={}/{}",
+                            session.uploadId, session.offset, session.fileSize);
+                    }
+                } finally {
+                    session.lock.unlock();
+                }
+            }
+        }
+    }
+
+    private Session getSession(String uploadId) {
+        Session session = sessions.get(uploadId);
+        if (session == null) {
+            throw new FileNotFoundException("上传会话不存在: " + uploadId);
+        }
+        return session;
+    }
+
+    /**
+     * 由会话信息恢复会话并重新预留空间，哈希在下次写入时重新计算
+     */
+    private void recover(String uploadId) {
+        Path metaPath = metaPath(uploadId);
+        try {
+            Properties properties = new Properties();
+            try (InputStream inputStream = Files.newInputStream(metaPath)) {
+                properties.load(inputStream);
+            }
+            Session session = new Session(uploadId,
+                properties.getProperty("originalFilename"),
+                properties.getProperty("userId"),
+                properties.getProperty("description"),
+                Long.parseLong(properties.getProperty("fileSize")),
+                LocalDateTime.parse(properties.getProperty("lastActivity")),
+                Long.parseLong(properties.getProperty("offset")));
+            if (!Files.exists(dataPath(uploadId)) || !storageUsageTracker.tryReserve(session.fileSize)) {
+                log.warn("无法恢复分片上传(文件缺失或存储空间不足): ID={}", uploadId);
+                deleteFiles(uploadId);
+                return;
+            }
+            sessions.put(uploadId, session);
+        } catch (IOException | RuntimeException e) {
+            log.warn("分片上传会话信息损坏: ID={}, 原因={}", uploadId, e.getMessage());
+            deleteFiles(uploadId);
+        }
+    }
+
+    /**
+     * 重启后首次使用时，按已接收的内容重新计算哈希
+     */
+    private void restoreDigests(Session session) throws IOException {
+        if (session.md5 != null) {
+            return;
+        }
+        MessageDigest md5 = newDigest("MD5");
+        MessageDigest sha256 = newDigest("SHA-256");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream inputStream = Files.newInputStream(dataPath(session.uploadId))) {
+            long remaining = session.offset;
+            while (remaining > 0) {
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("已接收的内容不完整");
+                }
+                md5.update(buffer, 0, read);
+                sha256.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        session.md5 = md5;
+        session.sha256 = sha256;
+    }
+
+    private void saveSession(Session session) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("originalFilename", session.originalFilename);
+        properties.setProperty("userId", session.userId);
+        if (session.description != null) {
+            properties.setProperty("description", session.description);
+        }
+        properties.setProperty("fileSize", String.valueOf(session.fileSize));
+        properties.setProperty("offset", String.valueOf(session.offset));
+        properties.setProperty("lastActivity", session.lastActivity.toString());
+
+        Path metaPath = metaPath(session.uploadId);
+        Path temp = metaPath.resolveSibling(metaPath.getFileName() + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(temp)) {
+            properties.store(outputStream, null);
+        }
+        Files.move(temp, metaPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void publishStatus(Session session, String status, String message) {
+        UploadProgress progress = toProgress(session);
+        progress.setStatus(status);
+        progress.setMessage(message);
+        uploadProgressRegistry.publish(progress);
+    }
+
+    private UploadProgress toProgress(Session session) {
+        long offset = session.offset;
+        return UploadProgress.builder()
+            .uploadId(session.uploadId)
+            .bytesRead(offset)
+            .totalBytes(session.fileSize)
+            .percentage((int) (offset * 100 / session.fileSize))
+            .currentFileIndex(1)
+            .totalFiles(1)
+            .status(UploadProgressRegistry.STATUS_UPLOADING)
+            .message(session.originalFilename)
+            .build();
+    }
+
+    private void deleteFiles(String uploadId) {
+        try {
+            Files.deleteIfExists(dataPath(uploadId));
+            Files.deleteIfExists(metaPath(uploadId));
+        } catch (IOException e) {
+            log.warn("删除分片上传文件失败: ID={}, 原因={}", uploadId, e.getMessage());
+        }
+    }
+
+    private Path dataPath(String uploadId) {
+        return sessionLocation.resolve(uploadId + DATA_SUFFIX);
+    }
+
+    private Path metaPath(String uploadId) {
+        return sessionLocation.resolve(uploadId + META_SUFFIX);
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new FileStorageException("哈希计算失败", e);
+        }
+    }
+
+    /**
+     * 上传会话，分片写入和入库由lock串行执行
+     */
+    private static final class Session {
+
+        private final String uploadId;
+
+        private final String originalFilename;
+
+        private final String userId;
+
+        private final String description;
+
+        private final long fileSize;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private volatile long offset;
+
+        private volatile LocalDateTime lastActivity;
+
+        /**
+         * 已接收内容的哈希状态，服务重启后为null
+         */
+        private MessageDigest md5;
+
+        private MessageDigest sha256;
+
+        private Session(String uploadId, String originalFilename, String userId, String description,
+                        long fileSize, LocalDateTime lastActivity, long offset) {
+            this.uploadId = uploadId;
+            this.originalFilename = originalFilename;
+            this.userId = userId;
+            this.description = description;
+            this.fileSize = fileSize;
+            this.lastActivity = lastActivity;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.util.ImageUtils;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * 相似照片索引
+ * 按感知哈希的汉明距离查找相似照片。64位哈希分为4段16位，每段建一张 段值 -> 记录 的倒排表(多索引哈希)：
+ * 两个哈希距离不超过r时，至少有一段的距离不超过r/4，因此只需在每张表中枚举该段距离r/4以内的段值，
+ * 再按完整哈希核对距离，查询耗时与记录总数基本无关。
+ * 启动后在后台从数据库加载，并为缺少哈希的历史照片补算。
+ */
+@Slf4j
+@Service
+public class SimilarityIndex {
+
+    private static final int CHUNKS = 4;
+
+    private static final int CHUNK_BITS = 16;
+
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    /**
+     * 已删除记录数超过该值且超过一半时压缩
+     */
+    private static final int COMPACT_MIN_REMOVED = 1024;
+
+    /**
+     * 16位段内的所有异或掩码，按置位数升序
+     */
+    private static final int[] MASKS_BY_WEIGHT = IntStream.range(0, 1 << CHUNK_BITS)
+        .boxed()
+        .sorted(Comparator.comparingInt(Integer::bitCount))
+        .mapToInt(Integer::intValue)
+        .toArray();
+
+    private static final String SELECT_HASHES_SQL =
+        "SELECT id, perceptual_hash FROM photos "
+            + "WHERE deleted = false AND perceptual_hash IS NOT NULL AND id > ? ORDER BY id LIMIT ?";
+
+    private static final String SELECT_MISSING_SQL =
+        "SELECT id, stored_filename, blob_filename FROM photos "
+            + "WHERE deleted = false AND perceptual_hash IS NULL AND content_type LIKE 'image/%' AND id > ? "
+            + "ORDER BY id LIMIT ?";
+
+    private static final String UPDATE_HASH_SQL = "UPDATE photos SET perceptual_hash = ? WHERE id = ?";
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * 加载和补算使用的独立低优先级线程
+     * 补算需要逐张解码历史照片，可能持续数小时，不占用共享的维护线程池
+     */
+    private ExecutorService loadExecutor;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 记录槽位: 照片ID(0表示已删除)和哈希
+     */
+    private long[] ids = new long[1024];
+
+    private long[] hashes = new long[1024];
+
+    private int size;
+
+    private int removed;
+
+    /**
+     * 每段一张倒排表: 段值 -> 槽位列表
+     */
+    private int[][][] buckets = newBuckets();
+
+    private int[][] bucketSizes = new int[CHUNKS][1 << CHUNK_BITS];
+
+    /**
+     * 启动后在后台加载索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!storageProperties.getSimilarity().getEnabled()) {
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("similarity-load-");
+        threadFactory.setDaemon(true);
+        threadFactory.setThreadPriority(Thread.MIN_PRIORITY);
+        loadExecutor = Executors.newSingleThreadExecutor(threadFactory);
+        loadExecutor.execute(this::load);
+    }
+
+    /**
+     * 停止加载或补算
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (loadExecutor != null) {
+            loadExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 事务提交后加入索引
+     */
+    public void addAfterCommit(Long id, Long hash) {
+        if (hash != null) {
+            afterCommit(() -> add(id, hash));
+        }
+    }
+
+    /**
+     * 事务提交后从索引中移除
+     */
+    public void removeAfterCommit(Long id, Long hash) {
+        if (hash != null) {
+            afterCommit(() -> remove(id, hash));
+        }
+    }
+
+    /**
+     * 加入索引(已存在时忽略)
+     */
+    public void add(long id, long hash) {
+        lock.writeLock().lock();
+        try {
+            if (find(id, hash) >= 0) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            int slot = size++;
+            ids[slot] = id;
+            hashes[slot] = hash;
+            for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                append(chunk, chunkOf(hash, chunk), slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 从索引中移除，槽位在压缩时回收
+     */
+    public void remove(long id, long hash) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(id, hash);
+            if (slot < 0) {
+                return;
+            }
+            ids[slot] = 0;
+            removed++;
+            if (removed > COMPACT_MIN_REMOVED && removed > size / 2) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查找汉明距离不超过maxDistance的照片
+     *
+     * @return 按距离升序(距离相同时新照片在前)
+     */
+    public List<Match> search(long hash, int maxDistance, int limit) {
+        int radius = maxDistance / CHUNKS;
+        int[] queryChunks = new int[CHUNKS];
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            queryChunks[chunk] = chunkOf(hash, chunk);
+        }
+
+        List<Match> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                for (int mask : MASKS_BY_WEIGHT) {
+                    if (Integer.bitCount(mask) > radius) {
+                        break;
+                    }
+                    int value = queryChunks[chunk] ^ mask;
+                    int[] bucket = buckets[chunk][value];
+                    for (int i = 0; i < bucketSizes[chunk][value]; i++) {
+                        int slot = bucket[i];
+                        if (ids[slot] == 0 || foundInEarlierChunk(hashes[slot], queryChunks, chunk, radius)) {
+                            continue;
+                        }
+                        int distance = Long.bitCount(hashes[slot] ^ hash);
+                        if (distance <= maxDistance) {
+                            matches.add(new Match(ids[slot], distance));
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        matches.sort(Comparator.comparingInt(Match::getDistance)
+            .thenComparing(Comparator.comparingLong(Match::getId).reversed()));
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /**
+     * 索引中的有效记录数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - removed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从数据库加载已有哈希，再为缺少哈希的照片补算
+     */
+    private void load() {
+        long startTime = System.currentTimeMillis();
+        try {
+            long lastId = 0;
+            while (true) {
+                List<long[]> batch = jdbcTemplate.query(SELECT_HASHES_SQL,
+                    (rs, rowNum) -> new long[]{rs.getLong("id"), rs.getLong("perceptual_hash")},
+                    lastId, LOAD_BATCH_SIZE);
+                for (long[] row : batch) {
+                    add(row[0], row[1]);
+                }
+                if (batch.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = batch.get(batch.size() - 1)[0];
+            }
+            log.info("相似照片索引已加载: 记录数={}, 耗时={}ms", size(), System.currentTimeMillis() - startTime);
+
+            if (storageProperties.getSimilarity().getBackfillOnStartup()) {
+                backfill();
+            }
+        } catch (InterruptedException e) {
+            log.info("相似照片索引补算已停止");
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("相似照片索引加载失败", e);
+        }
+    }
+
+    /**
+     * 为缺少感知哈希的历史照片补算(无法解码的照片保持为空)
+     * 每张照片之后暂停 backfill-pause 毫秒，避免长时间占满CPU和磁盘
+     */
+    private void backfill() throws InterruptedException {
+        long pause = storageProperties.getSimilarity().getBackfillPause();
+        long lastId = 0;
+        int computed = 0;
+        while (true) {
+            List<Object[]> batch = jdbcTemplate.query(SELECT_MISSING_SQL,
+                (rs, rowNum) -> new Object[]{rs.getLong("id"),
+                    rs.getString("blob_filename") != null ? rs.getString("blob_filename") : rs.getString("stored_filename")},
+                lastId, LOAD_BATCH_SIZE);
+            for (Object[] row : batch) {
+                long id = (Long) row[0];
+                Path path = fileStorageService.getFilePath((String) row[1]);
+                Long hash = Files.isRegularFile(path) ? ImageUtils.perceptualHash(path.toFile()) : null;
+                if (hash != null) {
+                    jdbcTemplate.update(UPDATE_HASH_SQL, hash, id);
+                    add(id, hash);
+                    computed++;
+                }
+                if (pause > 0) {
+                    Thread.sleep(pause);
+                } else if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            if (batch.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+            lastId = (Long) batch.get(batch.size() - 1)[0];
+        }
+        if (computed > 0) {
+            log.info("已为历史照片补算感知哈希: {}", computed);
+        }
+    }
+
+    /**
+     * 候选记录在之前的表中也满足段距离条件时已被计入，跳过以避免重复
+     */
+    private static boolean foundInEarlierChunk(long hash, int[] queryChunks, int chunk, int radius) {
+        for (int earlier = 0; earlier < chunk; earlier++) {
+            if (Integer.bitCount(chunkOf(hash, earlier) ^ queryChunks[earlier]) <= radius) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int find(long id, long hash) {
+        int value = chunkOf(hash, 0);
+        int[] bucket = buckets[0][value];
+        for (int i = 0; i < bucketSizes[0][value]; i++) {
+            int slot = bucket[i];
+            if (ids[slot] == id && hashes[slot] == hash) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void append(int chunk, int value, int slot) {
+        int[] bucket = buckets[chunk][value];
+        int count = bucketSizes[chunk][value];
+        if (bucket == null) {
+            bucket = new int[2];
+        } else if (count == bucket.length) {
+            bucket = Arrays.copyOf(bucket, count * 2);
+        }
+        bucket[count] = slot;
+        buckets[chunk][value] = bucket;
+        bucketSizes[chunk][value] = count + 1;
+    }
+
+    /**
+     * 回收已删除的槽位并重建倒排表
+     */
+    private void compact() {
+        long[] liveIds = new long[Math.max(1024, size - removed)];
+        long[] liveHashes = new long[liveIds.length];
+        int live = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (ids[slot] != 0) {
+                liveIds[live] = ids[slot];
+                liveHashes[live] = hashes[slot];
+                live++;
+            }
+        }
+        ids = liveIds;
+        hashes = liveHashes;
+        size = live;
+        removed = 0;
+        buckets = newBuckets();
+        bucketSizes = new int[CHUNKS][1 << CHUNK_BITS];
+        for (int slot = 0; slot < size; slot++) {
+            for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                append(chunk, chunkOf(hashes[slot], chunk), slot);
+            }
+        }
+        log.debug("相似照片索引已压缩: 记录数={}", size);
+    }
+
+    private static int chunkOf(long hash, int chunk) {
+        return (int) (hash >>> (chunk * CHUNK_BITS)) & CHUNK_MASK;
+    }
+
+    private static int[][][] newBuckets() {
+        return new int[CHUNKS][1 << CHUNK_BITS][];
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * 匹配的照片及汉明距离
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Match {
+        private long id;
+        private int distance;
+    }
+}
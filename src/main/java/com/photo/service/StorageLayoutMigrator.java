@@ -0,0 +1,203 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.dto.LayoutMigrationStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 存储目录分片迁移
+ * 将迁移前平铺存放的原图和缩略图逐个原子移动到分片目录，并批量更新数据库中的路径；
+ * 读取时优先分片目录、其次平铺目录，迁移过程中服务无需停机
+ */
+@Slf4j
+@Service
+public class StorageLayoutMigrator {
+
+    private static final String UPDATE_FILE_PATH_SQL =
+        "UPDATE photos SET file_path = ? WHERE stored_filename = ?";
+
+    private static final String UPDATE_THUMBNAIL_PATH_SQL =
+        "UPDATE photos SET thumbnail_path = ? WHERE stored_filename = ?";
+
+    private static final String THUMBNAIL_PREFIX = "thumb_";
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    @Qualifier("maintenanceExecutor")
+    private Executor maintenanceExecutor;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final AtomicLong movedFiles = new AtomicLong();
+
+    private final AtomicLong movedThumbnails = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile LocalDateTime startedAt;
+
+    private volatile LocalDateTime finishedAt;
+
+    /**
+     * 按配置在启动后自动迁移
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (storageProperties.getLayout().getMigrateOnStartup()) {
+            start();
+        }
+    }
+
+    /**
+     * 在后台启动迁移(已在运行时不重复启动)
+     */
+    public LayoutMigrationStatus start() {
+        if (running.compareAndSet(false, true)) {
+            movedFiles.set(0);
+            movedThumbnails.set(0);
+            failed.set(0);
+            startedAt = LocalDateTime.now();
+            finishedAt = null;
+            try {
+                maintenanceExecutor.execute(this::migrate);
+            } catch (RuntimeException e) {
+                running.set(false);
+                throw e;
+            }
+        }
+        return getStatus();
+    }
+
+    /**
+     * 当前迁移状态
+     */
+    public LayoutMigrationStatus getStatus() {
+        return LayoutMigrationStatus.builder()
+            .running(running.get())
+            .movedFiles(movedFiles.get())
+            .movedThumbnails(movedThumbnails.get())
+            .failed(failed.get())
+            .startedAt(startedAt)
+            .finishedAt(finishedAt)
+            .build();
+    }
+
+    private void migrate() {
+        log.info("开始迁移存储目录到分片布局");
+        try {
+            migrateDirectory(fileStorageService.getBaseLocation(), name -> name,
+                fileStorageService::getShardedFilePath, UPDATE_FILE_PATH_SQL, movedFiles);
+            migrateDirectory(fileStorageService.getThumbnailLocation(),
+                name -> name.startsWith(THUMBNAIL_PREFIX) ? name.substring(THUMBNAIL_PREFIX.length()) : null,
+                fileStorageService::getShardedThumbnailPath, UPDATE_THUMBNAIL_PATH_SQL, movedThumbnails);
+            log.info("存储目录迁移完成: 原图={}, 缩略图={}, 失败={}",
+                movedFiles.get(), movedThumbnails.get(), failed.get());
+        } catch (Exception e) {
+            log.error("存储目录迁移中断", e);
+        } finally {
+            finishedAt = LocalDateTime.now();
+            running.set(false);
+        }
+    }
+
+    /**
+     * 迁移目录下直接存放的文件(子目录即分片目录，不处理)
+     *
+     * @param storedFilenameOf 由文件名得到存储文件名，返回null表示跳过
+     * @param targetOf         由存储文件名得到分片路径
+     */
+    private void migrateDirectory(Path directory, Function<String, String> storedFilenameOf,
+                                  Function<String, Path> targetOf, String updateSql, AtomicLong moved)
+            throws IOException, InterruptedException {
+        FileStorageProperties.LayoutConfig config = storageProperties.getLayout();
+        List<Object[]> pendingUpdates = new ArrayList<>();
+
+        // 逐项读取目录，不一次性加载全部文件名
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path source : stream) {
+                String name = source.getFileName().toString();
+                String storedFilename = storedFilenameOf.apply(name);
+                if (storedFilename == null || name.startsWith("tmp_")) {
+                    // 非存储文件或正在压缩的临时文件
+                    continue;
+                }
+
+                try {
+                    Path target = targetOf.apply(storedFilename);
+                    if (move(source, target)) {
+                        moved.incrementAndGet();
+                        pendingUpdates.add(new Object[]{target.toString(), storedFilename});
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.warn("迁移文件失败: {}, 原因={}", source, e.getMessage());
+                }
+
+                if (pendingUpdates.size() >= config.getBatchSize()) {
+                    jdbcTemplate.batchUpdate(updateSql, pendingUpdates);
+                    pendingUpdates.clear();
+                    if (config.getBatchPause() > 0) {
+                        // 限制迁移对在线IO的影响
+                        Thread.sleep(config.getBatchPause());
+                    }
+                }
+            }
+        }
+        if (!pendingUpdates.isEmpty()) {
+            jdbcTemplate.batchUpdate(updateSql, pendingUpdates);
+        }
+    }
+
+    /**
+     * 原子移动到分片目录
+     *
+     * @return 是否已移动
+     */
+    private boolean move(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        if (Files.exists(target)) {
+            if (Files.size(target) == Files.size(source)) {
+                // 之前的迁移已复制过
+                Files.deleteIfExists(source);
+                return true;
+            }
+            log.warn("分片目录中已存在不同的同名文件，跳过: {}", source);
+            failed.incrementAndGet();
+            return false;
+        }
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+        return true;
+    }
+}
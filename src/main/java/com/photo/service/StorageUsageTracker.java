@@ -0,0 +1,211 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.repository.PhotoBlobRepository;
+import com.photo.repository.PhotoRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 存储空间使用量计数器
+ * 启动时从数据库加载，上传和删除时原子更新，定期与数据库校对，避免每次上传都执行SUM查询；
+ * 共享内容只按实际存储的一份计算空间
+ */
+@Slf4j
+@Service
+public class StorageUsageTracker {
+
+    /**
+     * 校对与事务提交交错时的重试次数，仍失败则等待下次校对
+     */
+    private static final int RECONCILE_ATTEMPTS = 3;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+    
+    @Autowired
+    private PhotoBlobRepository photoBlobRepository;
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    /**
+     * 已分配空间 = 已使用空间 + 上传中预留的空间
+     */
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * 上传中预留的空间
+     */
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    /**
+     * 未删除的文件数
+     */
+    private final AtomicLong fileCount = new AtomicLong();
+
+    /**
+     * 已开始提交、计数尚未更新的事务数
+     */
+    private final AtomicInteger committing = new AtomicInteger();
+
+    /**
+     * 已完成计数更新的提交数，校对据此判断查询期间是否有事务提交
+     */
+    private final AtomicLong completedCommits = new AtomicLong();
+
+    /**
+     * 启动时从数据库加载使用量
+     */
+    @PostConstruct
+    public void init() {
+        reconcile();
+        log.info("存储使用量加载完成: 已使用={}, 文件数={}", getUsedBytes(), getFileCount());
+    }
+
+    /**
+     * 预留上传所需空间
+     * 在事务中调用时，事务提交后计入已使用空间，回滚则释放
+     *
+     * @return 空间不足时返回false
+     */
+    public boolean tryReserve(long bytes) {
+        long maxBytes = storageProperties.getMaxStorageSize();
+        while (true) {
+            long current = allocatedBytes.get();
+            if (current + bytes > maxBytes) {
+                return false;
+            }
+            if (allocatedBytes.compareAndSet(current, current + bytes)) {
+                reservedBytes.addAndGet(bytes);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 上传成功，预留空间按实际新增的存储大小转为已使用(引用已有内容时为0)
+     */
+    public void commitReservation(long bytes, long actualBytes) {
+        afterCompletion(committed -> {
+            reservedBytes.addAndGet(-bytes);
+            if (committed) {
+                allocatedBytes.addAndGet(actualBytes - bytes);
+                fileCount.incrementAndGet();
+            } else {
+                allocatedBytes.addAndGet(-bytes);
+            }
+        });
+    }
+
+    /**
+     * 上传失败或文件已存在，释放预留空间
+     */
+    public void releaseReservation(long bytes) {
+        reservedBytes.addAndGet(-bytes);
+        allocatedBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * 照片被删除
+     *
+     * @param freedBytes 释放的存储空间
+     * @param activeFile 删除前是否为未删除状态
+     */
+    public void onDeleted(long freedBytes, boolean activeFile) {
+        afterCompletion(committed -> {
+            if (committed) {
+                allocatedBytes.addAndGet(-freedBytes);
+                if (activeFile) {
+                    fileCount.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * 已使用空间
+     */
+    public long getUsedBytes() {
+        return allocatedBytes.get() - reservedBytes.get();
+    }
+
+    /**
+     * 未删除的文件数
+     */
+    public long getFileCount() {
+        return fileCount.get();
+    }
+
+    /**
+     * 定期与数据库校对
+     * 事务已提交、计数尚未更新时查询结果已包含该事务，此时写入会在回调中重复计入，
+     * 因此查询前后都没有进行中的提交、且期间没有提交完成时才采用查询结果
+     */
+    @Scheduled(fixedDelayString = "${file.storage.usage.reconcile-interval:600000}",
+               initialDelayString = "${file.storage.usage.reconcile-interval:600000}")
+    public void reconcile() {
+        for (int attempt = 0; attempt < RECONCILE_ATTEMPTS; attempt++) {
+            long commits = completedCommits.get();
+            if (committing.get() > 0) {
+                continue;
+            }
+            long usedBytes = photoBlobRepository.sumFileSize() + photoRepository.sumLegacyFileSize();
+            long activeFiles = photoRepository.countActiveFiles();
+
+            synchronized (this) {
+                if (committing.get() > 0 || completedCommits.get() != commits) {
+                    continue;
+                }
+                long drift = getUsedBytes() - usedBytes;
+                allocatedBytes.set(usedBytes + reservedBytes.get());
+                fileCount.set(activeFiles);
+                if (drift != 0) {
+                    log.info("存储使用量已校对: 偏差={} 字节", drift);
+                }
+                return;
+            }
+        }
+        log.debug("校对期间有事务提交，等待下次校对");
+    }
+
+    /**
+     * 事务结束后执行(无事务时立即按已提交处理)
+     * 提交前登记为进行中，回调执行后注销，供校对判断查询结果是否可用
+     */
+    private void afterCompletion(Consumer<Boolean> callback) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            callback.accept(true);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean registered;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                committing.incrementAndGet();
+                registered = true;
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                synchronized (StorageUsageTracker.this) {
+                    callback.accept(status == STATUS_COMMITTED);
+                    if (registered) {
+                        completedCommits.incrementAndGet();
+                        committing.decrementAndGet();
+                    }
+                }
+            }
+        });
+    }
+}
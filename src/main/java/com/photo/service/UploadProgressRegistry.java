@@ -0,0 +1,182 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.dto.UploadProgress;
+import com.photo.exception.FileTypeException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * 上传进度推送
+ * 按上传ID保存最新进度并通过SSE推送给订阅者。注册表和订阅列表都是无锁结构，
+ * 上传线程发布进度时不会阻塞；上传结束后推送最后一条事件并移除该上传ID。
+ * 只有进度百分比或状态变化时才推送，每个上传最多约百条事件。
+ */
+@Slf4j
+@Service
+public class UploadProgressRegistry {
+
+    public static final String STATUS_UPLOADING = "uploading";
+
+    public static final String STATUS_PROCESSING = "processing";
+
+    public static final String STATUS_COMPLETED = "completed";
+
+    public static final String STATUS_FAILED = "failed";
+
+    private static final String EVENT_NAME = "progress";
+
+    private static final Pattern UPLOAD_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{8,64}");
+
+    @Autowired
+    private FileStorageProperties storageProperties;
+
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * 订阅上传进度
+     * 可以在上传开始前订阅；上传已在进行时立即推送最新进度
+     */
+    public SseEmitter subscribe(String uploadId) {
+        validateUploadId(uploadId);
+        Channel channel = channels.computeIfAbsent(uploadId, id -> new Channel());
+        channel.touch();
+
+        SseEmitter emitter = new SseEmitter(storageProperties.getProgress().getEmitterTimeout());
+        emitter.onCompletion(() -> channel.emitters.remove(emitter));
+        emitter.onTimeout(() -> channel.emitters.remove(emitter));
+        emitter.onError(e -> channel.emitters.remove(emitter));
+        channel.emitters.add(emitter);
+
+        UploadProgress last = channel.last;
+        if (last != null && !send(channel, emitter, last)) {
+            return emitter;
+        }
+        // 订阅时上传恰好结束
+        if (channel.finished) {
+            complete(emitter);
+        }
+        return emitter;
+    }
+
+    /**
+     * 开始跟踪一次上传，未指定上传ID或未启用时返回不推送的跟踪器
+     */
+    public UploadProgressTracker start(String uploadId, long totalBytes, int totalFiles) {
+        if (uploadId == null || !storageProperties.getProgress().getEnabled()) {
+            return UploadProgressTracker.NONE;
+        }
+        validateUploadId(uploadId);
+        UploadProgressTracker tracker = new UploadProgressTracker(this, uploadId, totalBytes, totalFiles);
+        tracker.publish(STATUS_UPLOADING, null);
+        return tracker;
+    }
+
+    /**
+     * 发布进度，与上一条相同时忽略；完成或失败时推送后移除
+     */
+    public void publish(UploadProgress progress) {
+        if (!storageProperties.getProgress().getEnabled()) {
+            return;
+        }
+        boolean finished = STATUS_COMPLETED.equals(progress.getStatus()) || STATUS_FAILED.equals(progress.getStatus());
+        Channel channel = finished ? channels.get(progress.getUploadId())
+            : channels.computeIfAbsent(progress.getUploadId(), id -> new Channel());
+        if (channel == null) {
+            return;
+        }
+
+        UploadProgress last = channel.last;
+        if (!finished && last != null && progress.getStatus().equals(last.getStatus())
+                && progress.getPercentage().equals(last.getPercentage())
+                && Objects.equals(progress.getMessage(), last.getMessage())) {
+            return;
+        }
+        channel.last = progress;
+        channel.touch();
+        if (finished) {
+            // 先标记结束再移除，之后订阅到该通道的请求也会被关闭
+            channel.finished = true;
+            channels.remove(progress.getUploadId(), channel);
+        }
+
+        for (SseEmitter emitter : channel.emitters) {
+            if (send(channel, emitter, progress) && finished) {
+                complete(emitter);
+            }
+        }
+    }
+
+    /**
+     * 当前跟踪的上传数
+     */
+    public int size() {
+        return channels.size();
+    }
+
+    /**
+     * 移除长时间没有进度且无人订阅的上传(订阅后未开始或上传中断)
+     */
+    @Scheduled(fixedDelayString = "${file.storage.progress.emitter-timeout:300000}")
+    public void evictIdle() {
+        long deadline = System.currentTimeMillis() - storageProperties.getProgress().getEmitterTimeout();
+        channels.forEach((uploadId, channel) -> {
+            if (channel.touchedAt < deadline && channel.emitters.isEmpty()) {
+                channels.remove(uploadId, channel);
+            }
+        });
+    }
+
+    private boolean send(Channel channel, SseEmitter emitter, UploadProgress progress) {
+        try {
+            emitter.send(SseEmitter.event().name(EVENT_NAME).data(progress));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开
+            log.debug("推送上传进度失败: ID={}, 原因={}", progress.getUploadId(), e.getMessage());
+            channel.emitters.remove(emitter);
+            return false;
+        }
+    }
+
+    private static void complete(SseEmitter emitter) {
+        try {
+            emitter.complete();
+        } catch (IllegalStateException e) {
+            // 已关闭
+        }
+    }
+
+    private static void validateUploadId(String uploadId) {
+        if (uploadId == null || !UPLOAD_ID_PATTERN.matcher(uploadId).matches()) {
+            throw new FileTypeException("上传ID格式不正确，应为8-64位字母、数字、下划线或连字符");
+        }
+    }
+
+    /**
+     * 单个上传的订阅者和最新进度
+     */
+    private static class Channel {
+
+        private final CopyOnWriteArrayList<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+        private volatile UploadProgress last;
+
+        private volatile boolean finished;
+
+        private volatile long touchedAt = System.currentTimeMillis();
+
+        private void touch() {
+            touchedAt = System.currentTimeMillis();
+        }
+    }
+}
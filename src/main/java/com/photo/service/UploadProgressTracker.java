@@ -0,0 +1,138 @@
+package com.photo.service;
+
+import com.photo.dto.UploadProgress;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次上传(单个文件或一批文件)的进度
+ * 批量上传的文件并行读取，已读字节数和已处理文件数按整批累计
+ */
+public class UploadProgressTracker {
+
+    /**
+     * 不推送进度的跟踪器
+     */
+    public static final UploadProgressTracker NONE = new UploadProgressTracker(null, null, 0, 0);
+
+    private final UploadProgressRegistry registry;
+
+    private final String uploadId;
+
+    private final long totalBytes;
+
+    private final int totalFiles;
+
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private final AtomicInteger finishedFiles = new AtomicInteger();
+
+    private final AtomicInteger lastPercentage = new AtomicInteger();
+
+    UploadProgressTracker(UploadProgressRegistry registry, String uploadId, long totalBytes, int totalFiles) {
+        this.registry = registry;
+        this.uploadId = uploadId;
+        this.totalBytes = totalBytes;
+        this.totalFiles = totalFiles;
+    }
+
+    /**
+     * 包装文件输入流，读取时累计进度
+     */
+    public InputStream track(InputStream inputStream, int fileIndex) {
+        if (registry == null) {
+            return inputStream;
+        }
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    advance(fileIndex, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    advance(fileIndex, n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * 单个文件已读取完成，开始校验和保存
+     */
+    public void processing(int fileIndex, String filename) {
+        if (registry != null) {
+            registry.publish(snapshot(fileIndex, UploadProgressRegistry.STATUS_PROCESSING, filename));
+        }
+    }
+
+    /**
+     * 单个文件处理结束(成功或失败)，消息为已处理文件数
+     */
+    public void fileFinished(int fileIndex) {
+        if (registry != null) {
+            finishedFiles.incrementAndGet();
+            registry.publish(snapshot(fileIndex, UploadProgressRegistry.STATUS_PROCESSING, null));
+        }
+    }
+
+    /**
+     * 整个上传成功结束
+     */
+    public void completed(String message) {
+        if (registry != null) {
+            registry.publish(snapshot(totalFiles - 1, UploadProgressRegistry.STATUS_COMPLETED, message));
+        }
+    }
+
+    /**
+     * 整个上传失败
+     */
+    public void failed(String message) {
+        if (registry != null) {
+            registry.publish(snapshot(totalFiles - 1, UploadProgressRegistry.STATUS_FAILED, message));
+        }
+    }
+
+    void publish(String status, String message) {
+        registry.publish(snapshot(0, status, message));
+    }
+
+    private void advance(int fileIndex, long bytes) {
+        int percentage = percentage(bytesRead.addAndGet(bytes));
+        int previous = lastPercentage.get();
+        // 百分比变化时只由一个线程推送
+        if (percentage > previous && lastPercentage.compareAndSet(previous, percentage)) {
+            registry.publish(snapshot(fileIndex, UploadProgressRegistry.STATUS_UPLOADING, null));
+        }
+    }
+
+    private UploadProgress snapshot(int fileIndex, String status, String message) {
+        long read = bytesRead.get();
+        return UploadProgress.builder()
+            .uploadId(uploadId)
+            .bytesRead(read)
+            .totalBytes(totalBytes)
+            .percentage(percentage(read))
+            .currentFileIndex(fileIndex + 1)
+            .totalFiles(totalFiles)
+            .status(status)
+            .message(message != null ? message : finishedFiles.get() + "/" + totalFiles)
+            .build();
+    }
+
+    private int percentage(long read) {
+        return totalBytes <= 0 ? 0 : (int) Math.min(100, read * 100 / totalBytes);
+    }
+}
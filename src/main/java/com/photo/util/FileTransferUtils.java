@@ -0,0 +1,109 @@
+package com.photo.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 文件传输工具类
+ * 文件内容不整体读入内存，优先使用Tomcat的sendfile，否则使用FileChannel.transferTo
+ */
+@Slf4j
+public class FileTransferUtils {
+
+    /**
+     * Tomcat是否支持sendfile
+     */
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+
+    /**
+     * sendfile文件路径
+     */
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+
+    /**
+     * sendfile起始位置(包含)
+     */
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+
+    /**
+     * sendfile结束位置(不包含)
+     */
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * 将整个文件写入响应
+     */
+    public static void writeFile(HttpServletRequest request, HttpServletResponse response, Path path)
+            throws IOException {
+        writeRegion(request, response, path, 0, Files.size(path));
+    }
+
+    /**
+     * 将文件的指定区域写入响应
+     */
+    public static void writeRegion(HttpServletRequest request, HttpServletResponse response,
+                                   Path path, long start, long length) throws IOException {
+        response.setContentLengthLong(length);
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            // 由Tomcat在请求结束后直接通过sendfile发送
+            request.setAttribute(SENDFILE_FILENAME_ATTR, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, start + length);
+            return;
+        }
+
+        transfer(path, start, length, response.getOutputStream());
+    }
+
+    /**
+     * 将内存(如内存映射的卷切片)中的内容写入响应
+     */
+    public static void writeBuffer(HttpServletResponse response, ByteBuffer buffer) throws IOException {
+        response.setContentLength(buffer.remaining());
+        WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * 通过FileChannel将文件区域传输到输出流
+     */
+    public static void transfer(Path path, long start, long length, OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            transfer(channel, start, length, Channels.newChannel(outputStream));
+        }
+    }
+
+    /**
+     * 通过FileChannel将文件区域传输到目标通道
+     */
+    public static void transfer(FileChannel channel, long start, long length, WritableByteChannel target)
+            throws IOException {
+        long position = start;
+        long remaining = length;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                if (position >= channel.size()) {
+                    throw new IOException("文件在传输过程中被截断");
+                }
+                continue;
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+}
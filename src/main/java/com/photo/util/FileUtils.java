@@ -3,10 +3,12 @@ package com.photo.util;
 import com.photo.exception.FileTypeException;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.tika.Tika;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -43,6 +45,28 @@ public class FileUtils {
         return UUID.randomUUID().toString().replace("-", "") + "." + extension;
     }
     
+    /**
+     * 获取文件的分片子目录(两级十六进制前缀，如 ab/cd)
+     * UUID生成的文件名直接取前4位，其他文件名取其MD5的前4位
+     */
+    public static String getShardDirectory(String filename) {
+        String hex = isHexPrefix(filename, 4) ? filename.toLowerCase()
+            : DigestUtils.md5DigestAsHex(filename.getBytes(StandardCharsets.UTF_8));
+        return hex.substring(0, 2) + "/" + hex.substring(2, 4);
+    }
+    
+    private static boolean isHexPrefix(String value, int length) {
+        if (value == null || value.length() < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     /**
      * 获取文件扩展名
      */
@@ -69,6 +93,23 @@ public class FileUtils {
         }
     }
     
+    /**
+     * 验证MIME类型和文件扩展名是否为允许的图片类型
+     */
+    public static boolean isImageType(String mimeType, String filename) {
+        if (mimeType == null || !ALLOWED_IMAGE_TYPES.contains(mimeType)) {
+            return false;
+        }
+        return ALLOWED_IMAGE_EXTENSIONS.contains(getFileExtension(filename));
+    }
+    
+    /**
+     * 验证文件扩展名是否为允许的图片扩展名
+     */
+    public static boolean isImageExtension(String filename) {
+        return filename != null && ALLOWED_IMAGE_EXTENSIONS.contains(getFileExtension(filename));
+    }
+    
     /**
      * 检测文件MIME类型(使用Apache Tika)
      */
@@ -78,6 +119,14 @@ public class FileUtils {
         }
     }
     
+    /**
+     * 根据文件头部字节检测MIME类型(使用Apache Tika)
+     */
+    public static String detectMimeType(byte[] header, int length) {
+        byte[] prefix = length == header.length ? header : Arrays.copyOf(header, length);
+        return tika.detect(prefix);
+    }
+    
     /**
      * 验证文件类型
      */
@@ -105,14 +154,8 @@ public class FileUtils {
      * 计算文件MD5值
      */
     public static String calculateMD5(MultipartFile file) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest(file.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
+        try (InputStream inputStream = file.getInputStream()) {
+            return calculateMD5(inputStream);
         } catch (NoSuchAlgorithmException | IOException e) {
             throw new RuntimeException("MD5计算失败", e);
         }
@@ -128,10 +171,17 @@ public class FileUtils {
         while ((read = inputStream.read(buffer)) > 0) {
             md.update(buffer, 0, read);
         }
-        byte[] digest = md.digest();
-        StringBuilder sb = new StringBuilder();
-        for (byte b : digest) {
-            sb.append(String.format("%02x", b));
+        return toHex(md.digest());
+    }
+    
+    /**
+     * 字节数组转16进制字符串
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
         }
         return sb.toString();
     }
@@ -0,0 +1,151 @@
+package com.photo.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 字符串指纹集合
+ * 只保存字符串的63位指纹(开放寻址、线性探测)，每个元素占8字节左右，千万级元素也只需百余MB；
+ * 最高位用作"已见"标记，可在多线程中并发标记。指纹冲突的概率约为 元素数/2^63，
+ * 冲突时不存在的字符串会被误判为存在，调用方应保证误判只会导致少处理而不是误删。
+ * 添加元素不是线程安全的，应在单线程中完成后再并发查询和标记。
+ */
+public class FingerprintSet {
+
+    private static final long SEEN = Long.MIN_VALUE;
+
+    private static final double LOAD_FACTOR = 0.7;
+
+    private AtomicLongArray slots;
+
+    private int size;
+
+    public FingerprintSet(long expectedSize) {
+        slots = new AtomicLongArray(capacityFor(expectedSize));
+    }
+
+    /**
+     * 加入字符串
+     *
+     * @return 已存在时返回false
+     */
+    public boolean add(String value) {
+        if (size + 1 > slots.length() * LOAD_FACTOR) {
+            resize(capacityFor((long) slots.length() * 2));
+        }
+        if (insert(slots, fingerprint(value))) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean contains(String value) {
+        return find(fingerprint(value)) >= 0;
+    }
+
+    /**
+     * 标记为已见
+     *
+     * @return 不在集合中时返回false
+     */
+    public boolean markSeen(String value) {
+        int slot = find(fingerprint(value));
+        if (slot < 0) {
+            return false;
+        }
+        long current = slots.get(slot);
+        while ((current & SEEN) == 0 && !slots.compareAndSet(slot, current, current | SEEN)) {
+            current = slots.get(slot);
+        }
+        return true;
+    }
+
+    /**
+     * 是否已标记为已见(不在集合中时返回false)
+     */
+    public boolean isSeen(String value) {
+        int slot = find(fingerprint(value));
+        return slot >= 0 && (slots.get(slot) & SEEN) != 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 字符串的63位指纹(FNV-1a后再做一次混合)，不会为0
+     */
+    static long fingerprint(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        hash &= ~SEEN;
+        return hash != 0 ? hash : 1;
+    }
+
+    private int find(long fingerprint) {
+        int capacity = slots.length();
+        int slot = indexOf(fingerprint, capacity);
+        while (true) {
+            long current = slots.get(slot);
+            if (current == 0) {
+                return -1;
+            }
+            if ((current & ~SEEN) == fingerprint) {
+                return slot;
+            }
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+    }
+
+    /**
+     * 插入指纹，扩容时带着已见标记一起迁移
+     */
+    private static boolean insert(AtomicLongArray table, long entry) {
+        long fingerprint = entry & ~SEEN;
+        int capacity = table.length();
+        int slot = indexOf(fingerprint, capacity);
+        while (true) {
+            long current = table.get(slot);
+            if (current == 0) {
+                table.set(slot, entry);
+                return true;
+            }
+            if ((current & ~SEEN) == fingerprint) {
+                return false;
+            }
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+    }
+
+    private void resize(int capacity) {
+        AtomicLongArray resized = new AtomicLongArray(capacity);
+        for (int i = 0; i < slots.length(); i++) {
+            long current = slots.get(i);
+            if (current != 0) {
+                insert(resized, current);
+            }
+        }
+        slots = resized;
+    }
+
+    private static int indexOf(long fingerprint, int capacity) {
+        return (int) Math.floorMod(fingerprint, (long) capacity);
+    }
+
+    private static int capacityFor(long expectedSize) {
+        long capacity = Math.max(16, (long) (expectedSize / LOAD_FACTOR) + 1);
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("元素过多: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+}
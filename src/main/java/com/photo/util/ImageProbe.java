@@ -0,0 +1,379 @@
+package com.photo.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * 图片头信息探测工具类
+ * 只解析格式头(JPEG SOF、PNG IHDR、GIF逻辑屏幕描述符、WebP VP8/VP8L/VP8X、BMP信息头)，
+ * 得到格式和尺寸并做结构校验，不解码像素
+ */
+@Slf4j
+public class ImageProbe {
+
+    /**
+     * 允许的最大边长，超出视为无效图片
+     */
+    public static final int MAX_DIMENSION = 65535;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * 图片头信息
+     */
+    @Data
+    @AllArgsConstructor
+    public static class ImageInfo {
+        /**
+         * 格式(jpeg、png、gif、webp、bmp)
+         */
+        private String format;
+        private int width;
+        private int height;
+
+        public String getMimeType() {
+            return "image/" + format;
+        }
+    }
+
+    /**
+     * 从字节数组探测
+     *
+     * @return 无法识别或结构无效时返回null
+     */
+    public static ImageInfo probe(byte[] data, int length) {
+        try {
+            return probe(new ArraySource(data, length));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 从文件探测，只读取格式头所在的少量字节
+     *
+     * @return 无法识别或结构无效时返回null
+     */
+    public static ImageInfo probe(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return probe(new ChannelSource(channel));
+        } catch (IOException e) {
+            log.debug("探测图片头失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static ImageInfo probe(Source source) throws IOException {
+        byte[] magic = new byte[12];
+        int n = source.read(0, magic, 0, magic.length);
+        if (n < 2) {
+            return null;
+        }
+
+        ImageInfo info;
+        if (n >= 3 && u8(magic, 0) == 0xFF && u8(magic, 1) == 0xD8 && u8(magic, 2) == 0xFF) {
+            info = probeJpeg(source);
+        } else if (n >= 8 && startsWith(magic, PNG_SIGNATURE)) {
+            info = probePng(source);
+        } else if (n >= 6 && (startsWith(magic, "GIF87a") || startsWith(magic, "GIF89a"))) {
+            info = probeGif(source);
+        } else if (n >= 12 && startsWith(magic, "RIFF") && matches(magic, 8, "WEBP")) {
+            info = probeWebp(source);
+        } else if (startsWith(magic, "BM")) {
+            info = probeBmp(source);
+        } else {
+            return null;
+        }
+
+        if (info == null || info.getWidth() <= 0 || info.getHeight() <= 0
+                || info.getWidth() > MAX_DIMENSION || info.getHeight() > MAX_DIMENSION) {
+            return null;
+        }
+        return info;
+    }
+
+    /**
+     * JPEG：跳过各段直到SOF段
+     */
+    private static ImageInfo probeJpeg(Source source) throws IOException {
+        long position = 2;
+        byte[] segment = new byte[10];
+        while (true) {
+            if (source.read(position, segment, 0, 4) < 4) {
+                return null;
+            }
+            if (u8(segment, 0) != 0xFF) {
+                return null;
+            }
+            int marker = u8(segment, 1);
+            if (marker == 0xFF) {
+                // 填充字节
+                position++;
+                continue;
+            }
+            if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // 无长度的标记
+                position += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // 图像结束或扫描开始之前没有SOF段
+                return null;
+            }
+
+            int segmentLength = u16be(segment, 2);
+            if (segmentLength < 2) {
+                return null;
+            }
+            if (isStartOfFrame(marker)) {
+                if (segmentLength < 8 || source.read(position + 4, segment, 0, 6) < 6) {
+                    return null;
+                }
+                int precision = u8(segment, 0);
+                int height = u16be(segment, 1);
+                int width = u16be(segment, 3);
+                int components = u8(segment, 5);
+                if ((precision != 8 && precision != 12 && precision != 16)
+                        || components < 1 || components > 4 || segmentLength != 8 + 3 * components) {
+                    return null;
+                }
+                return new ImageInfo("jpeg", width, height);
+            }
+            position += 2 + segmentLength;
+        }
+    }
+
+    /**
+     * SOF0-SOF15，排除DHT(C4)、JPG(C8)和DAC(CC)
+     */
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * PNG：第一个块必须为IHDR且CRC正确
+     */
+    private static ImageInfo probePng(Source source) throws IOException {
+        byte[] chunk = new byte[25];
+        if (source.read(8, chunk, 0, chunk.length) < chunk.length) {
+            return null;
+        }
+        if (u32be(chunk, 0) != 13 || !matches(chunk, 4, "IHDR")) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(chunk, 4, 17);
+        if (crc.getValue() != u32be(chunk, 21)) {
+            return null;
+        }
+
+        long width = u32be(chunk, 8);
+        long height = u32be(chunk, 12);
+        int bitDepth = u8(chunk, 16);
+        int colorType = u8(chunk, 17);
+        if (!isValidPngDepth(colorType, bitDepth) || u8(chunk, 18) != 0 || u8(chunk, 19) != 0
+                || u8(chunk, 20) > 1 || width > Integer.MAX_VALUE || height > Integer.MAX_VALUE) {
+            return null;
+        }
+        return new ImageInfo("png", (int) width, (int) height);
+    }
+
+    private static boolean isValidPngDepth(int colorType, int bitDepth) {
+        switch (colorType) {
+            case 0:
+                return bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8 || bitDepth == 16;
+            case 3:
+                return bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+            case 2:
+            case 4:
+            case 6:
+                return bitDepth == 8 || bitDepth == 16;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * GIF：逻辑屏幕描述符
+     */
+    private static ImageInfo probeGif(Source source) throws IOException {
+        byte[] descriptor = new byte[7];
+        if (source.read(6, descriptor, 0, descriptor.length) < descriptor.length) {
+            return null;
+        }
+        return new ImageInfo("gif", u16le(descriptor, 0), u16le(descriptor, 2));
+    }
+
+    /**
+     * WebP：第一个块为VP8(有损)、VP8L(无损)或VP8X(扩展)
+     */
+    private static ImageInfo probeWebp(Source source) throws IOException {
+        byte[] chunk = new byte[18];
+        int n = source.read(12, chunk, 0, chunk.length);
+        if (n < 8) {
+            return null;
+        }
+        if (matches(chunk, 0, "VP8 ")) {
+            if (n < 18) {
+                return null;
+            }
+            // 帧起始码 9D 01 2A，随后为14位宽高
+            if (u8(chunk, 11) != 0x9D || u8(chunk, 12) != 0x01 || u8(chunk, 13) != 0x2A) {
+                return null;
+            }
+            return new ImageInfo("webp", u16le(chunk, 14) & 0x3FFF, u16le(chunk, 16) & 0x3FFF);
+        }
+        if (matches(chunk, 0, "VP8L")) {
+            if (n < 13 || u8(chunk, 8) != 0x2F) {
+                return null;
+            }
+            long bits = u32le(chunk, 9);
+            int width = (int) (bits & 0x3FFF) + 1;
+            int height = (int) ((bits >> 14) & 0x3FFF) + 1;
+            if ((bits >>> 29) != 0) {
+                // 版本号必须为0
+                return null;
+            }
+            return new ImageInfo("webp", width, height);
+        }
+        if (matches(chunk, 0, "VP8X")) {
+            if (n < 18 || u32le(chunk, 4) < 10) {
+                return null;
+            }
+            return new ImageInfo("webp", u24le(chunk, 12) + 1, u24le(chunk, 15) + 1);
+        }
+        return null;
+    }
+
+    /**
+     * BMP：BITMAPCOREHEADER或BITMAPINFOHEADER及其扩展
+     */
+    private static ImageInfo probeBmp(Source source) throws IOException {
+        byte[] header = new byte[26];
+        if (source.read(0, header, 0, header.length) < header.length) {
+            return null;
+        }
+        long dibSize = u32le(header, 14);
+        if (dibSize == 12) {
+            if (u16le(header, 22) != 1) {
+                return null;
+            }
+            return new ImageInfo("bmp", u16le(header, 18), u16le(header, 20));
+        }
+        if (dibSize < 40 || dibSize > 124) {
+            return null;
+        }
+        byte[] info = new byte[4];
+        if (source.read(26, info, 0, 4) < 4 || u16le(info, 0) != 1) {
+            return null;
+        }
+        int width = (int) u32le(header, 18);
+        // 高度为负表示自上而下存储
+        int height = Math.abs((int) u32le(header, 22));
+        return new ImageInfo("bmp", width, height);
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] data, String prefix) {
+        return matches(data, 0, prefix);
+    }
+
+    private static boolean matches(byte[] data, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (data[offset + i] != (byte) ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int u8(byte[] data, int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    private static int u16be(byte[] data, int offset) {
+        return (u8(data, offset) << 8) | u8(data, offset + 1);
+    }
+
+    private static int u16le(byte[] data, int offset) {
+        return u8(data, offset) | (u8(data, offset + 1) << 8);
+    }
+
+    private static int u24le(byte[] data, int offset) {
+        return u16le(data, offset) | (u8(data, offset + 2) << 16);
+    }
+
+    private static long u32be(byte[] data, int offset) {
+        return ((long) u16be(data, offset) << 16) | u16be(data, offset + 2);
+    }
+
+    private static long u32le(byte[] data, int offset) {
+        return u16le(data, offset) | ((long) u16le(data, offset + 2) << 16);
+    }
+
+    /**
+     * 可按位置读取的数据源
+     */
+    private interface Source {
+        /**
+         * 从指定位置读取，返回实际读取的字节数(不足时表示已到末尾)
+         */
+        int read(long position, byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    private static class ArraySource implements Source {
+        private final byte[] data;
+        private final int length;
+
+        ArraySource(byte[] data, int length) {
+            this.data = data;
+            this.length = Math.min(length, data.length);
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int count) {
+            if (position >= length) {
+                return 0;
+            }
+            int n = (int) Math.min(count, length - position);
+            System.arraycopy(data, (int) position, buffer, offset, n);
+            return n;
+        }
+    }
+
+    private static class ChannelSource implements Source {
+        private final FileChannel channel;
+
+        ChannelSource(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int count) throws IOException {
+            ByteBuffer target = ByteBuffer.wrap(buffer, offset, count);
+            while (target.hasRemaining()) {
+                int n = channel.read(target, position + target.position() - offset);
+                if (n < 0) {
+                    break;
+                }
+            }
+            return target.position() - offset;
+        }
+    }
+}
@@ -3,11 +3,20 @@ package com.photo.util;
 import com.photo.exception.FileStorageException;
 import lombok.extern.slf4j.Slf4j;
 import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
 
 /**
  * 图片处理工具类
@@ -16,46 +25,56 @@ import java.io.*;
 public class ImageUtils {
     
     /**
-     * 获取图片尺寸
+     * 缩略图子采样解码时保留的倍数，留给最终缩放做高质量插值
+     */
+    private static final int THUMBNAIL_OVERSAMPLE = 2;
+    
+    /**
+     * 探测图片头时读取的字节数
+     */
+    private static final int PROBE_HEADER_SIZE = 64 * 1024;
+    
+    /**
+     * 计算感知哈希时子采样解码的目标尺寸
+     */
+    private static final int DHASH_SAMPLE_SIZE = 32;
+    
+    /**
+     * 感知哈希的网格宽度(每行比较相邻的9个格子得到8位)
+     */
+    private static final int DHASH_COLUMNS = 9;
+    
+    private static final int DHASH_ROWS = 8;
+    
+    /**
+     * 获取图片尺寸(只解析文件头，不解码像素)
      */
     public static int[] getImageDimensions(File file) {
-        try {
-            BufferedImage image = ImageIO.read(file);
-            if (image == null) {
-                return new int[]{0, 0};
-            }
-            return new int[]{image.getWidth(), image.getHeight()};
-        } catch (IOException e) {
-            log.error("获取图片尺寸失败: {}", e.getMessage());
-            return new int[]{0, 0};
-        }
+        return toDimensions(ImageProbe.probe(file));
     }
     
     /**
-     * 获取图片尺寸(从MultipartFile)
+     * 获取图片尺寸(从MultipartFile，只读取文件头)
      */
     public static int[] getImageDimensions(MultipartFile file) {
-        try (InputStream inputStream = file.getInputStream()) {
-            BufferedImage image = ImageIO.read(inputStream);
-            if (image == null) {
-                return new int[]{0, 0};
-            }
-            return new int[]{image.getWidth(), image.getHeight()};
-        } catch (IOException e) {
-            log.error("获取图片尺寸失败: {}", e.getMessage());
-            return new int[]{0, 0};
-        }
+        return toDimensions(probe(file));
+    }
+    
+    /**
+     * 获取图片尺寸(从文件头部字节)
+     * 只读取图片头信息，不解码像素；头部不完整时返回{0, 0}
+     */
+    public static int[] getImageDimensions(byte[] header, int length) {
+        return toDimensions(ImageProbe.probe(header, length));
     }
     
     /**
      * 创建缩略图
+     * 先按子采样解码到接近目标尺寸的图像，再做高质量缩放，避免解码整幅原图
      */
     public static void createThumbnail(File sourceFile, File thumbnailFile, int width, int height) {
         try {
-            Thumbnails.of(sourceFile)
-                    .size(width, height)
-                    .keepAspectRatio(true)
-                    .outputQuality(0.8)
+            thumbnailBuilder(sourceFile, FileUtils.getFileExtension(thumbnailFile.getName()), width, height)
                     .toFile(thumbnailFile);
             log.debug("创建缩略图成功: {}", thumbnailFile.getAbsolutePath());
         } catch (IOException e) {
@@ -64,18 +83,158 @@ public class ImageUtils {
         }
     }
     
+    /**
+     * 创建缩略图并返回编码后的内容
+     */
+    public static byte[] createThumbnail(File sourceFile, String format, int width, int height) {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            thumbnailBuilder(sourceFile, format, width, height).toOutputStream(outputStream);
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            log.error("创建缩略图失败: {}", e.getMessage());
+            throw new FileStorageException("创建缩略图失败", e);
+        }
+    }
+    
+    private static Thumbnails.Builder<?> thumbnailBuilder(File sourceFile, String format, int width, int height)
+            throws IOException {
+        BufferedImage image = readSubsampled(sourceFile, width, height);
+        // 无可用的ImageReader时退回完整解码
+        Thumbnails.Builder<?> builder = image == null ? Thumbnails.of(sourceFile) : Thumbnails.of(image);
+        return builder
+                .size(width, height)
+                .keepAspectRatio(true)
+                .outputQuality(0.8)
+                .outputFormat(format);
+    }
+    
+    /**
+     * 按子采样解码图片，解码结果不小于目标尺寸的 {@value #THUMBNAIL_OVERSAMPLE} 倍，并按EXIF方向校正
+     *
+     * @return 无可用的ImageReader时返回null
+     */
+    public static BufferedImage readSubsampled(File file, int targetWidth, int targetHeight) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, false);
+                Orientation orientation = readOrientation(reader);
+                
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+                if (swapsAxes(orientation)) {
+                    int temp = targetWidth;
+                    targetWidth = targetHeight;
+                    targetHeight = temp;
+                }
+                
+                // 保持宽高比缩放时，缩放比例由较大的一边决定
+                double ratio = Math.max((double) sourceWidth / targetWidth, (double) sourceHeight / targetHeight);
+                int subsampling = Math.max(1, (int) (ratio / THUMBNAIL_OVERSAMPLE));
+                
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage image = reader.read(0, param);
+                
+                if (orientation != null && orientation != Orientation.TOP_LEFT) {
+                    image = ExifFilterUtils.getFilterForOrientation(orientation).apply(image);
+                }
+                log.debug("子采样解码: {}x{} -> {}x{}, 采样因子={}",
+                        sourceWidth, sourceHeight, image.getWidth(), image.getHeight(), subsampling);
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    /**
+     * 读取EXIF方向(读取失败时返回null)
+     */
+    private static Orientation readOrientation(ImageReader reader) {
+        try {
+            return ExifUtils.getExifOrientation(reader, 0);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * 该EXIF方向是否需要交换宽高
+     */
+    private static boolean swapsAxes(Orientation orientation) {
+        return orientation == Orientation.LEFT_TOP || orientation == Orientation.RIGHT_TOP
+                || orientation == Orientation.RIGHT_BOTTOM || orientation == Orientation.LEFT_BOTTOM;
+    }
+    
+    /**
+     * 计算差值感知哈希(dHash)
+     * 将图片按区域平均缩小为9x8的灰度网格，每行相邻格子左侧较亮时该位为1；
+     * 同一张照片重新编码、缩放或压缩后，哈希的汉明距离通常只有几位
+     *
+     * @return 无法解码或图片过小时返回null
+     */
+    public static Long perceptualHash(File file) {
+        BufferedImage image;
+        try {
+            image = readSubsampled(file, DHASH_SAMPLE_SIZE, DHASH_SAMPLE_SIZE);
+        } catch (IOException | RuntimeException e) {
+            log.debug("感知哈希解码失败: {}, 原因={}", file.getName(), e.getMessage());
+            return null;
+        }
+        if (image == null || image.getWidth() < DHASH_COLUMNS || image.getHeight() < DHASH_ROWS) {
+            return null;
+        }
+        
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[] sums = new double[DHASH_COLUMNS * DHASH_ROWS];
+        int[] counts = new int[DHASH_COLUMNS * DHASH_ROWS];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = y * DHASH_ROWS / height * DHASH_COLUMNS;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int cell = cellRow + x * DHASH_COLUMNS / width;
+                sums[cell] += 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+                counts[cell]++;
+            }
+        }
+        
+        long hash = 0;
+        for (int y = 0; y < DHASH_ROWS; y++) {
+            for (int x = 0; x < DHASH_COLUMNS - 1; x++) {
+                int cell = y * DHASH_COLUMNS + x;
+                hash <<= 1;
+                if (sums[cell] / counts[cell] > sums[cell + 1] / counts[cell + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+    
     /**
      * 压缩图片
      */
     public static void compressImage(File sourceFile, File targetFile, double quality, int maxWidth, int maxHeight) {
         try {
-            BufferedImage originalImage = ImageIO.read(sourceFile);
-            if (originalImage == null) {
+            ImageProbe.ImageInfo info = ImageProbe.probe(sourceFile);
+            if (info == null) {
                 throw new FileStorageException("无效的图片文件");
             }
             
-            int width = originalImage.getWidth();
-            int height = originalImage.getHeight();
+            int width = info.getWidth();
+            int height = info.getHeight();
             
             // 如果图片尺寸小于最大限制，只进行质量压缩
             if (width <= maxWidth && height <= maxHeight) {
@@ -102,17 +261,16 @@ public class ImageUtils {
      * 压缩图片(覆盖原文件)
      */
     public static void compressImage(File file, double quality, int maxWidth, int maxHeight) {
-        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        // 临时文件保留原扩展名，以便按扩展名选择图片编码器
+        File tempFile = new File(file.getParentFile(), "tmp_" + file.getName());
         try {
             compressImage(file, tempFile, quality, maxWidth, maxHeight);
-            // 删除原文件
-            if (!file.delete()) {
-                log.warn("删除原文件失败: {}", file.getAbsolutePath());
-            }
-            // 重命名临时文件
-            if (!tempFile.renameTo(file)) {
-                throw new FileStorageException("重命名临时文件失败");
-            }
+            // 原子替换原文件
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw new FileStorageException("替换原文件失败", e);
         } catch (Exception e) {
             // 清理临时文件
             if (tempFile.exists()) {
@@ -123,29 +281,47 @@ public class ImageUtils {
     }
     
     /**
-     * 验证是否为有效图片
+     * 验证是否为有效图片(校验格式头结构)
      */
     public static boolean isValidImage(File file) {
-        try {
-            BufferedImage image = ImageIO.read(file);
-            return image != null;
-        } catch (IOException e) {
-            return false;
-        }
+        return ImageProbe.probe(file) != null;
     }
     
     /**
-     * 验证是否为有效图片(从MultipartFile)
+     * 验证是否为有效图片(从MultipartFile，校验格式头结构)
      */
     public static boolean isValidImage(MultipartFile file) {
+        return probe(file) != null;
+    }
+    
+    /**
+     * 读取MultipartFile的文件头并探测
+     */
+    private static ImageProbe.ImageInfo probe(MultipartFile file) {
         try (InputStream inputStream = file.getInputStream()) {
-            BufferedImage image = ImageIO.read(inputStream);
-            return image != null;
+            byte[] header = inputStream.readNBytes(PROBE_HEADER_SIZE);
+            ImageProbe.ImageInfo info = ImageProbe.probe(header, header.length);
+            if (info == null && header.length == PROBE_HEADER_SIZE) {
+                // 文件头超出缓冲区(如EXIF较大)
+                File tempFile = File.createTempFile("probe_", ".tmp");
+                try {
+                    file.transferTo(tempFile);
+                    info = ImageProbe.probe(tempFile);
+                } finally {
+                    tempFile.delete();
+                }
+            }
+            return info;
         } catch (IOException e) {
-            return false;
+            log.error("读取图片头失败: {}", e.getMessage());
+            return null;
         }
     }
     
+    private static int[] toDimensions(ImageProbe.ImageInfo info) {
+        return info == null ? new int[]{0, 0} : new int[]{info.getWidth(), info.getHeight()};
+    }
+    
     /**
      * 旋转图片
      */
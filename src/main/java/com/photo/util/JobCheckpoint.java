@@ -0,0 +1,74 @@
+package com.photo.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * 后台任务检查点
+ * 以键值对保存任务进度，写入临时文件后原子替换，进程在任意时刻退出都只会留下完整的旧版本或新版本
+ */
+public class JobCheckpoint {
+
+    private final Path path;
+
+    private final Properties values = new Properties();
+
+    public JobCheckpoint(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 读取已保存的检查点
+     *
+     * @return 检查点不存在时返回false
+     */
+    public boolean load() throws IOException {
+        values.clear();
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            values.load(inputStream);
+        }
+        return true;
+    }
+
+    public String get(String key) {
+        return values.getProperty(key);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = values.getProperty(key);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    public JobCheckpoint set(String key, Object value) {
+        values.setProperty(key, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * 保存检查点
+     */
+    public void save() throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(temp)) {
+            values.store(outputStream, null);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 任务完成后删除检查点
+     */
+    public void clear() throws IOException {
+        values.clear();
+        Files.deleteIfExists(path);
+    }
+}
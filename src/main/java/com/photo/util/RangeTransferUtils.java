@@ -0,0 +1,182 @@
+package com.photo.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Range请求传输工具类(RFC 7233)
+ * 支持 bytes=start-end、bytes=start-、bytes=-suffix 及多个范围(multipart/byteranges)，
+ * 按If-Range校验决定是否返回部分内容；内容直接从FileChannel传输，内存占用与范围大小无关
+ */
+@Slf4j
+public class RangeTransferUtils {
+
+    private static final String BYTES_UNIT = "bytes";
+
+    private static final String CRLF = "\r\n";
+
+    /**
+     * 按Range请求头返回文件的全部或部分内容
+     *
+     * @param etag         当前内容的强ETag(含引号)，用于If-Range校验，可为null
+     * @param lastModified 最后修改时间(毫秒)，用于If-Range校验，未知时为-1
+     */
+    public static void writeRanges(HttpServletRequest request, HttpServletResponse response, Path path,
+                                   String contentType, String etag, long lastModified) throws IOException {
+        long fileSize = Files.size(path);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !"GET".equals(request.getMethod())
+                || !ifRangeMatches(request, etag, lastModified)) {
+            writeFull(request, response, path, contentType, fileSize);
+            return;
+        }
+
+        List<HttpRange> httpRanges;
+        try {
+            httpRanges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            // 无法解析的Range头按RFC 7233忽略
+            log.debug("忽略无效的Range头: {}, 原因={}", rangeHeader, e.getMessage());
+            writeFull(request, response, path, contentType, fileSize);
+            return;
+        }
+
+        List<long[]> ranges = resolve(httpRanges, fileSize);
+        if (ranges.isEmpty()) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + fileSize);
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            return;
+        }
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, fileSize));
+            FileTransferUtils.writeRegion(request, response, path, range[0], range[1] - range[0] + 1);
+        } else {
+            writeMultipart(response, path, contentType, ranges, fileSize);
+        }
+    }
+
+    /**
+     * If-Range校验：ETag需强匹配，日期需与最后修改时间一致；不匹配时返回完整内容
+     */
+    private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // 弱ETag不能用于If-Range
+            return etag != null && !ifRange.startsWith("W/") && ifRange.equals(etag);
+        }
+        try {
+            long date = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return lastModified >= 0 && date >= 0 && lastModified / 1000 == date / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 计算可满足的范围(闭区间)，忽略不可满足的范围并合并重叠或相邻的范围
+     */
+    private static List<long[]> resolve(List<HttpRange> httpRanges, long fileSize) {
+        List<long[]> ranges = new ArrayList<>();
+        for (HttpRange httpRange : httpRanges) {
+            try {
+                long start = httpRange.getRangeStart(fileSize);
+                long end = httpRange.getRangeEnd(fileSize);
+                if (start < fileSize && start <= end) {
+                    ranges.add(new long[]{start, end});
+                }
+            } catch (IllegalArgumentException e) {
+                // 起始位置超出文件大小
+            }
+        }
+        if (ranges.size() <= 1) {
+            return ranges;
+        }
+
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        List<long[]> merged = new ArrayList<>();
+        long[] current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            long[] next = ranges.get(i);
+            if (next[0] <= current[1] + 1) {
+                current = new long[]{current[0], Math.max(current[1], next[1])};
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    private static void writeFull(HttpServletRequest request, HttpServletResponse response, Path path,
+                                  String contentType, long fileSize) throws IOException {
+        response.setContentType(contentType);
+        FileTransferUtils.writeRegion(request, response, path, 0, fileSize);
+    }
+
+    /**
+     * 以multipart/byteranges返回多个范围，先计算总长度再逐段传输
+     */
+    private static void writeMultipart(HttpServletResponse response, Path path, String contentType,
+                                       List<long[]> ranges, long fileSize) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] header = (CRLF + "--" + boundary + CRLF
+                + HttpHeaders.CONTENT_TYPE + ": " + contentType + CRLF
+                + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, fileSize) + CRLF + CRLF)
+                .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + (range[1] - range[0] + 1);
+        }
+        byte[] end = (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+        contentLength += end.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+
+        OutputStream outputStream = response.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(outputStream);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                outputStream.write(partHeaders.get(i));
+                FileTransferUtils.transfer(channel, range[0], range[1] - range[0] + 1, target);
+            }
+        }
+        outputStream.write(end);
+    }
+
+    private static String contentRange(long[] range, long fileSize) {
+        return BYTES_UNIT + " " + range[0] + "-" + range[1] + "/" + fileSize;
+    }
+}
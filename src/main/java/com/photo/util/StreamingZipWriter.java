@@ -0,0 +1,357 @@
+package com.photo.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 流式ZIP写入
+ * 条目直接写入输出流，不生成中间文件：已压缩的文件使用STORED方式，先读一遍计算CRC，再通过FileChannel传输内容；
+ * 其他文件使用DEFLATED方式，CRC和大小写在内容之后的数据描述符中。
+ * 中央目录边写边追加到临时文件，结束时再复制到输出流，内存占用与条目数和文件大小无关；
+ * 条目数、文件大小或偏移量超出32位格式的限制时自动使用ZIP64扩展。
+ */
+public class StreamingZipWriter implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int VERSION_DEFAULT = 20;
+
+    private static final int VERSION_ZIP64 = 45;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final int METHOD_STORED = 0;
+
+    private static final int METHOD_DEFLATED = 8;
+
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+
+    private static final long ZIP32_ENTRY_LIMIT = 0xFFFF;
+
+    /**
+     * 超过该大小的文件不压缩，保证数据描述符中的32位大小不会溢出
+     */
+    private static final long MAX_DEFLATE_SIZE = Integer.MAX_VALUE;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel target;
+
+    private final Path spoolFile;
+
+    private final FileChannel centralDirectory;
+
+    private final ByteBuffer crcBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private long offset;
+
+    private long entryCount;
+
+    private boolean finished;
+
+    /**
+     * @param outputStream 输出流(不会被关闭)
+     * @param spoolFile    暂存中央目录的临时文件，关闭时删除
+     */
+    public StreamingZipWriter(OutputStream outputStream, Path spoolFile) throws IOException {
+        this.target = Channels.newChannel(outputStream);
+        this.spoolFile = spoolFile;
+        this.centralDirectory = FileChannel.open(spoolFile, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 写入一个文件条目
+     * 文件打开失败时不写入任何内容，调用方可以跳过该文件继续写入
+     *
+     * @param name       条目名称
+     * @param compress   是否压缩(已压缩的图片格式应传false)
+     * @param modifiedAt 条目的修改时间
+     */
+    public void putFile(String name, Path file, boolean compress, LocalDateTime modifiedAt) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("ZIP已结束");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("条目名称过长: " + name);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int dosTime = toDosTime(modifiedAt);
+            if (compress && size <= MAX_DEFLATE_SIZE) {
+                writeDeflated(nameBytes, dosTime, channel);
+            } else {
+                writeStored(nameBytes, dosTime, channel, size);
+            }
+        }
+        entryCount++;
+    }
+
+    /**
+     * 写入中央目录和结束记录
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        long centralOffset = offset;
+        long centralSize = centralDirectory.size();
+        FileTransferUtils.transfer(centralDirectory, 0, centralSize, target);
+        offset += centralSize;
+
+        boolean zip64 = entryCount >= ZIP32_ENTRY_LIMIT || centralOffset >= ZIP32_LIMIT
+            || centralSize >= ZIP32_LIMIT;
+        if (zip64) {
+            long zip64EndOffset = offset;
+            write(buffer(76)
+                .putInt(ZIP64_END_SIGNATURE)
+                .putLong(44)
+                .putShort((short) VERSION_ZIP64)
+                .putShort((short) VERSION_ZIP64)
+                .putInt(0)
+                .putInt(0)
+                .putLong(entryCount)
+                .putLong(entryCount)
+                .putLong(centralSize)
+                .putLong(centralOffset)
+                .putInt(ZIP64_LOCATOR_SIGNATURE)
+                .putInt(0)
+                .putLong(zip64EndOffset)
+                .putInt(1));
+        }
+        write(buffer(22)
+            .putInt(END_SIGNATURE)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) (zip64 ? ZIP32_ENTRY_LIMIT : entryCount))
+            .putShort((short) (zip64 ? ZIP32_ENTRY_LIMIT : entryCount))
+            .putInt((int) (zip64 ? ZIP32_LIMIT : centralSize))
+            .putInt((int) (zip64 ? ZIP32_LIMIT : centralOffset))
+            .putShort((short) 0));
+        finished = true;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * 已写入的字节数
+     */
+    public long getBytesWritten() {
+        return offset;
+    }
+
+    /**
+     * 删除中央目录临时文件(不关闭输出流)
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            centralDirectory.close();
+        } finally {
+            Files.deleteIfExists(spoolFile);
+        }
+    }
+
+    private void writeStored(byte[] name, int dosTime, FileChannel channel, long size) throws IOException {
+        long localOffset = offset;
+        long crc = crc32(channel, size);
+        boolean zip64 = size >= ZIP32_LIMIT;
+        ByteBuffer header = buffer(30 + name.length + (zip64 ? 20 : 0))
+            .putInt(LOCAL_HEADER_SIGNATURE)
+            .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT))
+            .putShort((short) FLAG_UTF8)
+            .putShort((short) METHOD_STORED)
+            .putInt(dosTime)
+            .putInt((int) crc)
+            .putInt((int) (zip64 ? ZIP32_LIMIT : size))
+            .putInt((int) (zip64 ? ZIP32_LIMIT : size))
+            .putShort((short) name.length)
+            .putShort((short) (zip64 ? 20 : 0))
+            .put(name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID)
+                .putShort((short) 16)
+                .putLong(size)
+                .putLong(size);
+        }
+        write(header);
+        FileTransferUtils.transfer(channel, 0, size, target);
+        offset += size;
+        addCentralEntry(name, METHOD_STORED, FLAG_UTF8, dosTime, crc, size, size, localOffset);
+    }
+
+    private void writeDeflated(byte[] name, int dosTime, FileChannel channel) throws IOException {
+        long localOffset = offset;
+        int flags = FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+        write(buffer(30 + name.length)
+            .putInt(LOCAL_HEADER_SIGNATURE)
+            .putShort((short) VERSION_DEFAULT)
+            .putShort((short) flags)
+            .putShort((short) METHOD_DEFLATED)
+            .putInt(dosTime)
+            .putInt(0)
+            .putInt(0)
+            .putInt(0)
+            .putShort((short) name.length)
+            .putShort((short) 0)
+            .put(name));
+
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        long compressedSize = 0;
+        long size;
+        try {
+            byte[] input = new byte[BUFFER_SIZE];
+            byte[] output = new byte[BUFFER_SIZE];
+            InputStream inputStream = Channels.newInputStream(channel);
+            int read;
+            while ((read = inputStream.read(input)) != -1) {
+                crc.update(input, 0, read);
+                deflater.setInput(input, 0, read);
+                while (!deflater.needsInput()) {
+                    compressedSize += deflate(deflater, output);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                compressedSize += deflate(deflater, output);
+            }
+            size = deflater.getBytesRead();
+        } finally {
+            deflater.end();
+        }
+
+        write(buffer(16)
+            .putInt(DATA_DESCRIPTOR_SIGNATURE)
+            .putInt((int) crc.getValue())
+            .putInt((int) compressedSize)
+            .putInt((int) size));
+        addCentralEntry(name, METHOD_DEFLATED, flags, dosTime, crc.getValue(), compressedSize, size, localOffset);
+    }
+
+    private int deflate(Deflater deflater, byte[] output) throws IOException {
+        int length = deflater.deflate(output);
+        if (length > 0) {
+            write(ByteBuffer.wrap(output, 0, length).position(length));
+        }
+        return length;
+    }
+
+    /**
+     * 追加中央目录记录，大小或偏移量超出32位时写入ZIP64扩展字段
+     */
+    private void addCentralEntry(byte[] name, int method, int flags, int dosTime, long crc,
+                                 long compressedSize, long size, long localOffset) throws IOException {
+        boolean sizes64 = compressedSize >= ZIP32_LIMIT || size >= ZIP32_LIMIT;
+        boolean offset64 = localOffset >= ZIP32_LIMIT;
+        int extraLength = sizes64 || offset64 ? 4 + (sizes64 ? 16 : 0) + (offset64 ? 8 : 0) : 0;
+        ByteBuffer entry = buffer(46 + name.length + extraLength)
+            .putInt(CENTRAL_HEADER_SIGNATURE)
+            .putShort((short) VERSION_ZIP64)
+            .putShort((short) (extraLength > 0 ? VERSION_ZIP64 : VERSION_DEFAULT))
+            .putShort((short) flags)
+            .putShort((short) method)
+            .putInt(dosTime)
+            .putInt((int) crc)
+            .putInt((int) (sizes64 ? ZIP32_LIMIT : compressedSize))
+            .putInt((int) (sizes64 ? ZIP32_LIMIT : size))
+            .putShort((short) name.length)
+            .putShort((short) extraLength)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putInt(0)
+            .putInt((int) (offset64 ? ZIP32_LIMIT : localOffset))
+            .put(name);
+        if (extraLength > 0) {
+            entry.putShort((short) ZIP64_EXTRA_ID).putShort((short) (extraLength - 4));
+            if (sizes64) {
+                entry.putLong(size).putLong(compressedSize);
+            }
+            if (offset64) {
+                entry.putLong(localOffset);
+            }
+        }
+        entry.flip();
+        while (entry.hasRemaining()) {
+            centralDirectory.write(entry);
+        }
+    }
+
+    private long crc32(FileChannel channel, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        long position = 0;
+        while (position < size) {
+            crcBuffer.clear();
+            if (size - position < crcBuffer.capacity()) {
+                crcBuffer.limit((int) (size - position));
+            }
+            int read = channel.read(crcBuffer, position);
+            if (read < 0) {
+                throw new IOException("文件在读取过程中被截断");
+            }
+            crcBuffer.flip();
+            crc.update(crcBuffer);
+            position += read;
+        }
+        return crc.getValue();
+    }
+
+    private static ByteBuffer buffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 写入已填充的缓冲区(写入前翻转)
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        offset += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * 转换为MS-DOS时间格式(高16位为日期，低16位为时间)，早于1980年的按1980年1月1日处理
+     */
+    static int toDosTime(LocalDateTime time) {
+        if (time == null || time.getYear() < 1980) {
+            time = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        int date = (time.getYear() - 1980) << 9 | time.getMonthValue() << 5 | time.getDayOfMonth();
+        int clock = time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+        return date << 16 | clock;
+    }
+}
@@ -13,7 +13,9 @@ CREATE TABLE IF NOT EXISTS photos (
     extension VARCHAR(20) NOT NULL COMMENT '文件扩展名',
     width INT COMMENT '图片宽度',
     height INT COMMENT '图片高度',
-    md5 VARCHAR(32) UNIQUE COMMENT 'MD5值',
+    md5 VARCHAR(32) COMMENT 'MD5值',
+    perceptual_hash BIGINT COMMENT '感知哈希(dHash)',
+    blob_filename VARCHAR(100) COMMENT '引用的内容文件名',
     user_id VARCHAR(50) NOT NULL COMMENT '上传用户ID',
     access_count BIGINT DEFAULT 0 NOT NULL COMMENT '访问次数',
     download_count BIGINT DEFAULT 0 NOT NULL COMMENT '下载次数',
@@ -24,13 +26,49 @@ CREATE TABLE IF NOT EXISTS photos (
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP NOT NULL COMMENT '更新时间',
     last_accessed_at TIMESTAMP COMMENT '最后访问时间',
     ip_address VARCHAR(50) COMMENT 'IP地址',
+    derivative_status VARCHAR(20) DEFAULT 'PENDING' COMMENT '衍生图生成状态(为空表示历史数据已同步生成)',
+    derivative_updated_at TIMESTAMP NULL COMMENT '衍生图状态变化时间',
+    derivative_attempts INT DEFAULT 0 COMMENT '衍生图生成失败次数',
     
     INDEX idx_original_filename (original_filename),
     INDEX idx_created_at (created_at),
     INDEX idx_user_id (user_id),
-    INDEX idx_md5 (md5)
+    INDEX idx_md5 (md5),
+    INDEX idx_blob_filename (blob_filename),
+    INDEX idx_user_created (user_id, deleted, created_at, id),
+    INDEX idx_public_created (is_public, deleted, created_at, id),
+    INDEX idx_deleted_created (deleted, created_at, id),
+    INDEX idx_derivative_status (derivative_status, derivative_updated_at)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='照片信息表';
 
+-- 内容存储表(相同内容只存储一份)
+CREATE TABLE IF NOT EXISTS photo_blobs (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    hash VARCHAR(64) NOT NULL UNIQUE COMMENT 'SHA-256值',
+    stored_filename VARCHAR(100) NOT NULL UNIQUE COMMENT '内容文件名',
+    file_size BIGINT NOT NULL COMMENT '文件大小(字节)',
+    ref_count BIGINT DEFAULT 1 NOT NULL COMMENT '引用数',
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL COMMENT '创建时间'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='内容存储表';
+
+-- 主键号段表(照片和内容记录的ID每次分配50个，支持批量插入)
+CREATE TABLE IF NOT EXISTS id_generators (
+    name VARCHAR(255) NOT NULL PRIMARY KEY COMMENT '表名',
+    next_val BIGINT COMMENT '下一号段的上界'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='主键号段表';
+
+-- 已有数据库升级: 号段起点由服务启动时按各表最大ID自动校准，id列的AUTO_INCREMENT可保留
+-- 已有数据库升级: md5不再唯一(不同用户可上传相同内容)，JPA自动更新不会删除唯一约束
+-- ALTER TABLE photos DROP INDEX md5;
+-- 已有数据库升级: 感知哈希由服务启动后在后台补算
+-- ALTER TABLE photos ADD COLUMN perceptual_hash BIGINT COMMENT '感知哈希(dHash)';
+-- 已有数据库升级: 衍生图异步生成，已有照片的状态保持为空(衍生图已同步生成)，不会被重新处理
+-- ALTER TABLE photos ADD COLUMN derivative_status VARCHAR(20) COMMENT '衍生图生成状态(为空表示历史数据已同步生成)';
+-- ALTER TABLE photos ALTER COLUMN derivative_status SET DEFAULT 'PENDING';
+-- ALTER TABLE photos ADD COLUMN derivative_attempts INT DEFAULT 0 COMMENT '衍生图生成失败次数';
+-- ALTER TABLE photos ADD COLUMN derivative_updated_at TIMESTAMP NULL COMMENT '衍生图状态变化时间';
+-- ALTER TABLE photos ADD INDEX idx_derivative_status (derivative_status, derivative_updated_at);
+
 -- 插入测试数据(可选)
 -- INSERT INTO photos (original_filename, stored_filename, file_path, file_size, content_type, extension, user_id)
 -- VALUES ('test.jpg', 'abc123.jpg', '/uploads/abc123.jpg', 1024000, 'image/jpeg', 'jpg', 'admin');
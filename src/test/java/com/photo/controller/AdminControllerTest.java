@@ -0,0 +1,64 @@
+package com.photo.controller;
+
+import com.photo.config.SecurityConfig;
+import com.photo.config.SecurityProperties;
+import com.photo.dto.ReconcileStatus;
+import com.photo.service.BulkImportService;
+import com.photo.service.OrphanReconciler;
+import com.photo.service.PhotoSearchIndex;
+import com.photo.service.StorageLayoutMigrator;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * AdminController单元测试(含管理接口的访问控制)
+ */
+@WebMvcTest(AdminController.class)
+@Import({SecurityConfig.class, SecurityProperties.class})
+@TestPropertySource(properties = "security.admin.password=secret")
+class AdminControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private StorageLayoutMigrator storageLayoutMigrator;
+
+    @MockBean
+    private OrphanReconciler orphanReconciler;
+
+    @MockBean
+    private BulkImportService bulkImportService;
+
+    @MockBean
+    private PhotoSearchIndex photoSearchIndex;
+
+    @Test
+    void testRejectAnonymous() throws Exception {
+        mockMvc.perform(post("/admin/storage/reconcile"))
+            .andExpect(status().isUnauthorized());
+        mockMvc.perform(post("/admin/storage/reconcile").with(httpBasic("admin", "wrong")))
+            .andExpect(status().isUnauthorized());
+        verifyNoInteractions(orphanReconciler);
+    }
+
+    @Test
+    void testStartReconcileAsAdmin() throws Exception {
+        when(orphanReconciler.start()).thenReturn(ReconcileStatus.builder().running(true).build());
+
+        mockMvc.perform(post("/admin/storage/reconcile").with(httpBasic("admin", "secret")))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.data.running").value(true));
+        verify(orphanReconciler).start();
+    }
+}
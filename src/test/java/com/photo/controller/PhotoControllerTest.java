@@ -6,7 +6,12 @@ import com.photo.dto.PhotoDTO;
 import com.photo.dto.PhotoUploadResponse;
 import com.photo.entity.Photo;
 import com.photo.service.FileStorageService;
+import com.photo.service.ImageByteCache;
+import com.photo.service.PhotoExportService;
 import com.photo.service.PhotoService;
+import com.photo.service.RenditionService;
+import com.photo.service.ResumableUploadService;
+import com.photo.service.UploadProgressRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,6 +48,21 @@ class PhotoControllerTest {
     @MockBean
     private FileStorageService fileStorageService;
     
+    @MockBean
+    private RenditionService renditionService;
+    
+    @MockBean
+    private ImageByteCache imageByteCache;
+    
+    @MockBean
+    private PhotoExportService photoExportService;
+    
+    @MockBean
+    private ResumableUploadService resumableUploadService;
+    
+    @MockBean
+    private UploadProgressRegistry uploadProgressRegistry;
+    
     @MockBean
     private SecurityProperties securityProperties;
     
@@ -90,7 +110,7 @@ class PhotoControllerTest {
             "test image content".getBytes()
         );
         
-        when(photoService.uploadPhoto(any(), anyString(), anyString()))
+        when(photoService.uploadPhoto(any(), anyString(), anyString(), isNull()))
             .thenReturn(uploadResponse);
         
         // When & Then
@@ -102,7 +122,7 @@ class PhotoControllerTest {
             .andExpect(jsonPath("$.code").value(200))
             .andExpect(jsonPath("$.data.originalFilename").value("test.jpg"));
         
-        verify(photoService, times(1)).uploadPhoto(any(), eq("testUser"), eq("Test photo"));
+        verify(photoService, times(1)).uploadPhoto(any(), eq("testUser"), eq("Test photo"), isNull());
     }
     
     @Test
@@ -0,0 +1,148 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * AccessCounterBuffer单元测试
+ */
+class AccessCounterBufferTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+    /**
+     * 照片ID到已写入数据库的访问次数和下载次数
+     */
+    private final Map<Long, long[]> written = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean failWrites = new AtomicBoolean();
+
+    private AccessCounterBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList(), any(int[].class))).thenAnswer(invocation -> {
+            if (failWrites.get()) {
+                throw new QueryTimeoutException("timeout");
+            }
+            List<Object[]> batch = invocation.getArgument(1);
+            for (Object[] args : batch) {
+                long[] counts = written.computeIfAbsent((Long) args[3], id -> new long[2]);
+                counts[0] += (long) args[0];
+                counts[1] += (long) args[1];
+            }
+            return new int[batch.size()];
+        });
+
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.getCounter().setFlushInterval(3_600_000L);
+        properties.getCounter().setMaxPending(Long.MAX_VALUE);
+        properties.getCounter().setBatchSize(2);
+
+        buffer = new AccessCounterBuffer();
+        ReflectionTestUtils.setField(buffer, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(buffer, "storageProperties", properties);
+        ReflectionTestUtils.setField(buffer, "meterRegistry", new SimpleMeterRegistry());
+        buffer.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        buffer.shutdown();
+    }
+
+    @Test
+    void testFlushMergesCounts() {
+        for (int i = 0; i < 3; i++) {
+            buffer.recordAccess(1L);
+        }
+        buffer.recordDownload(1L);
+        buffer.recordDownload(2L);
+        buffer.recordAccess(3L);
+        assertEquals(6, buffer.getPendingDeltas());
+
+        buffer.flush();
+
+        assertArrayEquals(new long[]{3, 1}, written.get(1L));
+        assertArrayEquals(new long[]{0, 1}, written.get(2L));
+        assertArrayEquals(new long[]{1, 0}, written.get(3L));
+        assertEquals(0, buffer.getPendingDeltas());
+
+        // 没有新计数时不写入
+        clearInvocations(jdbcTemplate);
+        buffer.flush();
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void testRestoreAfterFailedWrite() {
+        buffer.recordAccess(1L);
+        buffer.recordDownload(2L);
+        failWrites.set(true);
+        buffer.flush();
+        assertTrue(written.isEmpty());
+        assertEquals(2, buffer.getPendingDeltas());
+
+        // 失败期间的新计数与放回的增量合并写入
+        buffer.recordAccess(1L);
+        failWrites.set(false);
+        buffer.flush();
+
+        assertArrayEquals(new long[]{2, 0}, written.get(1L));
+        assertArrayEquals(new long[]{0, 1}, written.get(2L));
+        assertEquals(0, buffer.getPendingDeltas());
+    }
+
+    @Test
+    void testNoCountsLostWhileFlushingConcurrently() throws Exception {
+        int threads = 4;
+        int perThread = 50_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicLong recorded = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    // 少量照片反复计数，刷新时频繁遇到正在累加的条目
+                    long photoId = i % 8;
+                    if (i % 3 == 0) {
+                        buffer.recordDownload(photoId);
+                    } else {
+                        buffer.recordAccess(photoId);
+                    }
+                    recorded.incrementAndGet();
+                }
+                done.countDown();
+            });
+        }
+        while (!done.await(1, TimeUnit.MILLISECONDS)) {
+            buffer.flush();
+        }
+        executor.shutdown();
+        buffer.flush();
+
+        long total = written.values().stream().mapToLong(counts -> counts[0] + counts[1]).sum();
+        assertEquals(recorded.get(), total);
+        assertEquals(0, buffer.getPendingDeltas());
+    }
+}
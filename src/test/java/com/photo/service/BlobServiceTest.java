@@ -0,0 +1,179 @@
+package com.photo.service;
+
+import com.photo.dto.IngestedFile;
+import com.photo.entity.PhotoBlob;
+import com.photo.repository.PhotoBlobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * BlobService单元测试
+ */
+class BlobServiceTest {
+
+    private static final String HASH = "f41df56802becd7f66d2614a9d9a5f785d0bc95d9206cd54658d3c372213be86";
+
+    private static final String BLOB_FILENAME = HASH + ".jpg";
+
+    private final PhotoBlobRepository photoBlobRepository = mock(PhotoBlobRepository.class);
+
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+
+    private final RenditionService renditionService = mock(RenditionService.class);
+
+    private BlobService blobService;
+
+    @BeforeEach
+    void setUp() {
+        blobService = new BlobService();
+        ReflectionTestUtils.setField(blobService, "photoBlobRepository", photoBlobRepository);
+        ReflectionTestUtils.setField(blobService, "fileStorageService", fileStorageService);
+        ReflectionTestUtils.setField(blobService, "renditionService", renditionService);
+        when(photoBlobRepository.save(any(PhotoBlob.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void testSharedBlobSurvivesReleaseOfOneReference() {
+        PhotoBlob blob = blob(2L);
+        when(photoBlobRepository.findByStoredFilenameForUpdate(BLOB_FILENAME)).thenReturn(Optional.of(blob));
+
+        assertEquals(0, blobService.release(BLOB_FILENAME));
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertEquals(1L, blob.getRefCount());
+        verify(photoBlobRepository).save(blob);
+        verify(photoBlobRepository, never()).delete(any());
+        verifyNoInteractions(fileStorageService, renditionService);
+    }
+
+    @Test
+    void testLastReferenceDeletesFilesAfterCommit() {
+        PhotoBlob blob = blob(1L);
+        when(photoBlobRepository.findByStoredFilenameForUpdate(BLOB_FILENAME)).thenReturn(Optional.of(blob));
+
+        assertEquals(100L, blobService.release(BLOB_FILENAME));
+        verify(photoBlobRepository).delete(blob);
+        // 提交前不删除文件
+        verifyNoInteractions(fileStorageService, renditionService);
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        verify(fileStorageService).deleteFile(BLOB_FILENAME);
+        verify(fileStorageService).deleteThumbnail(BLOB_FILENAME);
+        verify(renditionService).deleteRenditions(BLOB_FILENAME);
+    }
+
+    @Test
+    void testLastReferenceKeepsFilesOnRollback() {
+        when(photoBlobRepository.findByStoredFilenameForUpdate(BLOB_FILENAME)).thenReturn(Optional.of(blob(1L)));
+
+        blobService.release(BLOB_FILENAME);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        verifyNoInteractions(fileStorageService, renditionService);
+    }
+
+    @Test
+    void testRollbackDeletesNewlyCommittedBlob() {
+        IngestedFile ingestedFile = IngestedFile.builder().sha256(HASH).fileSize(100L).build();
+        when(fileStorageService.commitBlob(ingestedFile)).thenReturn(BLOB_FILENAME);
+
+        blobService.lock(HASH);
+        PhotoBlob blob = blobService.create(ingestedFile);
+        assertEquals(BLOB_FILENAME, blob.getStoredFilename());
+        assertEquals(1L, blob.getRefCount());
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        verify(fileStorageService).deleteFile(BLOB_FILENAME);
+        verify(fileStorageService).deleteThumbnail(BLOB_FILENAME);
+        verify(renditionService).deleteRenditions(BLOB_FILENAME);
+    }
+
+    @Test
+    void testCommittedBlobIsKept() {
+        IngestedFile ingestedFile = IngestedFile.builder().sha256(HASH).fileSize(100L).build();
+        when(fileStorageService.commitBlob(ingestedFile)).thenReturn(BLOB_FILENAME);
+
+        blobService.create(ingestedFile);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        verify(fileStorageService, never()).deleteFile(any());
+    }
+
+    @Test
+    void testReuploadDuringOrphanDeletionKeepsFiles() throws Exception {
+        // 重新上传相同内容的事务持有内容锁
+        IngestedFile ingestedFile = IngestedFile.builder().sha256(HASH).fileSize(100L).build();
+        when(fileStorageService.commitBlob(ingestedFile)).thenReturn(BLOB_FILENAME);
+        blobService.lock(HASH);
+        blobService.create(ingestedFile);
+
+        CompletableFuture<Void> deletion = CompletableFuture.runAsync(
+            () -> blobService.deleteOrphanedFiles(BLOB_FILENAME));
+        Thread.sleep(200);
+        assertFalse(deletion.isDone(), "上传事务结束前删除应等待内容锁");
+
+        // 上传提交后内容记录已存在
+        when(photoBlobRepository.existsByStoredFilename(BLOB_FILENAME)).thenReturn(true);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        deletion.get(5, TimeUnit.SECONDS);
+
+        verify(fileStorageService, never()).deleteFile(any());
+        verifyNoInteractions(renditionService);
+    }
+
+    @Test
+    void testOrphanDeletionWithoutReupload() {
+        when(photoBlobRepository.existsByStoredFilename(BLOB_FILENAME)).thenReturn(false);
+
+        blobService.deleteOrphanedFiles(BLOB_FILENAME);
+
+        verify(fileStorageService).deleteFile(BLOB_FILENAME);
+        verify(renditionService).deleteRenditions(BLOB_FILENAME);
+    }
+
+    /**
+     * 模拟事务结束，依次执行已注册的回调
+     */
+    private static void complete(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        if (status == TransactionSynchronization.STATUS_COMMITTED) {
+            TransactionSynchronizationUtils.invokeAfterCommit(synchronizations);
+        }
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, status);
+    }
+
+    private static PhotoBlob blob(long refCount) {
+        return PhotoBlob.builder()
+            .id(1L)
+            .hash(HASH)
+            .storedFilename(BLOB_FILENAME)
+            .fileSize(100L)
+            .refCount(refCount)
+            .build();
+    }
+}
@@ -0,0 +1,131 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.dto.BatchUploadItem;
+import com.photo.dto.ImportStatus;
+import com.photo.dto.IngestedFile;
+import com.photo.exception.AccessDeniedException;
+import com.photo.util.JobCheckpoint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * BulkImportService单元测试
+ */
+class BulkImportServiceTest {
+
+    @TempDir
+    Path root;
+
+    @TempDir
+    Path jobs;
+
+    private final List<String> imported = Collections.synchronizedList(new ArrayList<>());
+
+    private final DerivativeService derivativeService = mock(DerivativeService.class);
+
+    private BulkImportService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // a-b 按文件名排在 a 之前，a/ 下的文件必须在 a-b/ 之后处理
+        for (String name : new String[]{"a/1.jpg", "a/2.png", "a/sub/3.jpg", "a-b/4.jpg", "b/5.gif", "6.jpg",
+                "notes.txt"}) {
+            Path file = root.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.write(file, new byte[]{1, 2, 3});
+        }
+
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.getBulkImport().setAllowedRoots(List.of(root.toString()));
+        properties.getBulkImport().setCheckpointPath(jobs.resolve("import.properties").toString());
+        properties.getBulkImport().setBatchSize(2);
+
+        FileStorageService fileStorageService = mock(FileStorageService.class);
+        when(fileStorageService.ingest(any(), anyString())).thenAnswer(invocation -> IngestedFile.builder()
+            .originalFilename(invocation.getArgument(1))
+            .fileSize(3L)
+            .build());
+
+        PhotoService photoService = mock(PhotoService.class);
+        when(photoService.importPhotos(anyList(), anyString(), any(), anyList())).thenAnswer(invocation -> {
+            List<IngestedFile> files = invocation.getArgument(0);
+            List<Long> derivativeIds = invocation.getArgument(3);
+            files.forEach(file -> {
+                imported.add(file.getOriginalFilename());
+                derivativeIds.add((long) imported.size());
+            });
+            return IntStream.range(0, files.size())
+                .mapToObj(i -> BatchUploadItem.builder().index(i).success(true).build())
+                .collect(Collectors.toList());
+        });
+
+        service = new BulkImportService();
+        ReflectionTestUtils.setField(service, "storageProperties", properties);
+        ReflectionTestUtils.setField(service, "fileStorageService", fileStorageService);
+        ReflectionTestUtils.setField(service, "photoService", photoService);
+        ReflectionTestUtils.setField(service, "derivativeService", derivativeService);
+    }
+
+    @Test
+    void testImportDirectoryTree() throws Exception {
+        ImportStatus status = awaitFinished(service.start(root.toString(), "u1", null));
+
+        assertEquals(6, imported.size());
+        assertTrue(imported.containsAll(List.of("1.jpg", "2.png", "3.jpg", "4.jpg", "5.gif", "6.jpg")));
+        assertEquals(6, status.getSucceededFiles());
+        assertEquals(1, status.getIgnoredFiles());
+        assertEquals(18, status.getImportedBytes());
+        assertEquals(6, status.getProcessedDerivatives());
+        verify(derivativeService, times(6)).generateNow(anyLong());
+        assertFalse(Files.exists(jobs.resolve("import.properties")));
+    }
+
+    @Test
+    void testResumeFromCheckpoint() throws Exception {
+        // 上次已处理到 a/2.png (含)，6.jpg 按文件名排在 a 之前，也已处理
+        new JobCheckpoint(jobs.resolve("import.properties"))
+            .set("root", root.toRealPath())
+            .set("userId", "u1")
+            .set("position", Path.of("a", "2.png"))
+            .set("positionDone", true)
+            .set("succeeded", 3)
+            .save();
+
+        ImportStatus status = awaitFinished(service.start(root.toString(), "u1", null));
+
+        assertEquals("a/2.png", status.getResumedFrom().replace('\\', '/'));
+        assertEquals(List.of("3.jpg", "4.jpg", "5.gif"), imported.stream().sorted().collect(Collectors.toList()));
+        assertEquals(6, status.getSucceededFiles());
+    }
+
+    @Test
+    void testRejectDirectoryOutsideAllowedRoots() {
+        assertThrows(AccessDeniedException.class,
+            () -> service.start(jobs.toString(), "u1", null));
+    }
+
+    private ImportStatus awaitFinished(ImportStatus status) throws InterruptedException {
+        for (int i = 0; i < 200 && status.getRunning(); i++) {
+            Thread.sleep(50);
+            status = service.getStatus();
+        }
+        assertFalse(status.getRunning());
+        return status;
+    }
+}
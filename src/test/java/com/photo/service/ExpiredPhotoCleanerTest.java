@@ -0,0 +1,140 @@
+package com.photo.service;
+
+import com.photo.entity.Photo;
+import com.photo.entity.PhotoBlob;
+import com.photo.repository.PhotoBlobRepository;
+import com.photo.repository.PhotoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ExpiredPhotoCleaner单元测试
+ */
+class ExpiredPhotoCleanerTest {
+
+    private static final int ROUNDS = 200;
+
+    private final LocalDateTime expiryDate = LocalDateTime.now();
+
+    private ExpiredPhotoCleaner cleaner;
+
+    private BlobService blobService;
+
+    private FileStorageService fileStorageService;
+
+    private List<String> hashes;
+
+    private List<Photo> photos;
+
+    @BeforeEach
+    void setUp() {
+        // 按内容锁分段倒序排列，修复前清理逐个释放引用时按此顺序加锁，与批量导入的升序相反
+        hashes = IntStream.range(0, 40)
+            .mapToObj(i -> String.format("%064x", i * 7919L))
+            .sorted(Comparator.comparingInt((String hash) -> Math.floorMod(hash.hashCode(), 64)).reversed())
+            .collect(Collectors.toList());
+        photos = new ArrayList<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            photos.add(Photo.builder()
+                .id((long) i + 1)
+                .blobFilename(hashes.get(i) + ".jpg")
+                .fileSize(3L)
+                .deleted(false)
+                .createdAt(expiryDate.minusDays(1))
+                .build());
+        }
+
+        PhotoRepository photoRepository = mock(PhotoRepository.class);
+        when(photoRepository.findAllByIdInForUpdate(anyList())).thenReturn(photos);
+        PhotoBlobRepository photoBlobRepository = mock(PhotoBlobRepository.class);
+        when(photoBlobRepository.findByStoredFilenameForUpdate(anyString())).thenAnswer(invocation ->
+            Optional.of(PhotoBlob.builder()
+                .storedFilename(invocation.getArgument(0))
+                .fileSize(3L)
+                .refCount(1L)
+                .build()));
+        fileStorageService = mock(FileStorageService.class);
+
+        blobService = new BlobService();
+        ReflectionTestUtils.setField(blobService, "photoBlobRepository", photoBlobRepository);
+        ReflectionTestUtils.setField(blobService, "fileStorageService", fileStorageService);
+        ReflectionTestUtils.setField(blobService, "renditionService", mock(RenditionService.class));
+
+        cleaner = new ExpiredPhotoCleaner();
+        ReflectionTestUtils.setField(cleaner, "photoRepository", photoRepository);
+        ReflectionTestUtils.setField(cleaner, "blobService", blobService);
+        ReflectionTestUtils.setField(cleaner, "storageUsageTracker", mock(StorageUsageTracker.class));
+        ReflectionTestUtils.setField(cleaner, "photoSearchIndex", mock(PhotoSearchIndex.class));
+        ReflectionTestUtils.setField(cleaner, "similarityIndex", mock(SimilarityIndex.class));
+        ReflectionTestUtils.setField(cleaner, "cacheManager", mock(CacheManager.class));
+        ReflectionTestUtils.setField(cleaner, "cleanupExecutor", new SyncTaskExecutor());
+    }
+
+    @Test
+    void testCleanupConcurrentWithImport() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                CompletableFuture<Void> cleanup = CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < ROUNDS; i++) {
+                        List<Runnable> fileDeletions = new ArrayList<>();
+                        inTransaction(() -> cleaner.deleteBatch(List.of(1L), expiryDate, fileDeletions));
+                        // 与 run() 相同，在事务结束、内容锁释放后删除文件
+                        fileDeletions.forEach(Runnable::run);
+                    }
+                }, executor);
+                CompletableFuture<Void> bulkImport = CompletableFuture.runAsync(() -> {
+                    // 与批量导入相同的加锁方式
+                    Set<String> batch = Set.copyOf(hashes);
+                    for (int i = 0; i < ROUNDS; i++) {
+                        inTransaction(() -> blobService.lockAll(batch));
+                    }
+                }, executor);
+                CompletableFuture.allOf(cleanup, bulkImport).join();
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(fileStorageService, times(ROUNDS * hashes.size())).deleteFile(anyString());
+    }
+
+    /**
+     * 模拟一个已提交的事务，依次触发afterCommit和afterCompletion回调
+     */
+    private static void inTransaction(Runnable body) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            body.run();
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationUtils.invokeAfterCommit(synchronizations);
+            TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations,
+                TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+}
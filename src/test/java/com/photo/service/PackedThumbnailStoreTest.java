@@ -0,0 +1,172 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PackedThumbnailStore单元测试
+ */
+class PackedThumbnailStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileStorageProperties properties;
+
+    private PackedThumbnailStore store;
+
+    @BeforeEach
+    void setUp() {
+        properties = new FileStorageProperties();
+        properties.setPackPath(tempDir.toString());
+        store = open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void testPutGetDeleteSurviveRestart() {
+        store.put("a.jpg", bytes("first"));
+        store.put("b.jpg", bytes("second"));
+        store.put("a.jpg", bytes("replaced"));
+        store.delete("b.jpg");
+
+        assertEquals("replaced", text(store.get("a.jpg")));
+        assertNull(store.get("b.jpg"));
+
+        reopen();
+
+        assertEquals(1, store.size());
+        assertEquals("replaced", text(store.get("a.jpg")));
+        assertFalse(store.contains("b.jpg"));
+    }
+
+    @Test
+    void testTruncatedRecordIsDiscarded() throws IOException {
+        store.put("a.jpg", bytes("complete"));
+        store.put("b.jpg", bytes("torn write"));
+        store.close();
+
+        Path volume = volumes()[0];
+        try (FileChannel channel = FileChannel.open(volume, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        store = open();
+
+        assertEquals("complete", text(store.get("a.jpg")));
+        assertNull(store.get("b.jpg"));
+
+        // 截断后可以继续追加
+        store.put("c.jpg", bytes("after"));
+        reopen();
+        assertEquals("after", text(store.get("c.jpg")));
+    }
+
+    @Test
+    void testCompactionKeepsLiveEntriesAndDeletions() throws IOException {
+        // 每个卷只能容纳少量记录
+        properties.getPack().setVolumeSize(100L);
+        for (int i = 0; i < 6; i++) {
+            store.put("k" + i + ".jpg", bytes("value-" + i));
+        }
+        store.delete("k0.jpg");
+        store.delete("k1.jpg");
+        store.delete("k2.jpg");
+        int before = volumes().length;
+
+        assertTrue(store.compact() > 0);
+        assertTrue(volumes().length <= before);
+
+        for (int i = 3; i < 6; i++) {
+            assertEquals("value-" + i, text(store.get("k" + i + ".jpg")));
+        }
+
+        reopen();
+        assertEquals(3, store.size());
+        for (int i = 0; i < 3; i++) {
+            assertFalse(store.contains("k" + i + ".jpg"));
+        }
+        for (int i = 3; i < 6; i++) {
+            assertEquals("value-" + i, text(store.get("k" + i + ".jpg")));
+        }
+    }
+
+    @Test
+    void testReadAcrossMappedChunks() {
+        // 记录跨越16MB分块边界，第二个卷写满切换后末尾分块不满
+        properties.getPack().setVolumeSize(20L * 1024 * 1024);
+        int count = 24;
+        for (int i = 0; i < count; i++) {
+            store.put("k" + i + ".jpg", payload(i));
+        }
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < count; i++) {
+                ByteBuffer buffer = store.get("k" + i + ".jpg");
+                assertNotNull(buffer);
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+                assertArrayEquals(payload(i), data);
+            }
+            reopen();
+        }
+    }
+
+    private static byte[] payload(int seed) {
+        byte[] data = new byte[1024 * 1024 + seed];
+        Arrays.fill(data, (byte) seed);
+        data[0] = (byte) (seed + 1);
+        data[data.length - 1] = (byte) (seed + 2);
+        return data;
+    }
+
+    private PackedThumbnailStore open() {
+        PackedThumbnailStore packedStore = new PackedThumbnailStore();
+        ReflectionTestUtils.setField(packedStore, "storageProperties", properties);
+        ReflectionTestUtils.setField(packedStore, "maintenanceExecutor", (Executor) Runnable::run);
+        packedStore.init();
+        return packedStore;
+    }
+
+    private void reopen() {
+        store.close();
+        store = open();
+    }
+
+    private Path[] volumes() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.sorted().toArray(Path[]::new);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(ByteBuffer buffer) {
+        assertNotNull(buffer);
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
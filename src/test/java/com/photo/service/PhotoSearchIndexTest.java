@@ -0,0 +1,130 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.entity.Photo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PhotoSearchIndex单元测试
+ */
+class PhotoSearchIndexTest {
+
+    private static final LocalDateTime BASE_TIME = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @TempDir
+    Path tempDir;
+
+    private FileStorageProperties properties;
+
+    private PhotoSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        properties = new FileStorageProperties();
+        properties.getSearch().setPath(tempDir.toString());
+        index = open();
+        index.add(photo(1L, "sunset_beach.jpg", null));
+        index.add(photo(2L, "IMG_0001.jpg", "Sunset over the lake"));
+        index.add(photo(3L, "Sunsets.png", null));
+        index.add(photo(4L, "holiday.jpg", "family trip"));
+    }
+
+    @Test
+    void testRelevanceRanking() {
+        // 文件名匹配优先于描述匹配，得分相同时新的在前
+        PhotoSearchIndex.SearchResult result = index.search("sunset", 0, 10);
+        assertEquals(List.of(3L, 1L, 2L), result.getIds());
+        assertEquals(3, result.getTotal());
+
+        assertEquals(List.of(1L), index.search("sunset", 1, 1).getIds());
+
+        // 拼写有误时按三元组匹配比例返回近似结果
+        assertTrue(index.search("sunsett", 0, 10).getIds().containsAll(List.of(1L, 2L, 3L)));
+        assertTrue(index.searchAfter("sunsett", null, null, 10).isEmpty());
+
+        // 少于3个字符的关键字
+        assertEquals(List.of(4L), index.search("ho", 0, 10).getIds());
+    }
+
+    @Test
+    void testSearchAfterCursor() {
+        assertEquals(List.of(4L, 2L), index.searchAfter("jpg", null, null, 2));
+        assertEquals(List.of(1L), index.searchAfter("jpg", BASE_TIME.plusMinutes(2), 2L, 2));
+        assertEquals(List.of(4L), index.searchAfter("FAMILY", null, null, 10));
+    }
+
+    @Test
+    void testSearchAfterCursorWithinSameSecond() {
+        // 新加入的记录带有秒以下的部分，游标来自只保存到秒的数据库
+        LocalDateTime second = BASE_TIME.plusHours(1);
+        for (long id = 10; id < 13; id++) {
+            Photo photo = photo(id, "burst_" + id + ".jpg", null);
+            photo.setCreatedAt(second.plusNanos((13 - id) * 100_000_000L));
+            index.add(photo);
+        }
+
+        assertEquals(List.of(12L), index.searchAfter("burst", null, null, 1));
+        assertEquals(List.of(11L), index.searchAfter("burst", second, 12L, 1));
+        assertEquals(List.of(10L), index.searchAfter("burst", second, 11L, 1));
+        assertTrue(index.searchAfter("burst", second, 10L, 1).isEmpty());
+    }
+
+    @Test
+    void testRemoveFlushAndReload() throws IOException {
+        index.remove(3L);
+        assertEquals(List.of(1L, 2L), index.search("sunset", 0, 10).getIds());
+
+        index.flush();
+        index = open();
+        assertEquals(3, index.size());
+        assertEquals(List.of(1L, 2L), index.search("sunset", 0, 10).getIds());
+
+        // 段数超过上限时合并并清除已删除的记录
+        properties.getSearch().setMaxSegments(1);
+        index.add(photo(5L, "sunset_again.jpg", null));
+        index.remove(1L);
+        index.flush();
+        assertEquals(1, segmentFiles());
+
+        index = open();
+        assertEquals(3, index.size());
+        assertEquals(List.of(5L, 2L), index.search("sunset", 0, 10).getIds());
+    }
+
+    private PhotoSearchIndex open() {
+        PhotoSearchIndex searchIndex = new PhotoSearchIndex();
+        ReflectionTestUtils.setField(searchIndex, "storageProperties", properties);
+        ReflectionTestUtils.setField(searchIndex, "maintenanceExecutor", (Executor) Runnable::run);
+        searchIndex.init();
+        ReflectionTestUtils.setField(searchIndex, "ready", true);
+        return searchIndex;
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+
+    private static Photo photo(Long id, String originalFilename, String description) {
+        return Photo.builder()
+            .id(id)
+            .originalFilename(originalFilename)
+            .description(description)
+            .createdAt(BASE_TIME.plusMinutes(id))
+            .build();
+    }
+}
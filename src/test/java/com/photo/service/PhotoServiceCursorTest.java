@@ -0,0 +1,137 @@
+package com.photo.service;
+
+import com.photo.dto.ApiResponse;
+import com.photo.dto.CursorPage;
+import com.photo.dto.PhotoDTO;
+import com.photo.entity.Photo;
+import com.photo.exception.GlobalExceptionHandler;
+import com.photo.exception.InvalidCursorException;
+import com.photo.repository.PhotoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * PhotoService游标分页单元测试
+ */
+class PhotoServiceCursorTest {
+
+    private static final LocalDateTime BASE_TIME = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private static final String USER_ID = "u1";
+
+    private final PhotoRepository photoRepository = mock(PhotoRepository.class);
+
+    private final List<Photo> photos = new ArrayList<>();
+
+    private PhotoService photoService;
+
+    @BeforeEach
+    void setUp() {
+        photoService = new PhotoService();
+        ReflectionTestUtils.setField(photoService, "photoRepository", photoRepository);
+
+        // 按(创建时间, ID)倒序模拟数据库查询
+        when(photoRepository.findUserPhotosFirst(eq(USER_ID), any(Pageable.class))).thenAnswer(invocation ->
+            query(null, null, invocation.getArgument(1)));
+        when(photoRepository.findUserPhotosAfter(eq(USER_ID), any(LocalDateTime.class), anyLong(), any(Pageable.class)))
+            .thenAnswer(invocation -> query(invocation.getArgument(1), invocation.getArgument(2),
+                invocation.getArgument(3)));
+    }
+
+    @Test
+    void testCursorRoundTripWithTiedCreationTimes() {
+        // 5条记录中有3条创建时间相同
+        addPhoto(1L, BASE_TIME);
+        addPhoto(2L, BASE_TIME.plusSeconds(1));
+        addPhoto(3L, BASE_TIME.plusSeconds(1));
+        addPhoto(4L, BASE_TIME.plusSeconds(1));
+        addPhoto(5L, BASE_TIME.plusSeconds(2));
+
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            CursorPage<PhotoDTO> page = photoService.getUserPhotos(USER_ID, cursor, 2);
+            page.getContent().forEach(photo -> ids.add(photo.getId()));
+            cursor = page.getNextCursor();
+            assertEquals(cursor != null, page.getHasNext());
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(List.of(5L, 4L, 3L, 2L, 1L), ids);
+        assertEquals(3, pages);
+    }
+
+    @Test
+    void testHasNextBoundary() {
+        addPhoto(1L, BASE_TIME);
+        addPhoto(2L, BASE_TIME.plusSeconds(1));
+        addPhoto(3L, BASE_TIME.plusSeconds(2));
+
+        // 恰好size条时没有下一页
+        CursorPage<PhotoDTO> page = photoService.getUserPhotos(USER_ID, null, 3);
+        assertEquals(3, page.getContent().size());
+        assertFalse(page.getHasNext());
+        assertNull(page.getNextCursor());
+
+        // 多一条时有下一页，下一页只剩最后一条
+        page = photoService.getUserPhotos(USER_ID, null, 2);
+        assertEquals(2, page.getContent().size());
+        assertTrue(page.getHasNext());
+        CursorPage<PhotoDTO> next = photoService.getUserPhotos(USER_ID, page.getNextCursor(), 2);
+        assertEquals(List.of(1L), next.getContent().stream().map(PhotoDTO::getId).collect(Collectors.toList()));
+        assertFalse(next.getHasNext());
+    }
+
+    @Test
+    void testMalformedCursorIsRejected() {
+        for (String cursor : new String[]{"not base64!", encode("no-separator"), encode("2024-01-01T12:00,abc"),
+                encode("yesterday,1")}) {
+            InvalidCursorException e = assertThrows(InvalidCursorException.class,
+                () -> photoService.getUserPhotos(USER_ID, cursor, 10));
+            ResponseEntity<ApiResponse<Void>> response = new GlobalExceptionHandler().handleInvalidCursorException(e);
+            assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        }
+        verify(photoRepository, never()).findUserPhotosAfter(any(), any(), any(), any());
+    }
+
+    private void addPhoto(Long id, LocalDateTime createdAt) {
+        photos.add(Photo.builder()
+            .id(id)
+            .userId(USER_ID)
+            .originalFilename("photo_" + id + ".jpg")
+            .storedFilename("photo_" + id + ".jpg")
+            .fileSize(100L)
+            .createdAt(createdAt)
+            .build());
+    }
+
+    private List<Photo> query(LocalDateTime createdAt, Long id, Pageable pageable) {
+        return photos.stream()
+            .filter(photo -> createdAt == null || photo.getCreatedAt().isBefore(createdAt)
+                || (photo.getCreatedAt().isEqual(createdAt) && photo.getId() < id))
+            .sorted(Comparator.comparing(Photo::getCreatedAt).thenComparing(Photo::getId).reversed())
+            .limit(pageable.getPageSize())
+            .collect(Collectors.toList());
+    }
+
+    private static String encode(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -37,6 +37,15 @@ class PhotoServiceTest {
     @Mock
     private FileStorageProperties storageProperties;
     
+    @Mock
+    private StorageUsageTracker storageUsageTracker;
+    
+    @Mock
+    private PhotoSearchIndex photoSearchIndex;
+    
+    @Mock
+    private SimilarityIndex similarityIndex;
+    
     @InjectMocks
     private PhotoService photoService;
     
@@ -171,8 +180,8 @@ class PhotoServiceTest {
     @Test
     void testGetStorageInfo() {
         // Given
-        when(photoRepository.sumAllFileSize()).thenReturn(1024000L);
-        when(photoRepository.countActiveFiles()).thenReturn(10L);
+        when(storageUsageTracker.getUsedBytes()).thenReturn(1024000L);
+        when(storageUsageTracker.getFileCount()).thenReturn(10L);
         when(storageProperties.getMaxStorageSize()).thenReturn(10737418240L);
         
         // When
@@ -0,0 +1,175 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.dto.IngestedFile;
+import com.photo.dto.PhotoUploadResponse;
+import com.photo.dto.UploadProgress;
+import com.photo.exception.FileNotFoundException;
+import com.photo.exception.FileStorageException;
+import com.photo.exception.UploadConflictException;
+import com.photo.util.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ResumableUploadService单元测试
+ */
+class ResumableUploadServiceTest {
+
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    private final FileStorageProperties properties = new FileStorageProperties();
+
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+
+    private final StorageUsageTracker storageUsageTracker = mock(StorageUsageTracker.class);
+
+    private final PhotoService photoService = mock(PhotoService.class);
+
+    private ResumableUploadService service;
+
+    @BeforeEach
+    void setUp() {
+        when(fileStorageService.getTempLocation()).thenReturn(tempDir);
+        when(storageUsageTracker.tryReserve(anyLong())).thenReturn(true);
+        IngestedFile ingestedFile = IngestedFile.builder().fileSize((long) CONTENT.length).build();
+        when(fileStorageService.ingestAssembled(any(), anyString(), anyString(), anyString())).thenReturn(ingestedFile);
+        when(photoService.uploadAssembled(any(), anyString(), any()))
+            .thenReturn(PhotoUploadResponse.builder().id(1L).build());
+        service = open();
+    }
+
+    @Test
+    void testOffsetMismatchIsRejected() {
+        String uploadId = create();
+        service.writeChunk(uploadId, 0, chunk(0, 5));
+
+        assertThrows(UploadConflictException.class, () -> service.writeChunk(uploadId, 0, chunk(0, 5)));
+        assertThrows(UploadConflictException.class, () -> service.writeChunk(uploadId, 8, chunk(8, 12)));
+        assertThrows(UploadConflictException.class, () -> service.complete(uploadId));
+        assertEquals(5, service.getProgress(uploadId).getBytesRead());
+    }
+
+    @Test
+    void testInterruptedChunkThenResume() throws Exception {
+        String uploadId = create();
+
+        // 读到7个字节后连接中断
+        InputStream interrupted = new InputStream() {
+            private final InputStream delegate = chunk(0, 7);
+
+            @Override
+            public int read() throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = delegate.read(buffer, offset, length);
+                if (read == -1) {
+                    throw new IOException("连接已断开");
+                }
+                return read;
+            }
+        };
+        assertThrows(FileStorageException.class, () -> service.writeChunk(uploadId, 0, interrupted));
+        assertEquals(7, service.getProgress(uploadId).getBytesRead());
+
+        UploadProgress progress = service.writeChunk(uploadId, 7, chunk(7, CONTENT.length));
+        assertEquals(CONTENT.length, progress.getBytesRead());
+
+        service.complete(uploadId);
+        verifyAssembledDigests();
+    }
+
+    @Test
+    void testRecoverSessionAfterRestart() throws Exception {
+        String uploadId = create();
+        service.writeChunk(uploadId, 0, chunk(0, 9));
+
+        // 重启后由会话信息恢复，重新预留空间，哈希按已接收的内容重新计算
+        service = open();
+        verify(storageUsageTracker, times(2)).tryReserve(CONTENT.length);
+        assertEquals(9, service.getProgress(uploadId).getBytesRead());
+
+        service.writeChunk(uploadId, 9, chunk(9, CONTENT.length));
+        service.complete(uploadId);
+        verifyAssembledDigests();
+    }
+
+    @Test
+    void testCancelReleasesReservation() throws IOException {
+        String uploadId = create();
+        service.writeChunk(uploadId, 0, chunk(0, 5));
+
+        service.cancel(uploadId);
+
+        verify(storageUsageTracker).releaseReservation(CONTENT.length);
+        assertThrows(FileNotFoundException.class, () -> service.getProgress(uploadId));
+        assertEquals(0, sessionFiles());
+    }
+
+    @Test
+    void testExpiredSessionReleasesReservation() throws Exception {
+        String uploadId = create();
+        properties.getResumable().setSessionTimeout(1L);
+        Thread.sleep(20);
+
+        service.cleanupExpiredSessions();
+
+        verify(storageUsageTracker).releaseReservation(CONTENT.length);
+        assertThrows(FileNotFoundException.class, () -> service.getProgress(uploadId));
+        assertEquals(0, sessionFiles());
+    }
+
+    private ResumableUploadService open() {
+        ResumableUploadService uploadService = new ResumableUploadService();
+        ReflectionTestUtils.setField(uploadService, "storageProperties", properties);
+        ReflectionTestUtils.setField(uploadService, "fileStorageService", fileStorageService);
+        ReflectionTestUtils.setField(uploadService, "storageUsageTracker", storageUsageTracker);
+        ReflectionTestUtils.setField(uploadService, "photoService", photoService);
+        ReflectionTestUtils.setField(uploadService, "uploadProgressRegistry", mock(UploadProgressRegistry.class));
+        uploadService.init();
+        return uploadService;
+    }
+
+    private String create() {
+        return service.create("photo.jpg", CONTENT.length, "u1", null).getUploadId();
+    }
+
+    private void verifyAssembledDigests() throws Exception {
+        String md5 = FileUtils.toHex(MessageDigest.getInstance("MD5").digest(CONTENT));
+        String sha256 = FileUtils.toHex(MessageDigest.getInstance("SHA-256").digest(CONTENT));
+        verify(fileStorageService).ingestAssembled(any(), eq("photo.jpg"), eq(md5), eq(sha256));
+        verify(photoService).uploadAssembled(any(), eq("u1"), isNull());
+    }
+
+    private long sessionFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir.resolve("resumable"))) {
+            return files.count();
+        }
+    }
+
+    private static InputStream chunk(int from, int to) {
+        return new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, from, to));
+    }
+}
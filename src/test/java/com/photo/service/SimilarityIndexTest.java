@@ -0,0 +1,80 @@
+package com.photo.service;
+
+import com.photo.util.ImageUtils;
+import net.coobird.thumbnailator.Thumbnails;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SimilarityIndex单元测试
+ */
+class SimilarityIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSearchWithinDistance() {
+        SimilarityIndex index = new SimilarityIndex();
+        long base = 0x0123456789ABCDEFL;
+        index.add(1L, base);
+        index.add(2L, base ^ 0b1L);                    // 距离1
+        index.add(3L, base ^ 0x000F000F000F000FL);     // 距离16，每段4位
+        index.add(4L, base ^ 0xFFFF000000000000L);     // 距离16，集中在一段
+        index.add(5L, ~base);                          // 距离64
+        index.add(2L, base ^ 0b1L);                    // 重复加入被忽略
+
+        assertEquals(List.of(1L, 2L), ids(index.search(base, 3, 10)));
+        // 距离相同时新照片在前
+        assertEquals(List.of(1L, 2L, 4L, 3L), ids(index.search(base, 16, 10)));
+        assertEquals(1, index.search(base, 16, 1).size());
+
+        index.remove(1L, base);
+        assertEquals(List.of(2L), ids(index.search(base, 3, 10)));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    void testPerceptualHashToleratesResizeAndRecompression() throws IOException {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        Random random = new Random(42);
+        for (int i = 0; i < 40; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillOval(random.nextInt(600), random.nextInt(440), 40 + random.nextInt(200), 40 + random.nextInt(200));
+        }
+        g.dispose();
+
+        File original = tempDir.resolve("original.png").toFile();
+        ImageIO.write(image, "png", original);
+        File resized = tempDir.resolve("resized.jpg").toFile();
+        Thumbnails.of(image).size(320, 240).outputQuality(0.5).outputFormat("jpg").toFile(resized);
+        File other = tempDir.resolve("other.png").toFile();
+        ImageIO.write(new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB), "png", other);
+
+        Long originalHash = ImageUtils.perceptualHash(original);
+        Long resizedHash = ImageUtils.perceptualHash(resized);
+        assertNotNull(originalHash);
+        assertNotNull(resizedHash);
+        assertTrue(Long.bitCount(originalHash ^ resizedHash) <= 4);
+        assertTrue(Long.bitCount(originalHash ^ ImageUtils.perceptualHash(other)) > 10);
+        assertNull(ImageUtils.perceptualHash(tempDir.resolve("missing.jpg").toFile()));
+    }
+
+    private static List<Long> ids(List<SimilarityIndex.Match> matches) {
+        return matches.stream().map(SimilarityIndex.Match::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,93 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.repository.PhotoBlobRepository;
+import com.photo.repository.PhotoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * StorageUsageTracker单元测试
+ */
+class StorageUsageTrackerTest {
+
+    private final PhotoBlobRepository photoBlobRepository = mock(PhotoBlobRepository.class);
+
+    private final PhotoRepository photoRepository = mock(PhotoRepository.class);
+
+    private StorageUsageTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        when(photoBlobRepository.sumFileSize()).thenReturn(1000L);
+        when(photoRepository.sumLegacyFileSize()).thenReturn(0L);
+        when(photoRepository.countActiveFiles()).thenReturn(1L);
+
+        tracker = new StorageUsageTracker();
+        ReflectionTestUtils.setField(tracker, "photoBlobRepository", photoBlobRepository);
+        ReflectionTestUtils.setField(tracker, "photoRepository", photoRepository);
+        ReflectionTestUtils.setField(tracker, "storageProperties", new FileStorageProperties());
+        tracker.init();
+    }
+
+    @Test
+    void testReconcileBetweenCommitAndCallbackDoesNotCountTwice() {
+        assertTrue(tracker.tryReserve(200));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            tracker.commitReservation(200, 200);
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+
+            // 事务已提交，数据库已包含新内容，计数回调尚未执行
+            when(photoBlobRepository.sumFileSize()).thenReturn(1200L);
+            when(photoRepository.countActiveFiles()).thenReturn(2L);
+            tracker.reconcile();
+
+            TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations,
+                TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(1200, tracker.getUsedBytes());
+        assertEquals(2, tracker.getFileCount());
+
+        // 没有进行中的提交时校对生效
+        when(photoBlobRepository.sumFileSize()).thenReturn(1100L);
+        tracker.reconcile();
+        assertEquals(1100, tracker.getUsedBytes());
+    }
+
+    @Test
+    void testRollbackReleasesReservation() {
+        assertTrue(tracker.tryReserve(200));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            tracker.commitReservation(200, 200);
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                TransactionSynchronizationManager.getSynchronizations(),
+                TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(1000, tracker.getUsedBytes());
+        assertEquals(1, tracker.getFileCount());
+        // 回滚的事务不影响之后的校对
+        when(photoBlobRepository.sumFileSize()).thenReturn(900L);
+        tracker.reconcile();
+        assertEquals(900, tracker.getUsedBytes());
+    }
+}
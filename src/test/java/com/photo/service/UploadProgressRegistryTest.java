@@ -0,0 +1,71 @@
+package com.photo.service;
+
+import com.photo.config.FileStorageProperties;
+import com.photo.dto.UploadProgress;
+import com.photo.exception.FileTypeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * UploadProgressRegistry单元测试
+ */
+class UploadProgressRegistryTest {
+
+    private static final String UPLOAD_ID = "test-upload-0001";
+
+    private final List<UploadProgress> published = new ArrayList<>();
+
+    private UploadProgressRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new UploadProgressRegistry() {
+            @Override
+            public void publish(UploadProgress progress) {
+                published.add(progress);
+                super.publish(progress);
+            }
+        };
+        ReflectionTestUtils.setField(registry, "storageProperties", new FileStorageProperties());
+    }
+
+    @Test
+    void testTrackerPublishesOnPercentageChangeAndEvictsWhenFinished() throws IOException {
+        UploadProgressTracker tracker = registry.start(UPLOAD_ID, 1000, 1);
+        assertEquals(1, registry.size());
+
+        try (InputStream inputStream = tracker.track(new ByteArrayInputStream(new byte[1000]), 0)) {
+            byte[] buffer = new byte[5];
+            while (inputStream.read(buffer) != -1) {
+                // 每次读取0.5%
+            }
+        }
+        // 开始事件 + 1%到100%各一次
+        assertEquals(101, published.size());
+        UploadProgress last = published.get(published.size() - 1);
+        assertEquals(1000L, last.getBytesRead());
+        assertEquals(100, last.getPercentage());
+        assertEquals(UploadProgressRegistry.STATUS_UPLOADING, last.getStatus());
+
+        tracker.processing(0, "a.jpg");
+        tracker.completed("ID=1");
+        assertEquals(UploadProgressRegistry.STATUS_COMPLETED, published.get(published.size() - 1).getStatus());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void testWithoutUploadId() {
+        assertSame(UploadProgressTracker.NONE, registry.start(null, 1000, 1));
+        assertEquals(0, registry.size());
+        assertThrows(FileTypeException.class, () -> registry.subscribe("../x"));
+    }
+}
@@ -0,0 +1,57 @@
+package com.photo.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FingerprintSet单元测试
+ */
+class FingerprintSetTest {
+
+    @Test
+    void testAddContainsAndResize() {
+        // 预估容量偏小时自动扩容
+        FingerprintSet set = new FingerprintSet(10);
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(set.add(name(i)));
+        }
+        assertFalse(set.add(name(42)));
+        assertEquals(100_000, set.size());
+
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(set.contains(name(i)));
+        }
+        for (int i = 100_000; i < 200_000; i++) {
+            assertFalse(set.contains(name(i)));
+        }
+    }
+
+    @Test
+    void testMarkSeenConcurrently() {
+        FingerprintSet set = new FingerprintSet(10_000);
+        for (int i = 0; i < 10_000; i++) {
+            set.add(name(i));
+        }
+
+        IntStream.range(0, 20_000).parallel()
+            .forEach(i -> assertEquals(i % 15_000 < 10_000, set.markSeen(name(i % 15_000))));
+        assertTrue(set.isSeen(name(0)));
+        assertTrue(set.isSeen(name(9_999)));
+        assertFalse(set.isSeen(name(10_000)));
+
+        // 标记不影响查询，扩容后标记保留
+        assertTrue(set.contains(name(1)));
+        for (int i = 10_000; i < 50_000; i++) {
+            set.add(name(i));
+        }
+        assertTrue(set.isSeen(name(1)));
+        assertFalse(set.isSeen(name(20_000)));
+    }
+
+    private static String name(int i) {
+        return String.format("%064x.jpg", (long) i * 0x9E3779B97F4A7C15L);
+    }
+}
@@ -0,0 +1,125 @@
+package com.photo.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImageProbe单元测试
+ */
+class ImageProbeTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testProbeEncodedImages() throws IOException {
+        for (String format : new String[]{"jpeg", "png", "gif", "bmp"}) {
+            byte[] data = encode(format, 320, 240);
+
+            ImageProbe.ImageInfo info = ImageProbe.probe(data, data.length);
+
+            assertNotNull(info, format);
+            assertEquals(format, info.getFormat());
+            assertEquals(320, info.getWidth());
+            assertEquals(240, info.getHeight());
+            assertEquals("image/" + format, info.getMimeType());
+        }
+    }
+
+    @Test
+    void testProbeWebp() {
+        // VP8X: 画布宽高减1，24位小端
+        byte[] vp8x = webp("VP8X", new byte[]{0x10, 0, 0, 0, (byte) 0x3F, 0x06, 0, (byte) 0xDF, 0x04, 0});
+        ImageProbe.ImageInfo info = ImageProbe.probe(vp8x, vp8x.length);
+        assertNotNull(info);
+        assertEquals(1600, info.getWidth());
+        assertEquals(1248, info.getHeight());
+
+        // VP8L: 14位宽高减1
+        long bits = (100 - 1) | ((long) (50 - 1) << 14);
+        byte[] vp8l = webp("VP8L", new byte[]{0x2F, (byte) bits, (byte) (bits >> 8), (byte) (bits >> 16), (byte) (bits >> 24)});
+        info = ImageProbe.probe(vp8l, vp8l.length);
+        assertNotNull(info);
+        assertEquals(100, info.getWidth());
+        assertEquals(50, info.getHeight());
+
+        // VP8: 起始码后为14位宽高
+        byte[] vp8 = webp("VP8 ", new byte[]{0, 0, 0, (byte) 0x9D, 0x01, 0x2A, (byte) 0x80, 0x02, (byte) 0xE0, 0x01});
+        info = ImageProbe.probe(vp8, vp8.length);
+        assertNotNull(info);
+        assertEquals(640, info.getWidth());
+        assertEquals(480, info.getHeight());
+    }
+
+    @Test
+    void testRejectInvalidData() throws IOException {
+        byte[] text = "not an image".getBytes();
+        assertNull(ImageProbe.probe(text, text.length));
+
+        // 截断的文件头
+        byte[] png = encode("png", 10, 10);
+        assertNull(ImageProbe.probe(png, 20));
+
+        // IHDR校验和错误
+        byte[] corrupted = Arrays.copyOf(png, png.length);
+        corrupted[17] ^= 0x01;
+        assertNull(ImageProbe.probe(corrupted, corrupted.length));
+
+        // 扫描开始之前没有SOF段
+        byte[] noFrame = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 2};
+        assertNull(ImageProbe.probe(noFrame, noFrame.length));
+    }
+
+    @Test
+    void testProbeFileWithLargeLeadingSegment() throws IOException {
+        byte[] jpeg = encode("jpeg", 64, 48);
+
+        // 在SOI之后插入多个APP段，使SOF超出常规文件头缓冲区
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        byte[] payload = new byte[65533];
+        for (int i = 0; i < 3; i++) {
+            out.write(new byte[]{(byte) 0xFF, (byte) 0xE1, (byte) 0xFF, (byte) 0xFF});
+            out.write(payload);
+        }
+        out.write(jpeg, 2, jpeg.length - 2);
+        byte[] data = out.toByteArray();
+
+        assertNull(ImageProbe.probe(data, 64 * 1024));
+
+        File file = tempDir.resolve("large-exif.jpg").toFile();
+        Files.write(file.toPath(), data);
+        ImageProbe.ImageInfo info = ImageProbe.probe(file);
+        assertNotNull(info);
+        assertEquals(64, info.getWidth());
+        assertEquals(48, info.getHeight());
+    }
+
+    private byte[] encode(String format, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, format, out));
+        return out.toByteArray();
+    }
+
+    private byte[] webp(String chunkType, byte[] chunkData) {
+        byte[] data = new byte[20 + chunkData.length];
+        System.arraycopy("RIFF".getBytes(), 0, data, 0, 4);
+        System.arraycopy("WEBP".getBytes(), 0, data, 8, 4);
+        System.arraycopy(chunkType.getBytes(), 0, data, 12, 4);
+        data[16] = (byte) chunkData.length;
+        System.arraycopy(chunkData, 0, data, 20, chunkData.length);
+        return data;
+    }
+}
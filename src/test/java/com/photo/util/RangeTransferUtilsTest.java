@@ -0,0 +1,111 @@
+package com.photo.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RangeTransferUtils单元测试
+ */
+class RangeTransferUtilsTest {
+
+    private static final String ETAG = "\"abc-o-d\"";
+
+    private static final long LAST_MODIFIED = 1_700_000_000_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = tempDir.resolve("data.bin");
+        Files.write(file, "0123456789".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void testSingleAndSuffixRanges() throws IOException {
+        MockHttpServletResponse response = send("bytes=2-4", null);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 2-4/10", response.getHeader("Content-Range"));
+        assertEquals("234", response.getContentAsString());
+
+        response = send("bytes=-3", null);
+        assertEquals("bytes 7-9/10", response.getHeader("Content-Range"));
+        assertEquals("789", response.getContentAsString());
+
+        response = send("bytes=8-", null);
+        assertEquals("89", response.getContentAsString());
+
+        // 结束位置超出文件大小时截取到末尾
+        response = send("bytes=5-100", null);
+        assertEquals("bytes 5-9/10", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    void testMultipleRanges() throws IOException {
+        MockHttpServletResponse response = send("bytes=0-1,6-7", null);
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String body = response.getContentAsString();
+        assertTrue(body.contains("Content-Range: bytes 0-1/10\r\n\r\n01\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 6-7/10\r\n\r\n67\r\n"));
+        assertEquals(body.length(), response.getContentLength());
+
+        // 重叠的范围合并为一个
+        response = send("bytes=0-3,2-5", null);
+        assertEquals("bytes 0-5/10", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    void testUnsatisfiableAndInvalidRanges() throws IOException {
+        MockHttpServletResponse response = send("bytes=10-20", null);
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */10", response.getHeader("Content-Range"));
+
+        // 无法解析的Range头被忽略
+        response = send("bytes=abc", null);
+        assertEquals(200, response.getStatus());
+        assertEquals("0123456789", response.getContentAsString());
+    }
+
+    @Test
+    void testIfRange() throws IOException {
+        assertEquals(206, send("bytes=0-1", ETAG).getStatus());
+        assertEquals(200, send("bytes=0-1", "\"other\"").getStatus());
+        assertEquals(200, send("bytes=0-1", "W/" + ETAG).getStatus());
+
+        MockHttpServletRequest request = request("bytes=0-1");
+        request.addHeader("If-Range", LAST_MODIFIED);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RangeTransferUtils.writeRanges(request, response, file, "image/jpeg", ETAG, LAST_MODIFIED);
+        assertEquals(206, response.getStatus());
+    }
+
+    private MockHttpServletResponse send(String range, String ifRange) throws IOException {
+        MockHttpServletRequest request = request(range);
+        if (ifRange != null) {
+            request.addHeader("If-Range", ifRange);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RangeTransferUtils.writeRanges(request, response, file, "image/jpeg", ETAG, LAST_MODIFIED);
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String range) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/photos/download/range/data.bin");
+        request.addHeader("Range", range);
+        return request;
+    }
+}
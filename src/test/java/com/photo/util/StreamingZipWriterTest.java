@@ -0,0 +1,95 @@
+package com.photo.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * StreamingZipWriter单元测试
+ */
+class StreamingZipWriterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testStoredAndDeflatedEntries() throws Exception {
+        byte[] random = new byte[200_000];
+        new Random(1).nextBytes(random);
+        byte[] text = "照片".repeat(50_000).getBytes();
+        Path photo = Files.write(dir.resolve("a.jpg"), random);
+        Path bitmap = Files.write(dir.resolve("b.bmp"), text);
+        Path empty = Files.write(dir.resolve("c.png"), new byte[0]);
+        LocalDateTime modifiedAt = LocalDateTime.of(2024, 5, 6, 7, 8, 10);
+
+        Path zipFile = dir.resolve("out.zip");
+        try (OutputStream out = Files.newOutputStream(zipFile);
+             StreamingZipWriter zip = new StreamingZipWriter(out, dir.resolve("cd.tmp"))) {
+            zip.putFile("1_a.jpg", photo, false, modifiedAt);
+            zip.putFile("2_风景.bmp", bitmap, true, modifiedAt);
+            // 文件缺失时不写入任何内容，可以继续写入后续条目
+            assertThrows(NoSuchFileException.class,
+                () -> zip.putFile("3_missing.jpg", dir.resolve("missing.jpg"), false, modifiedAt));
+            zip.putFile("4_c.png", empty, false, null);
+            zip.finish();
+            assertEquals(3, zip.getEntryCount());
+            out.flush();
+            assertEquals(Files.size(zipFile), zip.getBytesWritten());
+        }
+        assertFalse(Files.exists(dir.resolve("cd.tmp")));
+
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            assertEquals(3, zip.size());
+
+            ZipEntry stored = zip.getEntry("1_a.jpg");
+            assertEquals(ZipEntry.STORED, stored.getMethod());
+            assertEquals(modifiedAt, stored.getTimeLocal());
+            assertArrayEquals(random, read(zip, stored));
+
+            ZipEntry deflated = zip.getEntry("2_风景.bmp");
+            assertEquals(ZipEntry.DEFLATED, deflated.getMethod());
+            assertTrue(deflated.getCompressedSize() < text.length / 10);
+            assertArrayEquals(text, read(zip, deflated));
+
+            assertArrayEquals(new byte[0], read(zip, zip.getEntry("4_c.png")));
+        }
+    }
+
+    @Test
+    void testZip64EntryCount() throws Exception {
+        Path file = Files.write(dir.resolve("x.png"), new byte[]{1, 2, 3});
+        int entries = 70_000;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (StreamingZipWriter zip = new StreamingZipWriter(out, dir.resolve("cd.tmp"))) {
+            for (int i = 0; i < entries; i++) {
+                zip.putFile(i + ".png", file, false, null);
+            }
+            zip.finish();
+        }
+
+        Path zipFile = Files.write(dir.resolve("many.zip"), out.toByteArray());
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            assertEquals(entries, zip.size());
+            assertArrayEquals(new byte[]{1, 2, 3}, read(zip, zip.getEntry((entries - 1) + ".png")));
+        }
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws Exception {
+        try (InputStream in = zip.getInputStream(entry)) {
+            return in.readAllBytes();
+        }
+    }
+}